@@ -0,0 +1,97 @@
+package hiphip;
+
+/*********************************************************************************************
+ * Walker's alias method (in Vose's formulation) for sampling indices in proportion to a
+ * fixed array of weights: O(n) to build, and O(1) per sample, from a single random draw.
+ *
+ * Samples are drawn from hiphip.SplitMix streams, so the ith sample for a seed depends only
+ * on the seed and i.
+ *********************************************************************************************/
+public class AliasSampler {
+  private final double[] prob;
+  private final int[] alias;
+
+ /**
+  * @param weights non-negative finite weights, not all zero.  Index k is sampled with
+  *                probability weights[k] / (sum of weights).
+  */
+  public AliasSampler(double[] weights) {
+    int n = weights.length;
+    if (n == 0) throw new IllegalArgumentException("Weights must be non-empty");
+    double total = 0;
+    for (double w : weights) {
+      if (!(w >= 0 && w < Double.POSITIVE_INFINITY))
+        throw new IllegalArgumentException("Weights must be finite and non-negative, got " + w);
+      total += w;
+    }
+    if (!(total > 0 && total < Double.POSITIVE_INFINITY))
+      throw new IllegalArgumentException("Weights must have a positive finite sum, got " + total);
+
+    prob = new double[n];
+    alias = new int[n];
+    double[] scaled = new double[n];
+    int[] small = new int[n], large = new int[n];
+    int ns = 0, nl = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] = weights[i] * n / total;
+      if (scaled[i] < 1) small[ns++] = i;
+      else large[nl++] = i;
+    }
+    while (ns > 0 && nl > 0) {
+      int s = small[--ns], l = large[--nl];
+      prob[s] = scaled[s];
+      alias[s] = l;
+      scaled[l] = (scaled[l] + scaled[s]) - 1;
+      if (scaled[l] < 1) small[ns++] = l;
+      else large[nl++] = l;
+    }
+    // Whatever is left over has (up to rounding) probability 1 of keeping its own column.
+    while (nl > 0) {
+      int l = large[--nl];
+      prob[l] = 1;
+      alias[l] = l;
+    }
+    while (ns > 0) {
+      int s = small[--ns];
+      prob[s] = 1;
+      alias[s] = s;
+    }
+  }
+
+  public AliasSampler(float[] weights) {
+    this(widen(weights));
+  }
+
+  private static double[] widen(float[] xs) {
+    double[] ret = new double[xs.length];
+    for (int i = 0; i < xs.length; i++) ret[i] = xs[i];
+    return ret;
+  }
+
+  /** The number of weights, i.e., one more than the largest index that can be sampled. */
+  public int size() {
+    return prob.length;
+  }
+
+  /** The ith sample of the stream for seed. */
+  public int sample(long seed, long i) {
+    int n = prob.length;
+    double u = SplitMix.uniform(seed, i) * n;
+    int col = Math.min((int) u, n - 1);
+    return (u - col < prob[col]) ? col : alias[col];
+  }
+
+ /**
+  * Fill out[start, end) with samples, where out[i] is the ith sample of the stream for seed.
+  *
+  * @param  out   the array to fill
+  * @param  start the first index to fill
+  * @param  end   one past the last index to fill
+  * @param  seed  the seed of the stream
+  * @return       out
+  */
+  public int[] fill(int[] out, int start, int end, long seed) {
+    for (int i = start; i < end; i++) out[i] = sample(seed, i);
+    return out;
+  }
+}
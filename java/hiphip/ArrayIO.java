@@ -0,0 +1,411 @@
+package hiphip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/*********************************************************************************************
+ * Binary serialization of double, float, int and long arrays over NIO channels.
+ *
+ * A stream is a 16-byte header followed by the elements.  The header (always big-endian) is
+ * the magic "HIPH", a format version, the element type ('D', 'F', 'I' or 'J', as in JVM type
+ * descriptors), the encoding, the byte order of the elements (0 for big-endian, 1 for
+ * little-endian), and the number of elements as a long.
+ *
+ * Raw elements are bulk-copied through a ByteBuffer view in the stream's byte order.  Sorted
+ * (non-decreasing) int and long arrays can instead be written DELTA_VARINT: each element is
+ * stored as its difference from the previous one (the first from the type's MIN_VALUE), as
+ * an unsigned LEB128 varint, which takes one byte per element for dense ids.
+ *
+ * Writers and Readers buffer a fixed number of bytes, so arrays of any length can be streamed
+ * through them in chunks.
+ *********************************************************************************************/
+public final class ArrayIO {
+  private ArrayIO() {}
+
+  public static final int MAGIC = 0x48495048;
+  public static final int VERSION = 1;
+  public static final int HEADER_BYTES = 16;
+
+  public static final int RAW = 0;
+  public static final int DELTA_VARINT = 1;
+
+  public static final int DEFAULT_BUFFER_BYTES = 1 << 16;
+
+  private static final int MAX_VARINT_BYTES = 10;
+
+  static int elementBytes(char type) {
+    switch (type) {
+    case 'D': case 'J': return 8;
+    case 'F': case 'I': return 4;
+    default: throw new IllegalArgumentException("Unknown element type " + type);
+    }
+  }
+
+  /** The value the first delta of a DELTA_VARINT stream is taken from. */
+  private static long deltaBase(char type) {
+    return type == 'I' ? Integer.MIN_VALUE : Long.MIN_VALUE;
+  }
+
+  private static void writeFully(WritableByteChannel ch, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) ch.write(buf);
+  }
+
+  private static void readFully(ReadableByteChannel ch, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      if (ch.read(buf) < 0) throw new EOFException("Stream ended in the header");
+    }
+  }
+
+ /**
+  * Streams arrays to a channel.  The element type, count, encoding and byte order are fixed
+  * when the Writer is created, and the header is written immediately; the chunks written
+  * must then add up to exactly the declared count before the Writer is closed.
+  */
+  public static final class Writer implements Closeable {
+    private final WritableByteChannel ch;
+    private final char type;
+    private final long length;
+    private final int encoding;
+    private final ByteBuffer buf;
+    private long written = 0;
+    private long prev;
+    private boolean failed = false;
+
+   /**
+    * @param ch          the channel to write to, which is closed with the Writer
+    * @param type        the element type: 'D', 'F', 'I' or 'J'
+    * @param length      the total number of elements that will be written
+    * @param encoding    RAW, or DELTA_VARINT for sorted ints and longs
+    * @param order       the byte order of raw elements
+    * @param bufferBytes the size of the buffer, at least 16
+    */
+    public Writer(WritableByteChannel ch, char type, long length, int encoding, ByteOrder order,
+                  int bufferBytes) throws IOException {
+      int size = elementBytes(type);
+      if (length < 0) throw new IllegalArgumentException("Negative length " + length);
+      if (encoding != RAW && encoding != DELTA_VARINT)
+        throw new IllegalArgumentException("Unknown encoding " + encoding);
+      if (encoding == DELTA_VARINT && type != 'I' && type != 'J')
+        throw new IllegalArgumentException("Delta-varint encoding is only for ints and longs");
+      if (bufferBytes < 16) throw new IllegalArgumentException("Buffer too small: " + bufferBytes);
+      this.ch = ch;
+      this.type = type;
+      this.length = length;
+      this.encoding = encoding;
+      this.prev = deltaBase(type);
+      this.buf = ByteBuffer.allocateDirect(bufferBytes - bufferBytes % size);
+      buf.putInt(MAGIC).put((byte) VERSION).put((byte) type).put((byte) encoding)
+        .put((byte) (order == ByteOrder.BIG_ENDIAN ? 0 : 1)).putLong(length);
+      buf.order(order);
+      flush();
+    }
+
+    public Writer(WritableByteChannel ch, char type, long length) throws IOException {
+      this(ch, type, length, RAW, ByteOrder.nativeOrder(), DEFAULT_BUFFER_BYTES);
+    }
+
+    public char type() {
+      return type;
+    }
+
+    public long length() {
+      return length;
+    }
+
+    private void flush() throws IOException {
+      buf.flip();
+      writeFully(ch, buf);
+      buf.clear();
+    }
+
+   /**
+    * Marks the Writer as failed, so that closing it doesn't throw as well, hiding e (e.g., in
+    * with-open).
+    */
+    private RuntimeException fail(RuntimeException e) {
+      failed = true;
+      return e;
+    }
+
+    private void begin(char t, int start, int end, int arrayLength) {
+      if (t != type) {
+        throw fail(new IllegalArgumentException("Writer is for " + type + ", not " + t));
+      }
+      try {
+        IndexArrays.checkRange(start, end, arrayLength);
+      } catch (IndexOutOfBoundsException e) {
+        throw fail(e);
+      }
+      if (end - start > length - written) {
+        throw fail(new IllegalStateException("Writing " + (end - start) + " more elements would "
+                                             + "exceed the declared length " + length));
+      }
+    }
+
+    private void putVarint(long x, long previous) throws IOException {
+      if (x < previous) {
+        throw fail(new IllegalArgumentException("Delta-varint input must be non-decreasing, but "
+                                                + x + " follows " + previous));
+      }
+      if (buf.remaining() < MAX_VARINT_BYTES) flush();
+      long d = x - previous;
+      while ((d & ~0x7FL) != 0) {
+        buf.put((byte) ((d & 0x7F) | 0x80));
+        d >>>= 7;
+      }
+      buf.put((byte) d);
+    }
+
+    public Writer write(double[] xs, int start, int end) throws IOException {
+      begin('D', start, end, xs.length);
+      for (int i = start; i < end; ) {
+        int n = Math.min(end - i, buf.remaining() / 8);
+        buf.asDoubleBuffer().put(xs, i, n);
+        buf.position(buf.position() + n * 8);
+        i += n;
+        written += n;
+        if (!buf.hasRemaining()) flush();
+      }
+      return this;
+    }
+
+    public Writer write(float[] xs, int start, int end) throws IOException {
+      begin('F', start, end, xs.length);
+      for (int i = start; i < end; ) {
+        int n = Math.min(end - i, buf.remaining() / 4);
+        buf.asFloatBuffer().put(xs, i, n);
+        buf.position(buf.position() + n * 4);
+        i += n;
+        written += n;
+        if (!buf.hasRemaining()) flush();
+      }
+      return this;
+    }
+
+    public Writer write(int[] xs, int start, int end) throws IOException {
+      begin('I', start, end, xs.length);
+      if (encoding == DELTA_VARINT) {
+        for (int i = start; i < end; i++) {
+          putVarint(xs[i], prev);
+          prev = xs[i];
+        }
+        written += end - start;
+        return this;
+      }
+      for (int i = start; i < end; ) {
+        int n = Math.min(end - i, buf.remaining() / 4);
+        buf.asIntBuffer().put(xs, i, n);
+        buf.position(buf.position() + n * 4);
+        i += n;
+        written += n;
+        if (!buf.hasRemaining()) flush();
+      }
+      return this;
+    }
+
+    public Writer write(long[] xs, int start, int end) throws IOException {
+      begin('J', start, end, xs.length);
+      if (encoding == DELTA_VARINT) {
+        for (int i = start; i < end; i++) {
+          putVarint(xs[i], prev);
+          prev = xs[i];
+        }
+        written += end - start;
+        return this;
+      }
+      for (int i = start; i < end; ) {
+        int n = Math.min(end - i, buf.remaining() / 8);
+        buf.asLongBuffer().put(xs, i, n);
+        buf.position(buf.position() + n * 8);
+        i += n;
+        written += n;
+        if (!buf.hasRemaining()) flush();
+      }
+      return this;
+    }
+
+   /**
+    * Flushes the buffer and closes the channel.  Throws an IllegalStateException (after
+    * closing the channel) if fewer elements were written than declared, unless a write was
+    * already rejected.
+    */
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        ch.close();
+      }
+      if (written != length && !failed) {
+        throw new IllegalStateException("Closed after writing " + written + " of " + length
+                                        + " elements");
+      }
+    }
+  }
+
+ /**
+  * Streams arrays from a channel, starting with its header.  Each read copies up to the
+  * requested number of elements, and returns how many it copied, or -1 once every element
+  * has been read.
+  */
+  public static final class Reader implements Closeable {
+    private final ReadableByteChannel ch;
+    private final char type;
+    private final long length;
+    private final int encoding;
+    private final ByteBuffer buf;
+    private long read = 0;
+    private long prev;
+    private boolean eof = false;
+
+    public Reader(ReadableByteChannel ch, int bufferBytes) throws IOException {
+      if (bufferBytes < 16) throw new IllegalArgumentException("Buffer too small: " + bufferBytes);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      readFully(ch, header);
+      header.flip();
+      if (header.getInt() != MAGIC) throw new IOException("Not a hiphip array stream");
+      int version = header.get();
+      if (version != VERSION) throw new IOException("Unsupported format version " + version);
+      this.ch = ch;
+      this.type = (char) header.get();
+      this.encoding = header.get();
+      ByteOrder order = header.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+      this.length = header.getLong();
+      int size = elementBytes(type);
+      if (encoding != RAW && encoding != DELTA_VARINT)
+        throw new IOException("Unknown encoding " + encoding);
+      this.prev = deltaBase(type);
+      this.buf = ByteBuffer.allocateDirect(bufferBytes - bufferBytes % size).order(order);
+      if (encoding == DELTA_VARINT) buf.flip();
+    }
+
+    public Reader(ReadableByteChannel ch) throws IOException {
+      this(ch, DEFAULT_BUFFER_BYTES);
+    }
+
+    /** The element type: 'D', 'F', 'I' or 'J'. */
+    public char type() {
+      return type;
+    }
+
+    /** The total number of elements in the stream. */
+    public long length() {
+      return length;
+    }
+
+    /** The number of elements not yet read. */
+    public long remaining() {
+      return length - read;
+    }
+
+    private int begin(char t, int start, int end, int arrayLength) {
+      if (t != type) throw new IllegalArgumentException("Reader is for " + type + ", not " + t);
+      IndexArrays.checkRange(start, end, arrayLength);
+      return (int) Math.min(end - start, length - read);
+    }
+
+    /** Fill the buffer until it holds at least min bytes, and flip it for reading. */
+    private void fill(int min, boolean required) throws IOException {
+      while (buf.position() < min) {
+        if (ch.read(buf) < 0) {
+          eof = true;
+          if (required) throw new EOFException("Stream ended after " + read + " of " + length
+                                               + " elements");
+          break;
+        }
+      }
+      buf.flip();
+    }
+
+    /** Fill the buffer with up to n raw elements of size bytes, and return how many it has. */
+    private int fillRaw(int n, int size) throws IOException {
+      n = Math.min(n, buf.capacity() / size);
+      fill(n * size, true);
+      return n;
+    }
+
+    private void done(int bytes, int n) {
+      buf.position(bytes);
+      buf.compact();
+      read += n;
+    }
+
+   /**
+    * The next delta of a DELTA_VARINT stream, whose buffer is kept in read mode, refilled
+    * whenever it might not hold a whole varint.
+    */
+    private long nextDelta() throws IOException {
+      if (buf.remaining() < MAX_VARINT_BYTES && !eof) {
+        buf.compact();
+        fill(MAX_VARINT_BYTES, false);
+      }
+      long d = 0;
+      for (int shift = 0; ; shift += 7) {
+        if (!buf.hasRemaining()) throw new EOFException("Stream ended in a varint");
+        byte b = buf.get();
+        d |= (long) (b & 0x7F) << shift;
+        if (b >= 0) return d;
+      }
+    }
+
+    public int read(double[] xs, int start, int end) throws IOException {
+      int n = begin('D', start, end, xs.length);
+      if (n == 0) return end == start ? 0 : -1;
+      n = fillRaw(n, 8);
+      buf.asDoubleBuffer().get(xs, start, n);
+      done(n * 8, n);
+      return n;
+    }
+
+    public int read(float[] xs, int start, int end) throws IOException {
+      int n = begin('F', start, end, xs.length);
+      if (n == 0) return end == start ? 0 : -1;
+      n = fillRaw(n, 4);
+      buf.asFloatBuffer().get(xs, start, n);
+      done(n * 4, n);
+      return n;
+    }
+
+    public int read(int[] xs, int start, int end) throws IOException {
+      int n = begin('I', start, end, xs.length);
+      if (n == 0) return end == start ? 0 : -1;
+      if (encoding == DELTA_VARINT) {
+        for (int i = start; i < start + n; i++) {
+          prev += nextDelta();
+          xs[i] = (int) prev;
+        }
+        read += n;
+        return n;
+      }
+      n = fillRaw(n, 4);
+      buf.asIntBuffer().get(xs, start, n);
+      done(n * 4, n);
+      return n;
+    }
+
+    public int read(long[] xs, int start, int end) throws IOException {
+      int n = begin('J', start, end, xs.length);
+      if (n == 0) return end == start ? 0 : -1;
+      if (encoding == DELTA_VARINT) {
+        for (int i = start; i < start + n; i++) {
+          prev += nextDelta();
+          xs[i] = prev;
+        }
+        read += n;
+        return n;
+      }
+      n = fillRaw(n, 8);
+      buf.asLongBuffer().get(xs, start, n);
+      done(n * 8, n);
+      return n;
+    }
+
+    public void close() throws IOException {
+      ch.close();
+    }
+  }
+}
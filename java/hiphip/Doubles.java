@@ -0,0 +1,216 @@
+// Generated from templates/hiphip/Facade.java by script/generate.clj; do not edit.
+package hiphip;
+
+import hiphip.double_.Helpers;
+
+/*********************************************************************************************
+ * Kernels over double arrays for Java and other JVM languages, which can't use the macros in
+ * hiphip.double.  The kernels are those of hiphip.double (in hiphip.double_.Helpers), so the
+ * two give the same results.
+ *
+ * Every operation on an array also has an overload for the range [start, end) of it, which
+ * throws an IndexOutOfBoundsException unless 0 <= start <= end <= length (for each array).
+ * The function arguments are single-method interfaces, so they can be given as lambdas.
+ *********************************************************************************************/
+public final class Doubles {
+  private Doubles() {}
+
+  public interface UnaryOp {
+    double apply(double x);
+  }
+
+  public interface BinaryOp {
+    double apply(double x, double y);
+  }
+
+  public interface IndexOp {
+    double apply(int i);
+  }
+
+  private static void checkNonEmpty(int start, int end) {
+    if (start == end) throw new IllegalArgumentException("Range must be non-empty");
+  }
+
+  private static void checkSameLength(double[] xs, double[] ys) {
+    if (xs.length != ys.length) {
+      throw new IllegalArgumentException("Arrays have different lengths " + xs.length
+                                         + " and " + ys.length);
+    }
+  }
+
+  public static double sum(double[] xs) {
+    return sum(xs, 0, xs.length);
+  }
+
+  /** Returns the sum of xs[start, end), added left to right in doubles, like asum. */
+  public static double sum(double[] xs, int start, int end) {
+    return Helpers.sum(xs, start, end);
+  }
+
+  public static double dot(double[] xs, double[] ys) {
+    checkSameLength(xs, ys);
+    return dot(xs, ys, 0, xs.length);
+  }
+
+  /** Returns the dot product of xs[start, end) and ys[start, end), in doubles. */
+  public static double dot(double[] xs, double[] ys, int start, int end) {
+    return Helpers.dot(xs, ys, start, end);
+  }
+
+  public static double mean(double[] xs) {
+    return mean(xs, 0, xs.length);
+  }
+
+  /** Returns the mean of xs[start, end), or NaN if the range is empty. */
+  public static double mean(double[] xs, int start, int end) {
+    double s = sum(xs, start, end);
+    return s / (end - start);
+  }
+
+  public static int argmax(double[] xs) {
+    return argmax(xs, 0, xs.length);
+  }
+
+  /** Returns the first index of a largest value in the non-empty range xs[start, end). */
+  public static int argmax(double[] xs, int start, int end) {
+    IndexArrays.checkRange(start, end, xs.length);
+    checkNonEmpty(start, end);
+    return Helpers.maxIndex(xs, start, end);
+  }
+
+  public static int argmin(double[] xs) {
+    return argmin(xs, 0, xs.length);
+  }
+
+  /** Returns the first index of a smallest value in the non-empty range xs[start, end). */
+  public static int argmin(double[] xs, int start, int end) {
+    IndexArrays.checkRange(start, end, xs.length);
+    checkNonEmpty(start, end);
+    return Helpers.minIndex(xs, start, end);
+  }
+
+  public static double max(double[] xs) {
+    return xs[argmax(xs)];
+  }
+
+  public static double max(double[] xs, int start, int end) {
+    return xs[argmax(xs, start, end)];
+  }
+
+  public static double min(double[] xs) {
+    return xs[argmin(xs)];
+  }
+
+  public static double min(double[] xs, int start, int end) {
+    return xs[argmin(xs, start, end)];
+  }
+
+  public static int[] argsort(double[] xs) {
+    return argsort(xs, 0, xs.length);
+  }
+
+ /**
+  * Returns the indices of xs[start, end) (i.e., ints in [start, end)), in ascending order
+  * of the values they point at.  The order of indices of equal values is unspecified.
+  */
+  public static int[] argsort(double[] xs, int start, int end) {
+    IndexArrays.checkRange(start, end, xs.length);
+    int[] indices = IndexArrays.make(start, end);
+    if (end - start > 1) Helpers.sortIndices(indices, xs, 0, end - start);
+    return indices;
+  }
+
+  public static double[] select(double[] xs, int k) {
+    return select(xs, 0, xs.length, k);
+  }
+
+ /**
+  * Rearranges xs[start, end) so that its smallest k elements come first (in no particular
+  * order), followed by the rest.
+  *
+  * @param  xs    the array
+  * @param  start the index to start selecting at
+  * @param  end   the index to stop selecting at
+  * @param  k     the number of elements to select, in [0, end - start]
+  * @return       xs
+  */
+  public static double[] select(double[] xs, int start, int end, int k) {
+    IndexArrays.checkRange(start, end, xs.length);
+    if (k < 0 || k > end - start) {
+      throw new IllegalArgumentException("k = " + k + " must be in [0, " + (end - start) + "]");
+    }
+    if (k > 0 && k < end - start) Helpers.select(xs, start, end, k);
+    return xs;
+  }
+
+  public static double[] fill(double[] xs, double value) {
+    return fill(xs, 0, xs.length, value);
+  }
+
+  /** Sets every element of xs[start, end) to value, and returns xs. */
+  public static double[] fill(double[] xs, int start, int end, double value) {
+    IndexArrays.checkRange(start, end, xs.length);
+    java.util.Arrays.fill(xs, start, end, value);
+    return xs;
+  }
+
+  public static double[] fill(double[] xs, IndexOp f) {
+    return fill(xs, 0, xs.length, f);
+  }
+
+  /** Sets xs[i] to f.apply(i) for i in [start, end), and returns xs. */
+  public static double[] fill(double[] xs, int start, int end, IndexOp f) {
+    IndexArrays.checkRange(start, end, xs.length);
+    for (int i = start; i < end; i++) xs[i] = f.apply(i);
+    return xs;
+  }
+
+  public static double[] map(double[] xs, UnaryOp f) {
+    return map(xs, 0, xs.length, f);
+  }
+
+  /** Returns a new array of f.apply(x) for each x in xs[start, end). */
+  public static double[] map(double[] xs, int start, int end, UnaryOp f) {
+    IndexArrays.checkRange(start, end, xs.length);
+    double[] out = new double[end - start];
+    for (int i = start; i < end; i++) out[i - start] = f.apply(xs[i]);
+    return out;
+  }
+
+  public static double[] map(double[] xs, double[] ys, BinaryOp f) {
+    checkSameLength(xs, ys);
+    return map(xs, ys, 0, xs.length, f);
+  }
+
+  /** Returns a new array of f.apply(xs[i], ys[i]) for each i in [start, end). */
+  public static double[] map(double[] xs, double[] ys, int start, int end, BinaryOp f) {
+    IndexArrays.checkRange(start, end, xs.length);
+    IndexArrays.checkRange(start, end, ys.length);
+    double[] out = new double[end - start];
+    for (int i = start; i < end; i++) out[i - start] = f.apply(xs[i], ys[i]);
+    return out;
+  }
+
+  public static double[] mapInPlace(double[] xs, UnaryOp f) {
+    return mapInPlace(xs, 0, xs.length, f);
+  }
+
+  /** Replaces each x in xs[start, end) with f.apply(x), and returns xs. */
+  public static double[] mapInPlace(double[] xs, int start, int end, UnaryOp f) {
+    IndexArrays.checkRange(start, end, xs.length);
+    for (int i = start; i < end; i++) xs[i] = f.apply(xs[i]);
+    return xs;
+  }
+
+  public static double reduce(double[] xs, double init, BinaryOp f) {
+    return reduce(xs, 0, xs.length, init, f);
+  }
+
+  /** Returns f.apply(...f.apply(f.apply(init, xs[start]), xs[start + 1])..., xs[end - 1]). */
+  public static double reduce(double[] xs, int start, int end, double init, BinaryOp f) {
+    IndexArrays.checkRange(start, end, xs.length);
+    double acc = init;
+    for (int i = start; i < end; i++) acc = f.apply(acc, xs[i]);
+    return acc;
+  }
+}
@@ -0,0 +1,141 @@
+package hiphip;
+
+/*********************************************************************************************
+ * FFT-based correlation and convolution, for kernels too long for the direct kernels in the
+ * type-specific Helpers classes.  Computes in double precision; the float versions convert.
+ *********************************************************************************************/
+public class FFT {
+  /** Kernel length from which the hiphip wrappers switch to the FFT path by default. */
+  public static final int THRESHOLD = Integer.getInteger("hiphip.fft.threshold", 512);
+
+  /** The least power of two >= n, which must be at most 2^30, the largest one in an int. */
+  private static int nextPowerOfTwo(long n) {
+    if (n > 1 << 30) {
+      throw new IllegalArgumentException("Transform of length " + n + " is too long for an FFT");
+    }
+    return n <= 1 ? 1 : Integer.highestOneBit((int) n - 1) << 1;
+  }
+
+  // {cos, sin} tables for the most recently used transform size
+  private static volatile double[][] lastTwiddles = {new double[0], new double[0]};
+
+  private static double[][] twiddles(int n) {
+    double[][] t = lastTwiddles;
+    if (t[0].length != n / 2) {
+      t = new double[][] {new double[n / 2], new double[n / 2]};
+      for (int k = 0; k < n / 2; k++) {
+        t[0][k] = Math.cos(2 * Math.PI * k / n);
+        t[1][k] = Math.sin(2 * Math.PI * k / n);
+      }
+      lastTwiddles = t;
+    }
+    return t;
+  }
+
+ /**
+  * In-place iterative radix-2 FFT of the complex array (re, im), whose length n must be a
+  * power of two.  The inverse transform is not scaled.
+  *
+  * @param  re      real parts
+  * @param  im      imaginary parts
+  * @param  cos     cos(2 pi k / n) for k in [0, n/2)
+  * @param  sin     sin(2 pi k / n) for k in [0, n/2)
+  * @param  inverse whether to compute the inverse transform
+  */
+  public static void transform(double[] re, double[] im, double[] cos, double[] sin,
+                               boolean inverse) {
+    int n = re.length;
+    for (int i = 1, j = 0; i < n; i++) {
+      int bit = n >> 1;
+      for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+      j ^= bit;
+      if (i < j) {
+        double t = re[i]; re[i] = re[j]; re[j] = t;
+        t = im[i]; im[i] = im[j]; im[j] = t;
+      }
+    }
+    double sign = inverse ? 1 : -1;
+    for (int len = 2; len <= n; len <<= 1) {
+      int half = len >> 1, stride = n / len;
+      for (int i = 0; i < n; i += len) {
+        for (int k = 0; k < half; k++) {
+          double wr = cos[k * stride], wi = sign * sin[k * stride];
+          int a = i + k, b = a + half;
+          double xr = re[b] * wr - im[b] * wi;
+          double xi = re[b] * wi + im[b] * wr;
+          re[b] = re[a] - xr;
+          im[b] = im[a] - xi;
+          re[a] += xr;
+          im[a] += xi;
+        }
+      }
+    }
+  }
+
+ /**
+  * Like hiphip.double_.Helpers.correlate, but computed with FFTs in
+  * O((xs.length + ks.length) log (xs.length + ks.length)) time.  Results differ from the
+  * direct kernel by floating-point rounding.
+  *
+  * @param  xs     the signal
+  * @param  ks     the kernel
+  * @param  offset the index into xs of the first kernel element for out[0]
+  * @param  out    the output array
+  * @return        out
+  */
+  public static double[] correlate(double[] xs, double[] ks, int offset, double[] out) {
+    int nx = xs.length, nk = ks.length;
+    // Checked as a long, since nx + nk - 1 can overflow; if it fits in an FFT, it's an int.
+    int n = nextPowerOfTwo((long) nx + nk - 1), full = nx + nk - 1;
+    double[][] t = twiddles(n);
+    // Transform both (real) inputs at once, as the real and imaginary parts of one
+    // complex array, and then separate their spectra using conjugate symmetry.
+    double[] re = new double[n], im = new double[n];
+    System.arraycopy(xs, 0, re, 0, nx);
+    for (int k = 0; k < nk; k++) im[k] = ks[nk - 1 - k];
+    transform(re, im, t[0], t[1], false);
+    double[] pre = new double[n], pim = new double[n];
+    for (int f = 0; f < n; f++) {
+      int g = (n - f) & (n - 1);
+      double a = re[f], b = im[f], c = re[g], d = im[g];
+      double xr = (a + c) / 2, xi = (b - d) / 2;
+      double kr = (b + d) / 2, ki = (c - a) / 2;
+      pre[f] = xr * kr - xi * ki;
+      pim[f] = xr * ki + xi * kr;
+    }
+    transform(pre, pim, t[0], t[1], true);
+    // pre[m] is now n times the full convolution of xs with reversed ks, i.e.
+    // the correlation of xs and ks at xs index m - (nk - 1).
+    for (int j = 0; j < out.length; j++) {
+      int m = j + offset + nk - 1;
+      out[j] = (m >= 0 && m < full) ? pre[m] / n : 0;
+    }
+    return out;
+  }
+
+  public static double[] convolve(double[] xs, double[] ks, int offset, double[] out) {
+    int nk = ks.length;
+    double[] reversed = new double[nk];
+    for (int k = 0; k < nk; k++) reversed[k] = ks[nk - 1 - k];
+    return correlate(xs, reversed, offset, out);
+  }
+
+  private static double[] widen(float[] xs) {
+    double[] ret = new double[xs.length];
+    for (int i = 0; i < xs.length; i++) ret[i] = xs[i];
+    return ret;
+  }
+
+  private static float[] narrow(double[] xs, float[] out) {
+    for (int i = 0; i < xs.length; i++) out[i] = (float) xs[i];
+    return out;
+  }
+
+  public static float[] correlate(float[] xs, float[] ks, int offset, float[] out) {
+    return narrow(correlate(widen(xs), widen(ks), offset, new double[out.length]), out);
+  }
+
+  public static float[] convolve(float[] xs, float[] ks, int offset, float[] out) {
+    return narrow(convolve(widen(xs), widen(ks), offset, new double[out.length]), out);
+  }
+}
@@ -0,0 +1,91 @@
+package hiphip;
+
+/*********************************************************************************************
+ * Polynomial approximations of tanh, used for the fast path of atanh! in hiphip.double and
+ * hiphip.float.  They use no table lookups: a branch on |x| picks a polynomial for e^x - 1
+ * near zero, a range-reduced exp further out, or saturation at +-1, and the only calls are
+ * to the small private helpers here and to Math methods the JIT intrinsifies.  (exp, log and
+ * the sigmoid have no fast path: the JIT compiles Math.exp and Math.log to intrinsics that
+ * no polynomial here beats.)
+ *
+ * The plain versions are accurate to within a few ulps of a double (see the floating-point
+ * tests for the bounds we check), and the versions ending in F use shorter polynomials
+ * that are only accurate to within a few ulps of a float.  NaNs and infinities are handled
+ * as in java.lang.Math.
+ *********************************************************************************************/
+public class FastMath {
+  private static final double LOG2E = 1.4426950408889634;
+  // ln(2) split so that k * LN2_HI is exact for |k| < 2^20
+  private static final double LN2_HI = 6.93147180369123816490e-01;
+  private static final double LN2_LO = 1.90821492927058770002e-10;
+
+  /** Returns 2^k, for k in [-1022, 1023]. */
+  private static double powerOfTwo(int k) {
+    return Double.longBitsToDouble((long) (k + 1023) << 52);
+  }
+
+  /**
+  * Returns y * 2^k, for k in [-1076, 1024], in two steps so that neither factor leaves
+  * the normal range (and there's no branch on k).
+  */
+  private static double scale(double y, int k) {
+    int h = k >> 1;
+    return y * powerOfTwo(h) * powerOfTwo(k - h);
+  }
+
+  /** e^r - 1 for |r| <= ln(2)/2, to within an ulp of a double (degree 13 Taylor). */
+  private static double expm1Poly(double r) {
+    return r * (1.0 + r * (1.0 / 2 + r * (1.0 / 6 + r * (1.0 / 24 + r * (1.0 / 120
+      + r * (1.0 / 720 + r * (1.0 / 5040 + r * (1.0 / 40320 + r * (1.0 / 362880
+      + r * (1.0 / 3628800 + r * (1.0 / 39916800 + r * (1.0 / 479001600
+      + r * (1.0 / 6227020800.0)))))))))))));
+  }
+
+  /** e^r - 1 for |r| <= ln(2)/2, to within an ulp of a float (degree 7 Taylor). */
+  private static double expm1PolyF(double r) {
+    return r * (1.0 + r * (1.0 / 2 + r * (1.0 / 6 + r * (1.0 / 24 + r * (1.0 / 120
+      + r * (1.0 / 720 + r * (1.0 / 5040)))))));
+  }
+
+  private static double exp(double x) {
+    // Clamping keeps k in range for scale, and NaNs pass through.
+    x = Math.max(-745.2, Math.min(709.8, x));
+    double k = Math.rint(x * LOG2E);
+    double r = (x - k * LN2_HI) - k * LN2_LO;
+    return scale(1.0 + expm1Poly(r), (int) k);
+  }
+
+  private static double expF(double x) {
+    // Clamping keeps k in range for scale, and NaNs pass through.
+    x = Math.max(-745.2, Math.min(709.8, x));
+    double k = Math.rint(x * LOG2E);
+    double r = (x - k * LN2_HI) - k * LN2_LO;
+    return scale(1.0 + expm1PolyF(r), (int) k);
+  }
+
+  private static double expm1(double x) {
+    if (Math.abs(x) <= 0.34657359027997264) return expm1Poly(x);
+    if (x < -40) return -1.0;
+    return exp(x) - 1.0;
+  }
+
+  private static double expm1F(double x) {
+    if (Math.abs(x) <= 0.34657359027997264) return expm1PolyF(x);
+    if (x < -40) return -1.0;
+    return expF(x) - 1.0;
+  }
+
+  public static double tanh(double x) {
+    double a = Math.abs(x);
+    if (a > 22) return Math.signum(x);
+    double t = expm1(-2 * a);
+    return Math.copySign(-t / (2.0 + t), x);
+  }
+
+  public static double tanhF(double x) {
+    double a = Math.abs(x);
+    if (a > 22) return Math.signum(x);
+    double t = expm1F(-2 * a);
+    return Math.copySign(-t / (2.0 + t), x);
+  }
+}
@@ -12,6 +12,16 @@ public class IndexArrays {
     return ret;
   }
   
+  /**
+  * Throws an IndexOutOfBoundsException unless 0 <= start <= end <= length.
+  */
+  public static void checkRange(int start, int end, int length) {
+    if (start < 0 || start > end || end > length) {
+      throw new IndexOutOfBoundsException("Invalid range [" + start + " " + end
+                                          + ") for array of length " + length);
+    }
+  }
+
   public static void swap(int[] arr, int i, int j) {
     int tmp = arr[i];
     arr[i] = arr[j];
@@ -0,0 +1,318 @@
+package hiphip;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/*********************************************************************************************
+ * Sorting and selection for hiphip.object: of object arrays by a Comparator, and of int arrays
+ * of indices by an Order over the elements they point at.  An Order can compare primitive
+ * keys, computed once per element, so that sorting records by a numeric key boxes nothing.
+ *
+ * Sorts are stable merge sorts, which can sort the halves of large ranges in parallel by
+ * fork/join in a pool given by the caller (so the comparison must then be safe to call from
+ * several threads).  Selection
+ * is an in-place quickselect, and isn't stable.
+ *
+ * Every operation takes a range [start, end), and throws an IndexOutOfBoundsException unless
+ * 0 <= start <= end <= length.
+ *********************************************************************************************/
+public final class ObjectArrays {
+  private ObjectArrays() {}
+
+  /** Like a Comparator, but over indices into whatever is being ordered. */
+  public interface Order {
+    int compare(int i, int j);
+  }
+
+  public static Order byComparator(final Object[] xs, final Comparator<Object> c) {
+    return new Order() {
+      public int compare(int i, int j) {
+        return c.compare(xs[i], xs[j]);
+      }
+    };
+  }
+
+  /** Orders by keys[i], as Double.compare does (so NaNs come last). */
+  public static Order byKeys(final double[] keys) {
+    return new Order() {
+      public int compare(int i, int j) {
+        return Double.compare(keys[i], keys[j]);
+      }
+    };
+  }
+
+  public static Order byKeys(final long[] keys) {
+    return new Order() {
+      public int compare(int i, int j) {
+        long x = keys[i], y = keys[j];
+        return x < y ? -1 : (x == y ? 0 : 1);
+      }
+    };
+  }
+
+  // Ranges at most this long are insertion sorted, and at most PARALLEL_MIN long are sorted
+  // on the current thread.
+  private static final int INSERTION_MAX = 32;
+  private static final int PARALLEL_MIN = 8192;
+
+  // Runs task in pool, or directly if we're already in a fork/join task, as the reducers do.
+  private static void invoke(ForkJoinPool pool, ForkJoinTask<?> task) {
+    if (ForkJoinTask.inForkJoinPool()) {
+      task.invoke();
+    } else {
+      pool.invoke(task);
+    }
+  }
+
+  private static void checkK(int k, int n) {
+    if (k < 0 || k > n) {
+      throw new IllegalArgumentException("k = " + k + " must be in [0, " + n + "]");
+    }
+  }
+
+  // Index sorting.  tmp holds the left run of each merge, at offset lo - base, so that merges
+  // of disjoint ranges running in parallel don't share any of it.
+
+  private static void insertionSort(int[] a, int lo, int hi, Order o) {
+    for (int i = lo + 1; i < hi; i++) {
+      int x = a[i];
+      int j = i;
+      while (j > lo && o.compare(a[j - 1], x) > 0) {
+        a[j] = a[j - 1];
+        j--;
+      }
+      a[j] = x;
+    }
+  }
+
+  private static void merge(int[] a, int[] tmp, int base, int lo, int mid, int hi, Order o) {
+    if (o.compare(a[mid - 1], a[mid]) <= 0) return;
+    int i = lo - base, iEnd = i + (mid - lo), j = mid, k = lo;
+    System.arraycopy(a, lo, tmp, i, mid - lo);
+    while (i < iEnd && j < hi) {
+      a[k++] = o.compare(a[j], tmp[i]) < 0 ? a[j++] : tmp[i++];
+    }
+    while (i < iEnd) {
+      a[k++] = tmp[i++];
+    }
+  }
+
+  private static void mergeSort(int[] a, int[] tmp, int base, int lo, int hi, Order o) {
+    if (hi - lo <= INSERTION_MAX) {
+      insertionSort(a, lo, hi, o);
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    mergeSort(a, tmp, base, lo, mid, o);
+    mergeSort(a, tmp, base, mid, hi, o);
+    merge(a, tmp, base, lo, mid, hi, o);
+  }
+
+  private static final class SortIndices extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] a, tmp;
+    private final int base, lo, hi;
+    private final Order o;
+
+    SortIndices(int[] a, int[] tmp, int base, int lo, int hi, Order o) {
+      this.a = a; this.tmp = tmp; this.base = base; this.lo = lo; this.hi = hi; this.o = o;
+    }
+
+    protected void compute() {
+      if (hi - lo <= PARALLEL_MIN) {
+        mergeSort(a, tmp, base, lo, hi, o);
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      invokeAll(new SortIndices(a, tmp, base, lo, mid, o),
+                new SortIndices(a, tmp, base, mid, hi, o));
+      merge(a, tmp, base, lo, mid, hi, o);
+    }
+  }
+
+ /**
+  * Stably sorts indices[start, end) so that the elements they point at are in ascending
+  * order by o.
+  *
+  * @param  indices  the indices to sort
+  * @param  start    the start of the range
+  * @param  end      the end of the range
+  * @param  o        the order of the indices
+  * @param  pool     the pool to sort the halves of large ranges in parallel in, or null to
+  *                  sort on the current thread
+  * @return          indices
+  */
+  public static int[] sortIndices(int[] indices, int start, int end, Order o, ForkJoinPool pool) {
+    IndexArrays.checkRange(start, end, indices.length);
+    int[] tmp = new int[end - start];
+    if (pool != null && end - start > PARALLEL_MIN) {
+      invoke(pool, new SortIndices(indices, tmp, start, start, end, o));
+    } else {
+      mergeSort(indices, tmp, start, start, end, o);
+    }
+    return indices;
+  }
+
+ /**
+  * Rearranges indices[start, end) so that the first k point at the smallest k elements by o,
+  * followed by the rest.
+  *
+  * @param  indices the indices to select from
+  * @param  start   the start of the range
+  * @param  end     the end of the range
+  * @param  k       the number of indices to select, in [0, end - start]
+  * @param  o       the order of the indices
+  * @return         indices
+  */
+  public static int[] selectIndices(int[] indices, int start, int end, int k, Order o) {
+    IndexArrays.checkRange(start, end, indices.length);
+    checkK(k, end - start);
+    int lo = start, hi = end, target = start + k;
+    while (hi - lo > INSERTION_MAX) {
+      int mid = (lo + hi) >>> 1;
+      int p = medianOf3(indices[lo], indices[mid], indices[hi - 1], o);
+      // Three-way partition around p: [lo, lt) < p, [lt, gt) == p, [gt, hi) > p.
+      int lt = lo, i = lo, gt = hi;
+      while (i < gt) {
+        int c = o.compare(indices[i], p);
+        if (c < 0) {
+          IndexArrays.swap(indices, lt++, i++);
+        } else if (c > 0) {
+          IndexArrays.swap(indices, i, --gt);
+        } else {
+          i++;
+        }
+      }
+      if (target < lt) {
+        hi = lt;
+      } else if (target > gt) {
+        lo = gt;
+      } else {
+        return indices;
+      }
+    }
+    insertionSort(indices, lo, hi, o);
+    return indices;
+  }
+
+  private static int medianOf3(int a, int b, int c, Order o) {
+    if (o.compare(a, b) > 0) {
+      int t = a; a = b; b = t;
+    }
+    return o.compare(b, c) <= 0 ? b : (o.compare(a, c) <= 0 ? c : a);
+  }
+
+  // Object sorting, like index sorting but with Arrays.sort for the sequential pieces.
+
+  private static void merge(Object[] a, Object[] tmp, int base, int lo, int mid, int hi,
+                            Comparator<Object> c) {
+    if (c.compare(a[mid - 1], a[mid]) <= 0) return;
+    int i = lo - base, iEnd = i + (mid - lo), j = mid, k = lo;
+    System.arraycopy(a, lo, tmp, i, mid - lo);
+    while (i < iEnd && j < hi) {
+      a[k++] = c.compare(a[j], tmp[i]) < 0 ? a[j++] : tmp[i++];
+    }
+    while (i < iEnd) {
+      a[k++] = tmp[i++];
+    }
+  }
+
+  private static final class SortObjects extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Object[] a, tmp;
+    private final int base, lo, hi;
+    private final Comparator<Object> c;
+
+    SortObjects(Object[] a, Object[] tmp, int base, int lo, int hi, Comparator<Object> c) {
+      this.a = a; this.tmp = tmp; this.base = base; this.lo = lo; this.hi = hi; this.c = c;
+    }
+
+    protected void compute() {
+      if (hi - lo <= PARALLEL_MIN) {
+        Arrays.sort(a, lo, hi, c);
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      invokeAll(new SortObjects(a, tmp, base, lo, mid, c),
+                new SortObjects(a, tmp, base, mid, hi, c));
+      merge(a, tmp, base, lo, mid, hi, c);
+    }
+  }
+
+ /**
+  * Stably sorts xs[start, end) into ascending order by c.
+  *
+  * @param  xs       the array to sort
+  * @param  start    the start of the range
+  * @param  end      the end of the range
+  * @param  c        the order of the elements
+  * @param  pool     the pool to sort the halves of large ranges in parallel in, or null to
+  *                  sort on the current thread
+  * @return          xs
+  */
+  public static Object[] sort(Object[] xs, int start, int end, Comparator<Object> c,
+                              ForkJoinPool pool) {
+    IndexArrays.checkRange(start, end, xs.length);
+    if (pool != null && end - start > PARALLEL_MIN) {
+      invoke(pool, new SortObjects(xs, new Object[end - start], start, start, end, c));
+    } else {
+      Arrays.sort(xs, start, end, c);
+    }
+    return xs;
+  }
+
+  private static void swap(Object[] xs, int i, int j) {
+    Object t = xs[i];
+    xs[i] = xs[j];
+    xs[j] = t;
+  }
+
+ /**
+  * Rearranges xs[start, end) so that the smallest k elements by c come first, followed by
+  * the rest.
+  *
+  * @param  xs    the array to select from
+  * @param  start the start of the range
+  * @param  end   the end of the range
+  * @param  k     the number of elements to select, in [0, end - start]
+  * @param  c     the order of the elements
+  * @return       xs
+  */
+  public static Object[] select(Object[] xs, int start, int end, int k, Comparator<Object> c) {
+    IndexArrays.checkRange(start, end, xs.length);
+    checkK(k, end - start);
+    int lo = start, hi = end, target = start + k;
+    while (hi - lo > INSERTION_MAX) {
+      Object a = xs[lo], b = xs[(lo + hi) >>> 1], d = xs[hi - 1];
+      if (c.compare(a, b) > 0) {
+        Object t = a; a = b; b = t;
+      }
+      Object p = c.compare(b, d) <= 0 ? b : (c.compare(a, d) <= 0 ? d : a);
+      int lt = lo, i = lo, gt = hi;
+      while (i < gt) {
+        int r = c.compare(xs[i], p);
+        if (r < 0) {
+          swap(xs, lt++, i++);
+        } else if (r > 0) {
+          swap(xs, i, --gt);
+        } else {
+          i++;
+        }
+      }
+      if (target < lt) {
+        hi = lt;
+      } else if (target > gt) {
+        lo = gt;
+      } else {
+        return xs;
+      }
+    }
+    Arrays.sort(xs, lo, hi, c);
+    return xs;
+  }
+}
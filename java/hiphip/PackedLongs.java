@@ -0,0 +1,305 @@
+package hiphip;
+
+import java.util.Arrays;
+
+/*********************************************************************************************
+ * An immutable, compressed, sorted (non-decreasing) list of longs.
+ *
+ * Elements are stored in blocks of 128 by frame of reference: each block keeps its first
+ * (smallest) element, and the offsets of its elements from that, bit-packed at the width of
+ * the block's largest offset.  So a block of ids spaced by about k costs about 128 *
+ * log2(128 k) bits plus 13 bytes of header, rather than 1024 bytes.
+ *
+ * Since every offset is at a fixed bit position, get(i) is O(1), and searches can binary
+ * search the block firsts (the skip data) and then the packed offsets, without decoding
+ * anything.  Scans decode one block at a time into a caller's buffer of BLOCK longs.
+ *********************************************************************************************/
+public final class PackedLongs {
+  public static final int BLOCK = 128;
+
+  private final int size;
+  private final long[] firsts;
+  private final byte[] widths;
+  private final int[] offsets;
+  private final long[] words;
+
+  private static int bitsNeeded(long x) {
+    return 64 - Long.numberOfLeadingZeros(x);
+  }
+
+  private static long mask(int width) {
+    return width == 64 ? -1L : (1L << width) - 1;
+  }
+
+ /**
+  * Packs xs[start, end), which must be non-decreasing.
+  *
+  * @throws IllegalArgumentException if it isn't
+  */
+  public PackedLongs(long[] xs, int start, int end) {
+    IndexArrays.checkRange(start, end, xs.length);
+    for (int i = start + 1; i < end; i++) {
+      if (xs[i] < xs[i - 1]) {
+        throw new IllegalArgumentException("Elements must be non-decreasing, but " + xs[i]
+                                           + " follows " + xs[i - 1]);
+      }
+    }
+    size = end - start;
+    int nBlocks = (size + BLOCK - 1) / BLOCK;
+    firsts = new long[nBlocks];
+    widths = new byte[nBlocks];
+    offsets = new int[nBlocks + 1];
+    long nWords = 0;
+    for (int b = 0; b < nBlocks; b++) {
+      int lo = start + b * BLOCK, hi = Math.min(end, lo + BLOCK);
+      firsts[b] = xs[lo];
+      int w = bitsNeeded(xs[hi - 1] - xs[lo]);
+      widths[b] = (byte) w;
+      offsets[b] = (int) nWords;
+      nWords += ((long) (hi - lo) * w + 63) / 64;
+      if (nWords >= Integer.MAX_VALUE) throw new IllegalArgumentException("Too many elements");
+    }
+    offsets[nBlocks] = (int) nWords;
+    // One word of padding, so that reads can always take two words.
+    words = new long[(int) nWords + 1];
+    for (int b = 0; b < nBlocks; b++) {
+      int lo = start + b * BLOCK, hi = Math.min(end, lo + BLOCK);
+      int w = widths[b];
+      if (w == 0) continue;
+      long bit = (long) offsets[b] * 64;
+      for (int i = lo; i < hi; i++, bit += w) {
+        long v = xs[i] - firsts[b];
+        int wi = (int) (bit >>> 6), shift = (int) (bit & 63);
+        words[wi] |= v << shift;
+        if (shift + w > 64) words[wi + 1] |= v >>> (64 - shift);
+      }
+    }
+  }
+
+  public PackedLongs(long[] xs) {
+    this(xs, 0, xs.length);
+  }
+
+  private static long[] widen(int[] xs, int start, int end) {
+    IndexArrays.checkRange(start, end, xs.length);
+    long[] ret = new long[end - start];
+    for (int i = start; i < end; i++) ret[i - start] = xs[i];
+    return ret;
+  }
+
+  public PackedLongs(int[] xs, int start, int end) {
+    this(widen(xs, start, end));
+  }
+
+  public PackedLongs(int[] xs) {
+    this(xs, 0, xs.length);
+  }
+
+  /** The number of elements. */
+  public int size() {
+    return size;
+  }
+
+  /** The number of blocks, each of BLOCK elements except perhaps the last. */
+  public int blocks() {
+    return firsts.length;
+  }
+
+  /** The number of elements in block b. */
+  public int blockSize(int b) {
+    return Math.min(BLOCK, size - b * BLOCK);
+  }
+
+  /** The first (and smallest) element of block b. */
+  public long blockFirst(int b) {
+    return firsts[b];
+  }
+
+  /** The number of bytes used by the packed data and skip data, ignoring object headers. */
+  public long bytes() {
+    return 8L * words.length + 8L * firsts.length + widths.length + 4L * offsets.length;
+  }
+
+  /** The (unmasked) 64 bits of words starting at bit, which may span two words. */
+  private long bitsAt(long bit) {
+    int wi = (int) (bit >>> 6), shift = (int) (bit & 63);
+    return (words[wi] >>> shift) | ((words[wi + 1] << 1) << (63 - shift));
+  }
+
+  private long offset(int b, int j) {
+    int w = widths[b];
+    if (w == 0) return 0;
+    return bitsAt((long) offsets[b] * 64 + (long) j * w) & mask(w);
+  }
+
+  /** The ith element. */
+  public long get(int i) {
+    if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index " + i + " of " + size);
+    return firsts[i >>> 7] + offset(i >>> 7, i & (BLOCK - 1));
+  }
+
+  /** The last (and largest) element of block b. */
+  public long blockLast(int b) {
+    return firsts[b] + offset(b, blockSize(b) - 1);
+  }
+
+ /**
+  * Decodes block b into out[0, blockSize(b)).
+  *
+  * @param  b   the block index
+  * @param  out an array of at least BLOCK longs
+  * @return     the number of elements decoded, blockSize(b)
+  */
+  public int decode(int b, long[] out) {
+    int n = blockSize(b);
+    long base = firsts[b];
+    int w = widths[b];
+    if (w == 0) {
+      Arrays.fill(out, 0, n, base);
+      return n;
+    }
+    long m = mask(w);
+    long bit = (long) offsets[b] * 64;
+    for (int j = 0; j < n; j++, bit += w) out[j] = base + (bitsAt(bit) & m);
+    return n;
+  }
+
+  /** Decodes every element into a new array. */
+  public long[] toArray() {
+    long[] ret = new long[size];
+    long[] buf = new long[BLOCK];
+    for (int b = 0; b < firsts.length; b++) {
+      int n = decode(b, buf);
+      System.arraycopy(buf, 0, ret, b * BLOCK, n);
+    }
+    return ret;
+  }
+
+  /** Returns the sum of the elements (with long overflow), summing the offsets in place. */
+  public long sum() {
+    long s = 0;
+    for (int b = 0; b < firsts.length; b++) {
+      int n = blockSize(b), w = widths[b];
+      long m = mask(w);
+      long bit = (long) offsets[b] * 64;
+      s += n * firsts[b];
+      if (w == 0) continue;
+      for (int j = 0; j < n; j++, bit += w) s += bitsAt(bit) & m;
+    }
+    return s;
+  }
+
+  /** The index of the last block whose first element is < x, or -1 if there is none. */
+  private int blockBefore(long x, int from) {
+    int lo = from, hi = firsts.length - 1, ret = from - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (firsts[mid] < x) {
+        ret = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return ret;
+  }
+
+ /**
+  * Returns the index of the first element >= x, or size() if there is none.  Binary searches
+  * the block firsts, and then the packed offsets of one block.
+  */
+  public int lowerBound(long x) {
+    int b = blockBefore(x, 0);
+    if (b < 0) return 0;
+    int lo = 0, hi = blockSize(b);
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (firsts[b] + offset(b, mid) < x) lo = mid + 1;
+      else hi = mid;
+    }
+    return b * BLOCK + lo;
+  }
+
+  /** Returns the index of an element equal to x, or -1 if there is none. */
+  public int indexOf(long x) {
+    int i = lowerBound(x);
+    return (i < size && get(i) == x) ? i : -1;
+  }
+
+  public boolean contains(long x) {
+    return indexOf(x) >= 0;
+  }
+
+  /** A position in a PackedLongs, with its current block decoded. */
+  private static final class Cursor {
+    final PackedLongs p;
+    final long[] buf = new long[BLOCK];
+    int block = -1, n = 0, j = 0;
+
+    Cursor(PackedLongs p) {
+      this.p = p;
+      load(0);
+    }
+
+    void load(int b) {
+      block = b;
+      j = 0;
+      n = b < p.firsts.length ? p.decode(b, buf) : 0;
+    }
+
+    boolean valid() {
+      return j < n;
+    }
+
+    long value() {
+      return buf[j];
+    }
+
+    void next() {
+      if (++j == n) load(block + 1);
+    }
+
+    /** Moves to the first element >= x, skipping (without decoding) blocks that end before x. */
+    void advanceTo(long x) {
+      if (buf[n - 1] < x) {
+        int b = p.blockBefore(x, block + 1);
+        if (b <= block || p.blockLast(b) < x) b++;
+        load(b);
+        if (!valid()) return;
+      }
+      int lo = j, hi = n;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (buf[mid] < x) lo = mid + 1;
+        else hi = mid;
+      }
+      j = lo;
+    }
+  }
+
+ /**
+  * Returns the sorted elements common to this and other, as a multiset (an element that
+  * appears k times in one and l times in the other appears min(k, l) times).  Leapfrogs
+  * between the lists, so blocks of one that fall entirely between two elements of the other
+  * are skipped without being decoded.
+  */
+  public long[] intersect(PackedLongs other) {
+    long[] out = new long[Math.min(size, other.size)];
+    int count = 0;
+    if (size == 0 || other.size == 0) return out;
+    Cursor a = new Cursor(this), b = new Cursor(other);
+    while (a.valid() && b.valid()) {
+      long x = a.value(), y = b.value();
+      if (x < y) {
+        a.advanceTo(y);
+      } else if (y < x) {
+        b.advanceTo(x);
+      } else {
+        out[count++] = x;
+        a.next();
+        b.next();
+      }
+    }
+    return count == out.length ? out : Arrays.copyOf(out, count);
+  }
+}
@@ -0,0 +1,89 @@
+package hiphip;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*********************************************************************************************
+ * Call, element and time counters for one instrumented call site (see hiphip.instrument).
+ *
+ * Sites are named by strings like "my.ns:42 areduce", and registered on first use, when the
+ * code for them is generated; that code keeps its probe as a constant, and just calls add.
+ * Each probe keeps its counts in a few stripes, chosen by thread id and padded a cache line
+ * apart, so that threads running the same kernel don't contend on one counter; reads sum
+ * the stripes, and so are only a consistent snapshot when nothing is recording.
+ *********************************************************************************************/
+public final class Probe {
+  private static final int STRIPES = 16;
+  // Longs per stripe: calls, elements and nanos, padded out to 64 bytes.
+  private static final int PAD = 8;
+
+  private static final ConcurrentMap<String, Probe> sites = new ConcurrentHashMap<String, Probe>();
+
+  private final String site;
+  private final AtomicLongArray counts = new AtomicLongArray(STRIPES * PAD);
+
+  private Probe(String site) {
+    this.site = site;
+  }
+
+  /** The probe for site, registering it if this is its first use. */
+  public static Probe forSite(String site) {
+    Probe p = sites.get(site);
+    if (p == null) {
+      Probe fresh = new Probe(site);
+      p = sites.putIfAbsent(site, fresh);
+      if (p == null) p = fresh;
+    }
+    return p;
+  }
+
+  /** Records one call at this site, over elements elements, taking nanos ns. */
+  public void add(long elements, long nanos) {
+    int s = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PAD;
+    counts.getAndIncrement(s);
+    counts.getAndAdd(s + 1, elements);
+    counts.getAndAdd(s + 2, nanos);
+  }
+
+  private long total(int field) {
+    long ret = 0;
+    for (int s = 0; s < STRIPES; s++) ret += counts.get(s * PAD + field);
+    return ret;
+  }
+
+  public String site() {
+    return site;
+  }
+
+  public long calls() {
+    return total(0);
+  }
+
+  public long elements() {
+    return total(1);
+  }
+
+  public long nanos() {
+    return total(2);
+  }
+
+  /** The {calls, elements, nanos} of every site that has recorded a call, by site. */
+  public static Map<String, long[]> snapshot() {
+    Map<String, long[]> ret = new TreeMap<String, long[]>();
+    for (Probe p : sites.values()) {
+      long calls = p.calls();
+      if (calls > 0) ret.put(p.site, new long[] {calls, p.elements(), p.nanos()});
+    }
+    return ret;
+  }
+
+  /** Zeroes the counts of every site. */
+  public static void reset() {
+    for (Probe p : sites.values()) {
+      for (int i = 0; i < STRIPES * PAD; i++) p.counts.set(i, 0);
+    }
+  }
+}
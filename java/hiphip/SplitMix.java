@@ -0,0 +1,104 @@
+package hiphip;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*********************************************************************************************
+ * Counter-based random numbers from the SplitMix64 generator.
+ *
+ * The ith value of the stream for a seed is a function of just the seed and i, so any range
+ * of an array can be filled independently (e.g., each chunk of a parallel fill), and the
+ * result is the same however the array is split up.  Each chunk is effectively its own
+ * split stream, positioned at the chunk's offset.
+ *
+ * Not suitable for cryptographic use.
+ *********************************************************************************************/
+public class SplitMix {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private static final AtomicLong defaultSeeds =
+    new AtomicLong(mix64(System.currentTimeMillis()) ^ mix64(System.nanoTime()));
+
+  /** The SplitMix64 (variant 13 of Stafford's MurmurHash3) finalizer. */
+  public static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+  * Returns a new seed from a process-wide stream, for fills that aren't given one.
+  */
+  public static long nextSeed() {
+    return mix64(defaultSeeds.addAndGet(GOLDEN_GAMMA));
+  }
+
+  /** The ith 64 random bits of the stream for seed. */
+  public static long bits(long seed, long i) {
+    return mix64(mix64(seed) + (i + 1) * GOLDEN_GAMMA);
+  }
+
+  /** The ith value of the stream for seed, as a double uniform in [0, 1). */
+  public static double uniform(long seed, long i) {
+    return (bits(seed, i) >>> 11) * 0x1.0p-53;
+  }
+
+  /** The ith value of the stream for seed, as a float uniform in [0, 1). */
+  public static float uniformFloat(long seed, long i) {
+    return (bits(seed, i) >>> 40) * 0x1.0p-24f;
+  }
+
+  /** The high 64 bits of the unsigned 128-bit product of x and y. */
+  private static long multiplyHighUnsigned(long x, long y) {
+    long x0 = x & 0xffffffffL, x1 = x >>> 32;
+    long y0 = y & 0xffffffffL, y1 = y >>> 32;
+    long w0 = x0 * y0;
+    long t = x1 * y0 + (w0 >>> 32);
+    long w1 = (t & 0xffffffffL) + x0 * y1;
+    return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+  }
+
+ /**
+  * The ith value of the stream for seed, as a long uniform in [0, bound).  Uses the high
+  * bits of a 64x64-bit product rather than rejection, so that every index takes one draw;
+  * the bias is at most bound / 2^64.
+  *
+  * @param  seed  the seed of the stream
+  * @param  i     the index into the stream
+  * @param  bound the exclusive upper bound, which must be positive
+  * @return       a long in [0, bound)
+  */
+  public static long bounded(long seed, long i, long bound) {
+    return multiplyHighUnsigned(bits(seed, i), bound);
+  }
+
+ /**
+  * Fill xs[start, end) with standard normal values, where xs[i] is the ith value of the
+  * stream for seed.  Uses the Box-Muller transform on the pair of uniforms at indices
+  * (2k, 2k+1) to produce the values at the same indices.
+  *
+  * @param  xs    the array to fill
+  * @param  start the first index to fill
+  * @param  end   one past the last index to fill
+  * @param  seed  the seed of the stream
+  * @return       xs
+  */
+  public static double[] fillNormal(double[] xs, int start, int end, long seed) {
+    for (int i = start & ~1; i < end; i += 2) {
+      double r = Math.sqrt(-2 * Math.log(1.0 - uniform(seed, i)));
+      double theta = 2 * Math.PI * uniform(seed, i + 1);
+      if (i >= start) xs[i] = r * Math.cos(theta);
+      if (i + 1 < end) xs[i + 1] = r * Math.sin(theta);
+    }
+    return xs;
+  }
+
+  public static float[] fillNormal(float[] xs, int start, int end, long seed) {
+    for (int i = start & ~1; i < end; i += 2) {
+      double r = Math.sqrt(-2 * Math.log(1.0 - uniform(seed, i)));
+      double theta = 2 * Math.PI * uniform(seed, i + 1);
+      if (i >= start) xs[i] = (float) (r * Math.cos(theta));
+      if (i + 1 < end) xs[i + 1] = (float) (r * Math.sin(theta));
+    }
+    return xs;
+  }
+}
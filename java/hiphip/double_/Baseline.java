@@ -1,3 +1,4 @@
+// Generated from templates/hiphip/Baseline.java by script/generate.clj; do not edit.
 package hiphip.double_;
 
 import clojure.lang.IFn;
@@ -146,6 +147,68 @@ public class Baseline {
     return m;
   }
 
+  // tests areduce*
+  public static double[] min_max_sum(double[] arr) {
+    double lo = arr[0], hi = arr[0], s = 0;
+    for (double d : arr) {
+      if (d < lo) lo = d;
+      if (d > hi) hi = d;
+      s += d;
+    }
+    return new double[] {lo, hi, s};
+  }
+
+  // tests afilter
+  public static double[] filter_positive(double[] arr) {
+    int n = 0;
+    for (double d : arr) {
+      if (d > 0) n++;
+    }
+    double[] ret = new double[n];
+    int k = 0;
+    for (double d : arr) {
+      if (d > 0) ret[k++] = d;
+    }
+    return ret;
+  }
+
+  // tests amoving-sum against the naive windowed loop
+  public static double[] moving_sum(double[] arr, int w) {
+    double[] ret = new double[arr.length - w + 1];
+    for (int i = 0; i < ret.length; i++) {
+      double s = 0;
+      for (int j = i; j < i + w; j++) {
+        s += arr[j];
+      }
+      ret[i] = s;
+    }
+    return ret;
+  }
+
+  // tests amoving-max against the naive windowed loop
+  public static double[] moving_max(double[] arr, int w) {
+    double[] ret = new double[arr.length - w + 1];
+    for (int i = 0; i < ret.length; i++) {
+      double m = arr[i];
+      for (int j = i + 1; j < i + w; j++) {
+        if (arr[j] > m) m = arr[j];
+      }
+      ret[i] = m;
+    }
+    return ret;
+  }
+
+  // tests aconvolve
+  public static double[] convolve(double[] xs, double[] ks) {
+    double[] ret = new double[xs.length + ks.length - 1];
+    for (int i = 0; i < xs.length; i++) {
+      for (int k = 0; k < ks.length; k++) {
+        ret[i + k] += xs[i] * ks[k];
+      }
+    }
+    return ret;
+  }
+
   public static Double amean(double[] arr) {
     return (1.0 * asum(arr)) / arr.length;
   }
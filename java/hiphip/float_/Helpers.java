@@ -1,3 +1,4 @@
+// Generated from templates/hiphip/Helpers.java by script/generate.clj; do not edit.
 package hiphip.float_;
 
 import clojure.lang.IFn;
@@ -15,9 +16,32 @@ public class Helpers {
   * @return   the first index of a maximum value in xs
   */    
   public static int maxIndex(float[] xs) {
-    int am = 0;
-    float m = xs[0];
-    for (int i=1; i < xs.length; ++i) {
+    return maxIndex(xs, 0, xs.length);
+  }
+
+  /**
+  * Returns the first index of a smallest value in xs, which must have nonzero length.
+  * 
+  * @param xs the array
+  * @return   the first index of a minimum value in xs
+  */    
+  public static int minIndex(float[] xs) {
+    return minIndex(xs, 0, xs.length);
+  }
+
+  /**
+  * Returns the first index of a largest value in xs[start, end), which must be non-empty.
+  * 
+  * @param xs    the array
+  * @param start the start of the range
+  * @param end   the end of the range
+  * @return      the first index of a maximum value in xs[start, end)
+  */    
+  public static int maxIndex(float[] xs, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    int am = start;
+    float m = xs[start];
+    for (int i=start+1; i < end; ++i) {
       float v = xs[i];
       if (v > m) {
 	m = v;
@@ -28,15 +52,18 @@ public class Helpers {
   }
 
   /**
-  * Returns the first index of a smallest value in xs, which must have nonzero length.
+  * Returns the first index of a smallest value in xs[start, end), which must be non-empty.
   * 
-  * @param xs the array
-  * @return   the first index of a minimum value in xs
+  * @param xs    the array
+  * @param start the start of the range
+  * @param end   the end of the range
+  * @return      the first index of a minimum value in xs[start, end)
   */    
-  public static int minIndex(float[] xs) {
-    int am = 0;
-    float m = xs[0];
-    for (int i=1; i < xs.length; ++i) {
+  public static int minIndex(float[] xs, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    int am = start;
+    float m = xs[start];
+    for (int i=start+1; i < end; ++i) {
       float v = xs[i];
       if (v < m) {
 	m = v;
@@ -46,6 +73,43 @@ public class Helpers {
     return am;
   }
 
+  /**
+  * Returns the sum of xs[start, end), added left to right like asum: in doubles for
+  * floating-point types, and in longs (wrapping around on overflow) for integral ones.
+  * 
+  * @param xs    the array
+  * @param start the start of the range
+  * @param end   the end of the range
+  * @return      the sum
+  */
+  public static double sum(float[] xs, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    double s = 0;
+    for (int i = start; i < end; i++) {
+      s += xs[i];
+    }
+    return s;
+  }
+
+  /**
+  * Returns the dot product of xs[start, end) and ys[start, end), in the type of sum.
+  * 
+  * @param xs    the first array
+  * @param ys    the second array
+  * @param start the start of the range
+  * @param end   the end of the range
+  * @return      the dot product
+  */
+  public static double dot(float[] xs, float[] ys, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, ys.length);
+    double s = 0;
+    for (int i = start; i < end; i++) {
+      double x = xs[i];
+      s += x * ys[i];
+    }
+    return s;
+  }
+
   private static void swap(float[] arr, int i, int j) {
     float tmp = arr[i];
     arr[i] = arr[j];
@@ -206,4 +270,556 @@ public class Helpers {
     } while(arr[indices[part]] == pivot);
     sortIndices(indices, arr, left, part+1);
   }
+
+  private static int windows(int len, int w) {
+    if (w < 1 || w > len) {
+      throw new IllegalArgumentException("Window " + w + " must be in [1, " + len + "]");
+    }
+    return len - w + 1;
+  }
+
+  private static void checkWindowOutput(int len, int w, int outLength) {
+    if (outLength < windows(len, w)) {
+      throw new IllegalArgumentException("Output of length " + outLength + " can't hold "
+                                         + windows(len, w) + " windows");
+    }
+  }
+
+ /**
+  * Computes the sums of each window of w consecutive elements of xs with a running
+  * update, so that out[i] = xs[i] + ... + xs[i+w-1] for 0 <= i <= xs.length - w.
+  * The running sum is kept as a double.
+  * 
+  * @param  xs  the array
+  * @param  w   the window length, which must be in [1, xs.length]
+  * @param  out the output array, of length at least xs.length - w + 1
+  * @return     out
+  */    
+  public static float[] movingSum(float[] xs, int w, float[] out) {
+    checkWindowOutput(xs.length, w, out.length);
+    double s = 0;
+    for (int i = 0; i < w; i++) {
+      s += xs[i];
+    }
+    out[0] = (float) s;
+    for (int i = w; i < xs.length; i++) {
+      s += xs[i];
+      s -= xs[i - w];
+      out[i - w + 1] = (float) s;
+    }
+    return out;
+  }
+
+  public static float[] movingSum(float[] xs, int w) {
+    return movingSum(xs, w, new float[windows(xs.length, w)]);
+  }
+
+ /**
+  * Computes the maximum of each window of w consecutive elements of xs, using a
+  * monotonic deque of indices kept in an int ring buffer, in O(xs.length) time.
+  * 
+  * @param  xs  the array
+  * @param  w   the window length, which must be in [1, xs.length]
+  * @param  out the output array, of length at least xs.length - w + 1
+  * @return     out
+  */    
+  public static float[] movingMax(float[] xs, int w, float[] out) {
+    checkWindowOutput(xs.length, w, out.length);
+    int[] deque = new int[w];
+    int head = 0, size = 0;
+    for (int i = 0; i < xs.length; i++) {
+      float v = xs[i];
+      if (size > 0 && deque[head] <= i - w) {
+        if (++head == w) head = 0;
+        size--;
+      }
+      while (size > 0) {
+        int last = head + size - 1;
+        if (last >= w) last -= w;
+        if (xs[deque[last]] > v) break;
+        size--;
+      }
+      int tail = head + size;
+      if (tail >= w) tail -= w;
+      deque[tail] = i;
+      size++;
+      if (i >= w - 1) out[i - w + 1] = xs[deque[head]];
+    }
+    return out;
+  }
+
+  public static float[] movingMax(float[] xs, int w) {
+    return movingMax(xs, w, new float[windows(xs.length, w)]);
+  }
+
+ /**
+  * Computes the minimum of each window of w consecutive elements of xs, using a
+  * monotonic deque of indices kept in an int ring buffer, in O(xs.length) time.
+  * 
+  * @param  xs  the array
+  * @param  w   the window length, which must be in [1, xs.length]
+  * @param  out the output array, of length at least xs.length - w + 1
+  * @return     out
+  */    
+  public static float[] movingMin(float[] xs, int w, float[] out) {
+    checkWindowOutput(xs.length, w, out.length);
+    int[] deque = new int[w];
+    int head = 0, size = 0;
+    for (int i = 0; i < xs.length; i++) {
+      float v = xs[i];
+      if (size > 0 && deque[head] <= i - w) {
+        if (++head == w) head = 0;
+        size--;
+      }
+      while (size > 0) {
+        int last = head + size - 1;
+        if (last >= w) last -= w;
+        if (xs[deque[last]] < v) break;
+        size--;
+      }
+      int tail = head + size;
+      if (tail >= w) tail -= w;
+      deque[tail] = i;
+      size++;
+      if (i >= w - 1) out[i - w + 1] = xs[deque[head]];
+    }
+    return out;
+  }
+
+  public static float[] movingMin(float[] xs, int w) {
+    return movingMin(xs, w, new float[windows(xs.length, w)]);
+  }
+
+  private static float correlateAt(float[] xs, float[] ks, int base) {
+    int k0 = Math.max(0, -base), k1 = Math.min(ks.length, xs.length - base);
+    double s = 0;
+    for (int k = k0; k < k1; k++) {
+      double kv = ks[k];
+      s += xs[base + k] * kv;
+    }
+    return (float) s;
+  }
+
+ /**
+  * Cross-correlates xs with ks directly, treating xs as zero outside its bounds, so
+  * that out[j] = sum over k of xs[j + offset + k] * ks[k].  Outputs that only touch
+  * elements within xs are computed four at a time, so that each kernel element is
+  * loaded once per four outputs and the four sums can be pipelined.
+  * 
+  * @param  xs     the signal
+  * @param  ks     the kernel
+  * @param  offset the index into xs of the first kernel element for out[0]
+  * @param  out    the output array
+  * @return        out
+  */    
+  public static float[] correlate(float[] xs, float[] ks, int offset, float[] out) {
+    int n = out.length, nk = ks.length;
+    int lo = Math.min(n, Math.max(0, -offset));
+    int hi = Math.max(lo, Math.min(n, xs.length - nk - offset + 1));
+    int j = 0;
+    for (; j < lo; j++) {
+      out[j] = correlateAt(xs, ks, j + offset);
+    }
+    for (; j + 4 <= hi; j += 4) {
+      double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+      int base = j + offset;
+      for (int k = 0; k < nk; k++) {
+        double kv = ks[k];
+        s0 += xs[base + k] * kv;
+        s1 += xs[base + k + 1] * kv;
+        s2 += xs[base + k + 2] * kv;
+        s3 += xs[base + k + 3] * kv;
+      }
+      out[j] = (float) s0;
+      out[j + 1] = (float) s1;
+      out[j + 2] = (float) s2;
+      out[j + 3] = (float) s3;
+    }
+    for (; j < n; j++) {
+      out[j] = correlateAt(xs, ks, j + offset);
+    }
+    return out;
+  }
+
+ /**
+  * Convolves xs with ks directly, treating xs as zero outside its bounds, so that 
+  * out[j] = sum over k of xs[j + offset + k] * ks[ks.length - 1 - k].  With an offset of
+  * 1 - ks.length, this is the full convolution.
+  * 
+  * @param  xs     the signal
+  * @param  ks     the kernel
+  * @param  offset the index into xs of the last kernel element for out[0]
+  * @param  out    the output array
+  * @return        out
+  */    
+  public static float[] convolve(float[] xs, float[] ks, int offset, float[] out) {
+    int nk = ks.length;
+    float[] reversed = new float[nk];
+    for (int k = 0; k < nk; k++) {
+      reversed[k] = ks[nk - 1 - k];
+    }
+    return correlate(xs, reversed, offset, out);
+  }
+
+  // Element-wise arithmetic.  Each kernel runs over [start, end) of every array it's
+  // given, with the same indices in each, and the arrays may be the same (so e.g.
+  // add(xs, ys, xs, ...) adds ys to xs in place).  Keeping them here, rather than
+  // expanding a loop at each call site, means one copy of each loop is compiled and kept
+  // hot, and simple enough for the JIT to unroll and vectorize.
+
+  private static void checkRanges(int start, int end, int n1, int n2, int n3) {
+    hiphip.IndexArrays.checkRange(start, end, Math.min(n1, Math.min(n2, n3)));
+  }
+
+ /**
+  * Sets ys[i] += a * xs[i] for i in [start, end).
+  *
+  * @param  a     the multiplier
+  * @param  xs    the array to add multiples of
+  * @param  ys    the array to add to
+  * @param  start the start of the range
+  * @param  end   the end of the range
+  * @return       ys
+  */
+  public static float[] axpy(float a, float[] xs, float[] ys, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, ys.length);
+    for (int i = start; i < end; i++) {
+      ys[i] += a * xs[i];
+    }
+    return ys;
+  }
+
+  /** Sets xs[i] *= s for i in [start, end), and returns xs. */
+  public static float[] scale(float[] xs, float s, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    for (int i = start; i < end; i++) {
+      xs[i] *= s;
+    }
+    return xs;
+  }
+
+  /** Sets out[i] = xs[i] + ys[i] for i in [start, end), and returns out. */
+  public static float[] add(float[] xs, float[] ys, float[] out, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, out.length);
+    for (int i = start; i < end; i++) {
+      out[i] = xs[i] + ys[i];
+    }
+    return out;
+  }
+
+  /** Sets out[i] = xs[i] - ys[i] for i in [start, end), and returns out. */
+  public static float[] sub(float[] xs, float[] ys, float[] out, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, out.length);
+    for (int i = start; i < end; i++) {
+      out[i] = xs[i] - ys[i];
+    }
+    return out;
+  }
+
+  /** Sets out[i] = xs[i] * ys[i] for i in [start, end), and returns out. */
+  public static float[] mul(float[] xs, float[] ys, float[] out, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, out.length);
+    for (int i = start; i < end; i++) {
+      out[i] = xs[i] * ys[i];
+    }
+    return out;
+  }
+
+  /** Sets out[i] = xs[i] / ys[i] for i in [start, end), and returns out. */
+  public static float[] div(float[] xs, float[] ys, float[] out, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, out.length);
+    for (int i = start; i < end; i++) {
+      out[i] = xs[i] / ys[i];
+    }
+    return out;
+  }
+
+ /**
+  * Clamps each element of xs[start, end) to [lo, hi].
+  * NaNs are left as they are.
+  *
+  * @param  xs    the array
+  * @param  lo    the lower bound
+  * @param  hi    the upper bound, which must be at least lo
+  * @param  start the start of the range
+  * @param  end   the end of the range
+  * @return       xs
+  */
+  public static float[] clip(float[] xs, float lo, float hi, int start, int end) {
+    if (!(lo <= hi)) {
+      throw new IllegalArgumentException("Invalid bounds [" + lo + ", " + hi + "]");
+    }
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    for (int i = start; i < end; i++) {
+      float x = xs[i];
+      xs[i] = x < lo ? lo : x > hi ? hi : x;
+    }
+    return xs;
+  }
+
+  /** Replaces each element of xs[start, end) with its absolute value, and returns xs. */
+  public static float[] abs(float[] xs, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    for (int i = start; i < end; i++) {
+      xs[i] = Math.abs(xs[i]);
+    }
+    return xs;
+  }
+
+
+  private static final int PAIRWISE_BLOCK = 128;
+
+  /** The naive sum of xs[start, end), in eight interleaved accumulators. */
+  private static double sumBlock(float[] xs, int start, int end) {
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+    int i = start;
+    for (; i + 8 <= end; i += 8) {
+      s0 += xs[i];
+      s1 += xs[i + 1];
+      s2 += xs[i + 2];
+      s3 += xs[i + 3];
+      s4 += xs[i + 4];
+      s5 += xs[i + 5];
+      s6 += xs[i + 6];
+      s7 += xs[i + 7];
+    }
+    double s = ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7));
+    for (; i < end; i++) {
+      s += xs[i];
+    }
+    return s;
+  }
+
+  private static double sumPairwiseUnchecked(float[] xs, int start, int end) {
+    int n = end - start;
+    if (n <= PAIRWISE_BLOCK) return sumBlock(xs, start, end);
+    int half = (n / 2) & ~7;
+    return sumPairwiseUnchecked(xs, start, start + half)
+      + sumPairwiseUnchecked(xs, start + half, end);
+  }
+
+ /**
+  * Sums xs[start, end) by pairwise (cascade) summation, in doubles: blocks of up to 128
+  * elements are summed naively in eight accumulators, and the block sums added in a
+  * balanced tree.  The rounding error grows with log(n) rather than n, and the
+  * interleaved accumulators make it faster than a naive loop.
+  *
+  * @param  xs    the array
+  * @param  start the start of the range
+  * @param  end   the end of the range
+  * @return       the sum
+  */
+  public static double sumPairwise(float[] xs, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    return sumPairwiseUnchecked(xs, start, end);
+  }
+
+ /**
+  * Sums xs[start, end) with compensated summation, in doubles: the rounding error of each
+  * addition is recovered exactly, by Knuth's TwoSum (which needs no comparison of the
+  * addends, so the loop has no branches), and accumulated separately, so the result is as
+  * accurate as summing in twice the precision.  Eight independent sum and compensation
+  * pairs keep the pipeline full.
+  *
+  * @param  xs    the array
+  * @param  start the start of the range
+  * @param  end   the end of the range
+  * @return       the sum
+  */
+  public static double sumCompensated(float[] xs, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+    double c0 = 0, c1 = 0, c2 = 0, c3 = 0, c4 = 0, c5 = 0, c6 = 0, c7 = 0;
+    int i = start;
+    for (; i + 8 <= end; i += 8) {
+      double x0 = xs[i], x1 = xs[i + 1], x2 = xs[i + 2], x3 = xs[i + 3];
+      double x4 = xs[i + 4], x5 = xs[i + 5], x6 = xs[i + 6], x7 = xs[i + 7];
+      double t0 = s0 + x0, t1 = s1 + x1, t2 = s2 + x2, t3 = s3 + x3;
+      double t4 = s4 + x4, t5 = s5 + x5, t6 = s6 + x6, t7 = s7 + x7;
+      double z0 = t0 - s0, z1 = t1 - s1, z2 = t2 - s2, z3 = t3 - s3;
+      double z4 = t4 - s4, z5 = t5 - s5, z6 = t6 - s6, z7 = t7 - s7;
+      c0 += (s0 - (t0 - z0)) + (x0 - z0);
+      c1 += (s1 - (t1 - z1)) + (x1 - z1);
+      c2 += (s2 - (t2 - z2)) + (x2 - z2);
+      c3 += (s3 - (t3 - z3)) + (x3 - z3);
+      c4 += (s4 - (t4 - z4)) + (x4 - z4);
+      c5 += (s5 - (t5 - z5)) + (x5 - z5);
+      c6 += (s6 - (t6 - z6)) + (x6 - z6);
+      c7 += (s7 - (t7 - z7)) + (x7 - z7);
+      s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+      s4 = t4; s5 = t5; s6 = t6; s7 = t7;
+    }
+    // Fold in the other partial sums, and then the leftover elements, the same way.
+    double s = s0, c = ((c0 + c1) + (c2 + c3)) + ((c4 + c5) + (c6 + c7)), t, z;
+    t = s + s1; z = t - s; c += (s - (t - z)) + (s1 - z); s = t;
+    t = s + s2; z = t - s; c += (s - (t - z)) + (s2 - z); s = t;
+    t = s + s3; z = t - s; c += (s - (t - z)) + (s3 - z); s = t;
+    t = s + s4; z = t - s; c += (s - (t - z)) + (s4 - z); s = t;
+    t = s + s5; z = t - s; c += (s - (t - z)) + (s5 - z); s = t;
+    t = s + s6; z = t - s; c += (s - (t - z)) + (s6 - z); s = t;
+    t = s + s7; z = t - s; c += (s - (t - z)) + (s7 - z); s = t;
+    for (; i < end; i++) {
+      double x = xs[i];
+      t = s + x;
+      z = t - s;
+      c += (s - (t - z)) + (x - z);
+      s = t;
+    }
+    return s + c;
+  }
+
+  // NaN-aware extremes.  A NaN never wins a > or < comparison, so scanning with
+  // m = v > m ? v : m ignores NaNs, while Math.max and Math.min propagate them.  Neither
+  // scan tracks the index of the extreme, which would put a data-dependent update (a
+  // branch, mispredicted wherever the running extreme keeps changing, as on sorted or
+  // trending data) on the critical path.  Instead the index methods take the extreme of
+  // each block of EXTREME_BLOCK elements, remember the first block with the overall
+  // extreme, and search just that block for it at the end.  When propagating, a block
+  // whose Math.max or Math.min is NaN is searched for its first NaN at once; those blocks
+  // are NAN_BLOCK long, since the vectorized reduction has more setup per block.
+
+  private static final int EXTREME_BLOCK = 256;
+  private static final int NAN_BLOCK = 2048;
+
+ /**
+  * Returns the largest element of xs[start, end).  With propagateNaN, returns NaN if any
+  * element is NaN; otherwise NaNs are ignored.  Returns NaN if the range has no other
+  * elements.
+  *
+  * @param  xs           the array
+  * @param  start        the start of the range
+  * @param  end          the end of the range
+  * @param  propagateNaN whether a NaN element makes the result NaN
+  * @return              the max
+  */
+  public static float max(float[] xs, int start, int end, boolean propagateNaN) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    float m = Float.NEGATIVE_INFINITY;
+    if (propagateNaN) {
+      for (int i = start; i < end; i++) {
+        m = Math.max(m, xs[i]);
+      }
+    } else {
+      for (int i = start; i < end; i++) {
+        float v = xs[i];
+        m = v > m ? v : m;
+      }
+    }
+    return m == Float.NEGATIVE_INFINITY && indexOf(xs, start, end, m) < 0 ? Float.NaN : m;
+  }
+
+ /**
+  * Returns the smallest element of xs[start, end), with NaNs treated as by max.
+  *
+  * @param  xs           the array
+  * @param  start        the start of the range
+  * @param  end          the end of the range
+  * @param  propagateNaN whether a NaN element makes the result NaN
+  * @return              the min
+  */
+  public static float min(float[] xs, int start, int end, boolean propagateNaN) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    float m = Float.POSITIVE_INFINITY;
+    if (propagateNaN) {
+      for (int i = start; i < end; i++) {
+        m = Math.min(m, xs[i]);
+      }
+    } else {
+      for (int i = start; i < end; i++) {
+        float v = xs[i];
+        m = v < m ? v : m;
+      }
+    }
+    return m == Float.POSITIVE_INFINITY && indexOf(xs, start, end, m) < 0 ? Float.NaN : m;
+  }
+
+  /** The first index in [start, end) of target (or of a NaN, if target is NaN), or -1. */
+  private static int indexOf(float[] xs, int start, int end, float target) {
+    if (target != target) {
+      for (int i = start; i < end; i++) {
+        if (xs[i] != xs[i]) return i;
+      }
+    } else {
+      for (int i = start; i < end; i++) {
+        if (xs[i] == target) return i;
+      }
+    }
+    return -1;
+  }
+
+ /**
+  * Returns the first index of a largest element of xs[start, end), with NaNs treated as
+  * by max: with propagateNaN, the first NaN is the largest element.  Returns -1 if there is
+  * no such element.
+  *
+  * @param  xs           the array
+  * @param  start        the start of the range
+  * @param  end          the end of the range
+  * @param  propagateNaN whether NaN counts as the largest value
+  * @return              the index, or -1
+  */
+  public static int maxIndex(float[] xs, int start, int end, boolean propagateNaN) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    float m = Float.NEGATIVE_INFINITY;
+    int best = -1, block = propagateNaN ? NAN_BLOCK : EXTREME_BLOCK;
+    for (int b = start; b < end; b += block) {
+      int e = Math.min(end, b + block);
+      float bm = Float.NEGATIVE_INFINITY;
+      if (propagateNaN) {
+        for (int i = b; i < e; i++) {
+          bm = Math.max(bm, xs[i]);
+        }
+        if (bm != bm) return indexOf(xs, b, e, bm);
+      } else {
+        for (int i = b; i < e; i++) {
+          float v = xs[i];
+          bm = v > bm ? v : bm;
+        }
+      }
+      if (bm > m) {
+        m = bm;
+        best = b;
+      }
+    }
+    return best < 0
+      ? indexOf(xs, start, end, m)
+      : indexOf(xs, best, Math.min(end, best + block), m);
+  }
+
+ /**
+  * Returns the first index of a smallest element of xs[start, end), as for maxIndex.
+  *
+  * @param  xs           the array
+  * @param  start        the start of the range
+  * @param  end          the end of the range
+  * @param  propagateNaN whether NaN counts as the smallest value
+  * @return              the index, or -1
+  */
+  public static int minIndex(float[] xs, int start, int end, boolean propagateNaN) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    float m = Float.POSITIVE_INFINITY;
+    int best = -1, block = propagateNaN ? NAN_BLOCK : EXTREME_BLOCK;
+    for (int b = start; b < end; b += block) {
+      int e = Math.min(end, b + block);
+      float bm = Float.POSITIVE_INFINITY;
+      if (propagateNaN) {
+        for (int i = b; i < e; i++) {
+          bm = Math.min(bm, xs[i]);
+        }
+        if (bm != bm) return indexOf(xs, b, e, bm);
+      } else {
+        for (int i = b; i < e; i++) {
+          float v = xs[i];
+          bm = v < bm ? v : bm;
+        }
+      }
+      if (bm < m) {
+        m = bm;
+        best = b;
+      }
+    }
+    return best < 0
+      ? indexOf(xs, start, end, m)
+      : indexOf(xs, best, Math.min(end, best + block), m);
+  }
 }
@@ -0,0 +1,163 @@
+// Generated from templates/hiphip/TopK.java by script/generate.clj; do not edit.
+package hiphip.float_;
+
+/*********************************************************************************************
+ * A tournament tree over the indices of a float array, for repeated argmax (or argmin)
+ * and top-k queries while the array changes a few elements at a time.
+ *
+ * The leaves are the indices of the array (padded to a power of two with -1, which loses
+ * every match), and each internal node holds the index of the better of its children's
+ * winners, so the root is the index of the best element.  Changing an element replays
+ * just the matches on its path to the root, in O(log n); top(k) walks the tree best-first
+ * from the root with a small heap of nodes, in O(k log n) and without touching the rest of
+ * the array.
+ *
+ * Better means larger (or smaller, for a min tree), with ties going to the lower index.
+ * The order of NaNs is unspecified.  Changes to the array made other than through set must
+ * be followed by update for the tree to stay valid.
+ *********************************************************************************************/
+public final class TopK {
+  private final float[] xs;
+  private final boolean max;
+  private final int leaves;
+  private final int[] tree;
+
+  /**
+  * Builds a tree over xs, in O(xs.length).
+  *
+  * @param xs  the array, which the tree reads but doesn't copy
+  * @param max true for the largest elements first, false for the smallest
+  */
+  public TopK(float[] xs, boolean max) {
+    this.xs = xs;
+    this.max = max;
+    int n = 1;
+    while (n < xs.length) n <<= 1;
+    leaves = n;
+    tree = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      tree[n + i] = i < xs.length ? i : -1;
+    }
+    for (int node = n - 1; node >= 1; node--) {
+      tree[node] = winner(tree[2 * node], tree[2 * node + 1]);
+    }
+  }
+
+  private boolean beats(int i, int j) {
+    if (j < 0) return i >= 0;
+    if (i < 0) return false;
+    float a = xs[i], b = xs[j];
+    if (a == b) return i < j;
+    return max ? a > b : a < b;
+  }
+
+  private int winner(int i, int j) {
+    return beats(j, i) ? j : i;
+  }
+
+  /** The array the tree is over. */
+  public float[] array() {
+    return xs;
+  }
+
+  public boolean isMax() {
+    return max;
+  }
+
+  public int size() {
+    return xs.length;
+  }
+
+  /** Returns the index of the best element, or -1 if the array is empty. */
+  public int best() {
+    return xs.length == 0 ? -1 : tree[1];
+  }
+
+  /** Replays the matches of element i, after it has been changed in the array. */
+  public void update(int i) {
+    if (i < 0 || i >= xs.length) {
+      throw new IndexOutOfBoundsException("Index " + i + " of " + xs.length);
+    }
+    for (int node = (leaves + i) >>> 1; node >= 1; node >>>= 1) {
+      int w = winner(tree[2 * node], tree[2 * node + 1]);
+      if (tree[node] == w && w != i) break;
+      tree[node] = w;
+    }
+  }
+
+  /** Sets element i of the array to v, and updates the tree. */
+  public void set(int i, float v) {
+    if (i < 0 || i >= xs.length) {
+      throw new IndexOutOfBoundsException("Index " + i + " of " + xs.length);
+    }
+    xs[i] = v;
+    update(i);
+  }
+
+ /**
+  * Writes the indices of the best k elements, best first, to out[0, k).
+  *
+  * @param  k   the number of indices, which must be in [0, size()]
+  * @param  out an array of length at least k
+  * @return     out
+  */
+  public int[] top(int k, int[] out) {
+    if (k < 0 || k > xs.length || k > out.length) {
+      throw new IllegalArgumentException("Can't take the top " + k + " of " + xs.length
+                                         + " elements into an array of length " + out.length);
+    }
+    // A binary heap of tree nodes, ordered by their winners.  Each node popped either is a
+    // leaf, whose index is next, or has its children pushed, so at most k * (depth + 1)
+    // nodes are pushed.
+    int depth = Integer.numberOfTrailingZeros(leaves);
+    int[] heap = new int[Math.max(1, k * (depth + 1) + 1)];
+    int n = 0, found = 0;
+    if (k > 0) heap[n++] = 1;
+    while (found < k) {
+      int node = heap[0];
+      heap[0] = heap[--n];
+      siftDown(heap, n, 0);
+      if (node >= leaves) {
+        out[found++] = tree[node];
+      } else {
+        for (int child = 2 * node; child <= 2 * node + 1; child++) {
+          if (tree[child] >= 0) {
+            heap[n] = child;
+            siftUp(heap, n++);
+          }
+        }
+      }
+    }
+    return out;
+  }
+
+  /** Returns the indices of the best k elements, best first, in a new array. */
+  public int[] top(int k) {
+    return top(k, new int[k]);
+  }
+
+  private void siftUp(int[] heap, int i) {
+    int node = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!beats(tree[node], tree[heap[parent]])) break;
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = node;
+  }
+
+  private void siftDown(int[] heap, int n, int i) {
+    if (n == 0) return;
+    int node = heap[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= n) break;
+      if (child + 1 < n && beats(tree[heap[child + 1]], tree[heap[child]])) child++;
+      if (!beats(tree[heap[child]], tree[node])) break;
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = node;
+  }
+}
@@ -1,3 +1,4 @@
+// Generated from templates/hiphip/Baseline.java by script/generate.clj; do not edit.
 package hiphip.int_;
 
 import clojure.lang.IFn;
@@ -146,6 +147,68 @@ public class Baseline {
     return m;
   }
 
+  // tests areduce*
+  public static int[] min_max_sum(int[] arr) {
+    int lo = arr[0], hi = arr[0], s = 0;
+    for (int d : arr) {
+      if (d < lo) lo = d;
+      if (d > hi) hi = d;
+      s += d;
+    }
+    return new int[] {lo, hi, s};
+  }
+
+  // tests afilter
+  public static int[] filter_positive(int[] arr) {
+    int n = 0;
+    for (int d : arr) {
+      if (d > 0) n++;
+    }
+    int[] ret = new int[n];
+    int k = 0;
+    for (int d : arr) {
+      if (d > 0) ret[k++] = d;
+    }
+    return ret;
+  }
+
+  // tests amoving-sum against the naive windowed loop
+  public static int[] moving_sum(int[] arr, int w) {
+    int[] ret = new int[arr.length - w + 1];
+    for (int i = 0; i < ret.length; i++) {
+      int s = 0;
+      for (int j = i; j < i + w; j++) {
+        s += arr[j];
+      }
+      ret[i] = s;
+    }
+    return ret;
+  }
+
+  // tests amoving-max against the naive windowed loop
+  public static int[] moving_max(int[] arr, int w) {
+    int[] ret = new int[arr.length - w + 1];
+    for (int i = 0; i < ret.length; i++) {
+      int m = arr[i];
+      for (int j = i + 1; j < i + w; j++) {
+        if (arr[j] > m) m = arr[j];
+      }
+      ret[i] = m;
+    }
+    return ret;
+  }
+
+  // tests aconvolve
+  public static int[] convolve(int[] xs, int[] ks) {
+    int[] ret = new int[xs.length + ks.length - 1];
+    for (int i = 0; i < xs.length; i++) {
+      for (int k = 0; k < ks.length; k++) {
+        ret[i + k] += xs[i] * ks[k];
+      }
+    }
+    return ret;
+  }
+
   public static Double amean(int[] arr) {
     return (1.0 * asum(arr)) / arr.length;
   }
@@ -1,3 +1,4 @@
+// Generated from templates/hiphip/Helpers.java by script/generate.clj; do not edit.
 package hiphip.int_;
 
 import clojure.lang.IFn;
@@ -15,9 +16,32 @@ public class Helpers {
   * @return   the first index of a maximum value in xs
   */    
   public static int maxIndex(int[] xs) {
-    int am = 0;
-    int m = xs[0];
-    for (int i=1; i < xs.length; ++i) {
+    return maxIndex(xs, 0, xs.length);
+  }
+
+  /**
+  * Returns the first index of a smallest value in xs, which must have nonzero length.
+  * 
+  * @param xs the array
+  * @return   the first index of a minimum value in xs
+  */    
+  public static int minIndex(int[] xs) {
+    return minIndex(xs, 0, xs.length);
+  }
+
+  /**
+  * Returns the first index of a largest value in xs[start, end), which must be non-empty.
+  * 
+  * @param xs    the array
+  * @param start the start of the range
+  * @param end   the end of the range
+  * @return      the first index of a maximum value in xs[start, end)
+  */    
+  public static int maxIndex(int[] xs, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    int am = start;
+    int m = xs[start];
+    for (int i=start+1; i < end; ++i) {
       int v = xs[i];
       if (v > m) {
 	m = v;
@@ -28,15 +52,18 @@ public class Helpers {
   }
 
   /**
-  * Returns the first index of a smallest value in xs, which must have nonzero length.
+  * Returns the first index of a smallest value in xs[start, end), which must be non-empty.
   * 
-  * @param xs the array
-  * @return   the first index of a minimum value in xs
+  * @param xs    the array
+  * @param start the start of the range
+  * @param end   the end of the range
+  * @return      the first index of a minimum value in xs[start, end)
   */    
-  public static int minIndex(int[] xs) {
-    int am = 0;
-    int m = xs[0];
-    for (int i=1; i < xs.length; ++i) {
+  public static int minIndex(int[] xs, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    int am = start;
+    int m = xs[start];
+    for (int i=start+1; i < end; ++i) {
       int v = xs[i];
       if (v < m) {
 	m = v;
@@ -46,6 +73,43 @@ public class Helpers {
     return am;
   }
 
+  /**
+  * Returns the sum of xs[start, end), added left to right like asum: in doubles for
+  * floating-point types, and in longs (wrapping around on overflow) for integral ones.
+  * 
+  * @param xs    the array
+  * @param start the start of the range
+  * @param end   the end of the range
+  * @return      the sum
+  */
+  public static long sum(int[] xs, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    long s = 0;
+    for (int i = start; i < end; i++) {
+      s += xs[i];
+    }
+    return s;
+  }
+
+  /**
+  * Returns the dot product of xs[start, end) and ys[start, end), in the type of sum.
+  * 
+  * @param xs    the first array
+  * @param ys    the second array
+  * @param start the start of the range
+  * @param end   the end of the range
+  * @return      the dot product
+  */
+  public static long dot(int[] xs, int[] ys, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, ys.length);
+    long s = 0;
+    for (int i = start; i < end; i++) {
+      long x = xs[i];
+      s += x * ys[i];
+    }
+    return s;
+  }
+
   private static void swap(int[] arr, int i, int j) {
     int tmp = arr[i];
     arr[i] = arr[j];
@@ -206,4 +270,229 @@ public class Helpers {
     } while(arr[indices[part]] == pivot);
     sortIndices(indices, arr, left, part+1);
   }
+
+  private static int windows(int len, int w) {
+    if (w < 1 || w > len) {
+      throw new IllegalArgumentException("Window " + w + " must be in [1, " + len + "]");
+    }
+    return len - w + 1;
+  }
+
+  private static void checkWindowOutput(int len, int w, int outLength) {
+    if (outLength < windows(len, w)) {
+      throw new IllegalArgumentException("Output of length " + outLength + " can't hold "
+                                         + windows(len, w) + " windows");
+    }
+  }
+
+ /**
+  * Computes the sums of each window of w consecutive elements of xs with a running
+  * update, so that out[i] = xs[i] + ... + xs[i+w-1] for 0 <= i <= xs.length - w.
+  * The running sum is kept as a int.
+  * 
+  * @param  xs  the array
+  * @param  w   the window length, which must be in [1, xs.length]
+  * @param  out the output array, of length at least xs.length - w + 1
+  * @return     out
+  */    
+  public static int[] movingSum(int[] xs, int w, int[] out) {
+    checkWindowOutput(xs.length, w, out.length);
+    int s = 0;
+    for (int i = 0; i < w; i++) {
+      s += xs[i];
+    }
+    out[0] = s;
+    for (int i = w; i < xs.length; i++) {
+      s += xs[i];
+      s -= xs[i - w];
+      out[i - w + 1] = s;
+    }
+    return out;
+  }
+
+  public static int[] movingSum(int[] xs, int w) {
+    return movingSum(xs, w, new int[windows(xs.length, w)]);
+  }
+
+ /**
+  * Computes the maximum of each window of w consecutive elements of xs, using a
+  * monotonic deque of indices kept in an int ring buffer, in O(xs.length) time.
+  * 
+  * @param  xs  the array
+  * @param  w   the window length, which must be in [1, xs.length]
+  * @param  out the output array, of length at least xs.length - w + 1
+  * @return     out
+  */    
+  public static int[] movingMax(int[] xs, int w, int[] out) {
+    checkWindowOutput(xs.length, w, out.length);
+    int[] deque = new int[w];
+    int head = 0, size = 0;
+    for (int i = 0; i < xs.length; i++) {
+      int v = xs[i];
+      if (size > 0 && deque[head] <= i - w) {
+        if (++head == w) head = 0;
+        size--;
+      }
+      while (size > 0) {
+        int last = head + size - 1;
+        if (last >= w) last -= w;
+        if (xs[deque[last]] > v) break;
+        size--;
+      }
+      int tail = head + size;
+      if (tail >= w) tail -= w;
+      deque[tail] = i;
+      size++;
+      if (i >= w - 1) out[i - w + 1] = xs[deque[head]];
+    }
+    return out;
+  }
+
+  public static int[] movingMax(int[] xs, int w) {
+    return movingMax(xs, w, new int[windows(xs.length, w)]);
+  }
+
+ /**
+  * Computes the minimum of each window of w consecutive elements of xs, using a
+  * monotonic deque of indices kept in an int ring buffer, in O(xs.length) time.
+  * 
+  * @param  xs  the array
+  * @param  w   the window length, which must be in [1, xs.length]
+  * @param  out the output array, of length at least xs.length - w + 1
+  * @return     out
+  */    
+  public static int[] movingMin(int[] xs, int w, int[] out) {
+    checkWindowOutput(xs.length, w, out.length);
+    int[] deque = new int[w];
+    int head = 0, size = 0;
+    for (int i = 0; i < xs.length; i++) {
+      int v = xs[i];
+      if (size > 0 && deque[head] <= i - w) {
+        if (++head == w) head = 0;
+        size--;
+      }
+      while (size > 0) {
+        int last = head + size - 1;
+        if (last >= w) last -= w;
+        if (xs[deque[last]] < v) break;
+        size--;
+      }
+      int tail = head + size;
+      if (tail >= w) tail -= w;
+      deque[tail] = i;
+      size++;
+      if (i >= w - 1) out[i - w + 1] = xs[deque[head]];
+    }
+    return out;
+  }
+
+  public static int[] movingMin(int[] xs, int w) {
+    return movingMin(xs, w, new int[windows(xs.length, w)]);
+  }
+
+
+  // Element-wise arithmetic.  Each kernel runs over [start, end) of every array it's
+  // given, with the same indices in each, and the arrays may be the same (so e.g.
+  // add(xs, ys, xs, ...) adds ys to xs in place).  Keeping them here, rather than
+  // expanding a loop at each call site, means one copy of each loop is compiled and kept
+  // hot, and simple enough for the JIT to unroll and vectorize.
+
+  private static void checkRanges(int start, int end, int n1, int n2, int n3) {
+    hiphip.IndexArrays.checkRange(start, end, Math.min(n1, Math.min(n2, n3)));
+  }
+
+ /**
+  * Sets ys[i] += a * xs[i] for i in [start, end).
+  *
+  * @param  a     the multiplier
+  * @param  xs    the array to add multiples of
+  * @param  ys    the array to add to
+  * @param  start the start of the range
+  * @param  end   the end of the range
+  * @return       ys
+  */
+  public static int[] axpy(int a, int[] xs, int[] ys, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, ys.length);
+    for (int i = start; i < end; i++) {
+      ys[i] += a * xs[i];
+    }
+    return ys;
+  }
+
+  /** Sets xs[i] *= s for i in [start, end), and returns xs. */
+  public static int[] scale(int[] xs, int s, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    for (int i = start; i < end; i++) {
+      xs[i] *= s;
+    }
+    return xs;
+  }
+
+  /** Sets out[i] = xs[i] + ys[i] for i in [start, end), and returns out. */
+  public static int[] add(int[] xs, int[] ys, int[] out, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, out.length);
+    for (int i = start; i < end; i++) {
+      out[i] = xs[i] + ys[i];
+    }
+    return out;
+  }
+
+  /** Sets out[i] = xs[i] - ys[i] for i in [start, end), and returns out. */
+  public static int[] sub(int[] xs, int[] ys, int[] out, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, out.length);
+    for (int i = start; i < end; i++) {
+      out[i] = xs[i] - ys[i];
+    }
+    return out;
+  }
+
+  /** Sets out[i] = xs[i] * ys[i] for i in [start, end), and returns out. */
+  public static int[] mul(int[] xs, int[] ys, int[] out, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, out.length);
+    for (int i = start; i < end; i++) {
+      out[i] = xs[i] * ys[i];
+    }
+    return out;
+  }
+
+  /** Sets out[i] = xs[i] / ys[i] for i in [start, end), and returns out. */
+  public static int[] div(int[] xs, int[] ys, int[] out, int start, int end) {
+    checkRanges(start, end, xs.length, ys.length, out.length);
+    for (int i = start; i < end; i++) {
+      out[i] = xs[i] / ys[i];
+    }
+    return out;
+  }
+
+ /**
+  * Clamps each element of xs[start, end) to [lo, hi].
+  *
+  * @param  xs    the array
+  * @param  lo    the lower bound
+  * @param  hi    the upper bound, which must be at least lo
+  * @param  start the start of the range
+  * @param  end   the end of the range
+  * @return       xs
+  */
+  public static int[] clip(int[] xs, int lo, int hi, int start, int end) {
+    if (!(lo <= hi)) {
+      throw new IllegalArgumentException("Invalid bounds [" + lo + ", " + hi + "]");
+    }
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    for (int i = start; i < end; i++) {
+      int x = xs[i];
+      xs[i] = x < lo ? lo : x > hi ? hi : x;
+    }
+    return xs;
+  }
+
+  /** Replaces each element of xs[start, end) with its absolute value, and returns xs. */
+  public static int[] abs(int[] xs, int start, int end) {
+    hiphip.IndexArrays.checkRange(start, end, xs.length);
+    for (int i = start; i < end; i++) {
+      xs[i] = Math.abs(xs[i]);
+    }
+    return xs;
+  }
+
 }
@@ -0,0 +1,149 @@
+// Generated from templates/hiphip/Pool.java by script/generate.clj; do not edit.
+package hiphip.int_;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*********************************************************************************************
+ * A per-thread pool of arrays for short-lived temporaries.  borrow(len) returns an array of
+ * exactly length len, reusing one released by the same thread if it has one of that length.
+ * Arrays must be explicitly released back to the pool, and the contents of a borrowed array
+ * are arbitrary.
+ *
+ * Released arrays are filed in buckets by size, bucket k holding lengths in [2^k, 2^(k+1)),
+ * so a thread's pool holds no more than a fixed table of buckets, whose queues exist only
+ * while non-empty.  Each thread retains at most MAX_RETAINED elements and MAX_PER_LENGTH
+ * arrays per bucket; releases beyond that are dropped and left to the garbage collector.
+ *********************************************************************************************/
+public class Pool {
+  public static final long MAX_RETAINED = Long.getLong("hiphip.pool.maxRetained", 1L << 22);
+  public static final int MAX_PER_LENGTH = Integer.getInteger("hiphip.pool.maxPerLength", 16);
+
+  // Counters {hits, misses, releases, drops}, striped by thread so that threads don't contend
+  // on them, with each stripe padded out to its own cache line.
+  private static final int HITS = 0, MISSES = 1, RELEASES = 2, DROPS = 3;
+  private static final int STRIPES = 64;
+  private static final int STRIPE_WIDTH = 8;
+  private static final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIPE_WIDTH);
+
+  private static final class Local {
+    // free[k] holds arrays of length in [2^k, 2^(k+1)), or is null if there are none.
+    final ArrayDeque<int[]>[] free = newBuckets(32);
+    final int stripe =
+      STRIPE_WIDTH * (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 58);
+    long retained = 0;
+  }
+
+  private static final ThreadLocal<Local> local = new ThreadLocal<Local>() {
+    protected Local initialValue() {
+      return new Local();
+    }
+  };
+
+  @SuppressWarnings("unchecked")
+  private static <T> ArrayDeque<T>[] newBuckets(int n) {
+    return (ArrayDeque<T>[]) new ArrayDeque<?>[n];
+  }
+
+  // The bucket for arrays of length len > 0: floor(log2(len)).
+  private static int bucketFor(int len) {
+    return 31 - Integer.numberOfLeadingZeros(len);
+  }
+
+  /**
+  * Returns an array of length len, reusing one of that length previously released by this
+  * thread if possible.  The contents of the returned array are arbitrary.
+  *
+  * @param len the length of the array
+  * @return    an array of length len
+  */
+  public static int[] borrow(int len) {
+    Local l = local.get();
+    if (len > 0) {
+      int k = bucketFor(len);
+      ArrayDeque<int[]> q = l.free[k];
+      if (q != null) {
+        for (Iterator<int[]> it = q.descendingIterator(); it.hasNext();) {
+          int[] arr = it.next();
+          if (arr.length == len) {
+            it.remove();
+            if (q.isEmpty()) {
+              l.free[k] = null;
+            }
+            l.retained -= len;
+            counts.incrementAndGet(l.stripe + HITS);
+            return arr;
+          }
+        }
+      }
+    }
+    counts.incrementAndGet(l.stripe + MISSES);
+    return new int[len];
+  }
+
+  /**
+  * Returns arr to the current thread's pool, unless that would exceed the pool's bounds.
+  * arr must not be used by the caller after it is released.
+  *
+  * @param arr the array to release
+  */
+  public static void release(int[] arr) {
+    Local l = local.get();
+    int len = arr.length;
+    counts.incrementAndGet(l.stripe + RELEASES);
+    if (len == 0 || l.retained + len > MAX_RETAINED) {
+      counts.incrementAndGet(l.stripe + DROPS);
+      return;
+    }
+    int k = bucketFor(len);
+    ArrayDeque<int[]> q = l.free[k];
+    if (q == null) {
+      q = new ArrayDeque<int[]>();
+      l.free[k] = q;
+    } else if (q.size() >= MAX_PER_LENGTH) {
+      counts.incrementAndGet(l.stripe + DROPS);
+      return;
+    }
+    l.retained += len;
+    q.addLast(arr);
+  }
+
+  /**
+  * Drops all arrays retained by the current thread's pool.
+  */
+  public static void clear() {
+    Local l = local.get();
+    java.util.Arrays.fill(l.free, null);
+    l.retained = 0;
+  }
+
+  /**
+  * Returns the number of array elements retained by the current thread's pool.
+  */
+  public static long retained() {
+    return local.get().retained;
+  }
+
+  /**
+  * Returns the pool counters, summed over all threads, as {hits, misses, releases, drops}.
+  */
+  public static long[] stats() {
+    long[] ret = new long[4];
+    for (int s = 0; s < STRIPES * STRIPE_WIDTH; s += STRIPE_WIDTH) {
+      for (int c = 0; c < 4; c++) {
+        ret[c] += counts.get(s + c);
+      }
+    }
+    return ret;
+  }
+
+  /**
+  * Zeroes the pool counters.
+  */
+  public static void resetStats() {
+    for (int i = 0; i < STRIPES * STRIPE_WIDTH; i++) {
+      counts.set(i, 0);
+    }
+  }
+}
@@ -1,3 +1,4 @@
+// Generated from templates/hiphip/Baseline.java by script/generate.clj; do not edit.
 package hiphip.long_;
 
 import clojure.lang.IFn;
@@ -146,6 +147,68 @@ public class Baseline {
     return m;
   }
 
+  // tests areduce*
+  public static long[] min_max_sum(long[] arr) {
+    long lo = arr[0], hi = arr[0], s = 0;
+    for (long d : arr) {
+      if (d < lo) lo = d;
+      if (d > hi) hi = d;
+      s += d;
+    }
+    return new long[] {lo, hi, s};
+  }
+
+  // tests afilter
+  public static long[] filter_positive(long[] arr) {
+    int n = 0;
+    for (long d : arr) {
+      if (d > 0) n++;
+    }
+    long[] ret = new long[n];
+    int k = 0;
+    for (long d : arr) {
+      if (d > 0) ret[k++] = d;
+    }
+    return ret;
+  }
+
+  // tests amoving-sum against the naive windowed loop
+  public static long[] moving_sum(long[] arr, int w) {
+    long[] ret = new long[arr.length - w + 1];
+    for (int i = 0; i < ret.length; i++) {
+      long s = 0;
+      for (int j = i; j < i + w; j++) {
+        s += arr[j];
+      }
+      ret[i] = s;
+    }
+    return ret;
+  }
+
+  // tests amoving-max against the naive windowed loop
+  public static long[] moving_max(long[] arr, int w) {
+    long[] ret = new long[arr.length - w + 1];
+    for (int i = 0; i < ret.length; i++) {
+      long m = arr[i];
+      for (int j = i + 1; j < i + w; j++) {
+        if (arr[j] > m) m = arr[j];
+      }
+      ret[i] = m;
+    }
+    return ret;
+  }
+
+  // tests aconvolve
+  public static long[] convolve(long[] xs, long[] ks) {
+    long[] ret = new long[xs.length + ks.length - 1];
+    for (int i = 0; i < xs.length; i++) {
+      for (int k = 0; k < ks.length; k++) {
+        ret[i + k] += xs[i] * ks[k];
+      }
+    }
+    return ret;
+  }
+
   public static Double amean(long[] arr) {
     return (1.0 * asum(arr)) / arr.length;
   }
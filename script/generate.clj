@@ -0,0 +1,130 @@
+;; Generates the type-specific Java sources (java/hiphip/<type>_/*.java, and the
+;; facades java/hiphip/Doubles.java etc.) from the templates in templates/hiphip.
+;;
+;;   lein generate          ; regenerate every output
+;;   lein generate --check  ; fail if any output differs from its template
+;;
+;; Templates are Java sources with these substitutions:
+;;
+;;   {{type}}    the primitive type, e.g. float
+;;   {{Box}}     its box class, e.g. Float
+;;   {{acc}}     the type to accumulate sums and products of it in, e.g. double
+;;   {{narrow}}  a cast from {{acc}} back to {{type}}, e.g. (float), or
+;;               nothing if they are the same
+;;   {{Facade}}  the name of its Java facade class, e.g. Floats
+;;
+;; and per-type sections, on lines of their own, which may nest:
+;;
+;;   //#if floating          (or any other boolean property in `types`)
+;;   //#if int long          (or any list of type names)
+;;   //#else
+;;   //#endif
+
+(ns hiphip.generate
+  (:require [clojure.java.io :as io]
+            [clojure.string :as str]))
+
+(def types
+  "Properties of each primitive type."
+  {'boolean {:box "Boolean" :acc nil :numeric false :floating false :integral false}
+   'byte {:box "Byte" :acc 'int :numeric true :floating false :integral true}
+   'short {:box "Short" :acc 'int :numeric true :floating false :integral true}
+   'char {:box "Character" :acc 'int :numeric true :floating false :integral true}
+   'int {:box "Integer" :acc 'int :facade "Ints" :numeric true :floating false :integral true}
+   'long {:box "Long" :acc 'long :facade "Longs" :numeric true :floating false :integral true}
+   ;; Accumulate floats in double, so running sums don't drift.
+   'float {:box "Float" :acc 'double :facade "Floats" :numeric true :floating true :integral false}
+   'double {:box "Double" :acc 'double :facade "Doubles" :numeric true :floating true :integral false}})
+
+(def templates
+  "Each template, the types to generate it for, and (if not
+   java/hiphip/{{type}}_/<name>) the file to generate for each."
+  [{:name "Baseline.java" :types '[double float int long]}
+   {:name "Facade.java" :types '[double float int long] :out "java/hiphip/{{Facade}}.java"}
+   {:name "Helpers.java" :types '[double float int long]}
+   {:name "Pool.java" :types '[double float int long]}
+   {:name "TopK.java" :types '[double float int long]}])
+
+(defn- holds? [type condition]
+  (let [words (map symbol (str/split (str/trim condition) #"\s+"))]
+    (if (and (= 1 (count words)) (not (types (first words))))
+      (let [prop (keyword (first words))]
+        (when-not (contains? (types type) prop)
+          (throw (IllegalArgumentException. (str "Unknown type property " condition))))
+        (boolean (get-in types [type prop])))
+      (do (doseq [w words]
+            (when-not (types w)
+              (throw (IllegalArgumentException. (str "Unknown type " w)))))
+          (boolean (some #{type} words))))))
+
+(defn- select-sections
+  "The lines of the template that are live for type, with directives removed."
+  [type lines]
+  (loop [lines lines
+         stack () ;; whether each enclosing section is live
+         out []]
+    (if-let [[line & more] (seq lines)]
+      (let [directive (second (re-matches #"\s*//#(.*)" line))
+            live? (every? true? stack)]
+        (cond (nil? directive)
+              (recur more stack (if live? (conj out line) out))
+
+              (.startsWith ^String directive "if ")
+              (recur more (conj stack (holds? type (subs directive 3))) out)
+
+              (and (= directive "else") (seq stack))
+              (recur more (conj (rest stack) (not (first stack))) out)
+
+              (and (= directive "endif") (seq stack))
+              (recur more (rest stack) out)
+
+              :else
+              (throw (IllegalArgumentException. (str "Bad directive: " line)))))
+      (if (seq stack)
+        (throw (IllegalArgumentException. "Unterminated //#if"))
+        out))))
+
+(defn- substitute
+  "Replace the {{...}} placeholders in s for type."
+  [type s]
+  (let [{:keys [box acc facade]} (types type)]
+    (-> s
+        (str/replace "{{type}}" (str type))
+        (str/replace "{{Box}}" box)
+        (str/replace "{{acc}}" (str acc))
+        (str/replace "{{narrow}}" (if (= acc type) "" (str "(" type ") ")))
+        (str/replace "{{Facade}}" (str facade)))))
+
+(defn render
+  "Render the template source for type."
+  [type ^String source]
+  (->> (str/split source #"\n" -1)
+       (select-sections type)
+       (str/join "\n")
+       (substitute type)))
+
+(defn outputs
+  "A map from each output file to its generated contents."
+  []
+  (into {}
+        (for [{:keys [name types out]} templates
+              :let [template (str "templates/hiphip/" name)
+                    source (slurp template)]
+              type types]
+          [(io/file (substitute type (or out (str "java/hiphip/{{type}}_/" name))))
+           (str "// Generated from " template " by script/generate.clj; do not edit.\n"
+                (render type source))])))
+
+(defn -main [& args]
+  (let [check? (= args ["--check"])
+        stale (for [[file contents] (outputs)
+                    :when (not (and (.exists ^java.io.File file) (= contents (slurp file))))]
+                (do (when-not check? (spit file contents))
+                    file))]
+    (doseq [file stale]
+      (println (if check? "Stale:" "Generated") (str file)))
+    (when (and check? (seq stale))
+      (println "Run `lein generate` to regenerate them.")
+      (System/exit 1))))
+
+(apply -main *command-line-args*)
@@ -30,7 +30,10 @@
    the index-variables i1, i2, and i3 will have the same value.
 
    You can specify a range for the operations. The default range is
-   from 0 to the length of the first array in the bindings.
+   from 0 to the length of the first array in the bindings. The range
+   is checked against every array in the bindings before the loop
+   starts, so a range that doesn't fit one of them throws an
+   IndexOutOfBoundsException before any element is touched.
 
    [[i x] xs
    :range [0 10]]
@@ -61,14 +64,38 @@
     (with-meta `(clojure.core/make-array ~type ~len)
       {:tag (format "[L%s;" (.getName ^Class (resolve type)))})))
 
+(defn- hint-alloc
+  "Hint the output of an allocation expression with the array type, if it's primitive."
+  [type alloc-expr]
+  (if (impl/primitive-type-info type)
+    (impl/array-cast type alloc-expr)
+    alloc-expr))
+
+(defn- amake-code [probe type alloc [idx len] expr]
+  (let [len-sym (gensym "len")]
+    `(let [~len-sym ~(impl/intcast len)
+           a# ~(hint-alloc type (alloc len-sym))
+           ~@(impl/probe-bindings probe)]
+       (impl/dotimes-int [~idx ~len-sym] (aset a# ~idx ~(impl/value-cast type expr)))
+       ~@(impl/probe-record probe len-sym)
+       a#)))
+
 (defmacro amake
   "Make a new array of length len and element type type and fill it
   with values computed by expr."
   [type [idx len] expr]
-  `(let [len# ~(impl/intcast len)
-         a# (make-array ~type len#)]
-     (impl/dotimes-int [~idx len#] (aset a# ~idx ~(impl/value-cast type expr)))
-     a#))
+  (amake-code (impl/probe &form 'amake) type (fn [len-sym] `(make-array ~type ~len-sym))
+              [idx len] expr))
+
+(defmacro amake-with
+  "Like `amake`, but the array is obtained from `(alloc len)` rather
+  than freshly allocated. alloc can be any form that can go in
+  function position, e.g. a static method like
+  `hiphip.double_.Pool/borrow`, and must return an array of element
+  type type and length at least len."
+  [type alloc [idx len] expr]
+  (amake-code (impl/probe &form 'amake-with) type (fn [len-sym] `(~alloc ~len-sym))
+              [idx len] expr))
 
 (defmacro areduce
   "Areduce, with hiphip-style array bindings.
@@ -77,48 +104,239 @@
   those of a variable in a loop."
   [bindings ret init form]
   (let [{:keys [index-sym start-sym stop-sym initial-bindings value-bindings]}
-        (impl/parse-bindings bindings)]
-    `(let ~initial-bindings
+        (impl/parse-bindings bindings)
+        probe (impl/probe &form 'areduce)]
+    `(let ~(into initial-bindings (impl/probe-bindings probe))
        (loop [~index-sym ~start-sym ~ret ~init]
          (if (< ~index-sym ~stop-sym)
            (recur (unchecked-inc-int ~index-sym)
                   (let ~value-bindings ~form))
-           ~ret)))))
+           (do ~@(impl/probe-record probe `(- ~stop-sym ~start-sym))
+               ~ret))))))
+
+(defmacro areduce*
+  "Like `areduce`, but with several accumulators, each of which is kept
+  as its own (primitive, where possible) loop local. accs is a
+  binding vector of accumulators and their initial values, and forms
+  a vector with one form per accumulator, computing its next value.
+  The forms see the array bindings and the current accumulator values.
+
+  Returns a vector of the final accumulator values, or the value of
+  ret-form evaluated with the accumulators bound if one is given.
+
+  (areduce* [x xs]
+            [lo Double/POSITIVE_INFINITY hi Double/NEGATIVE_INFINITY s 0.0]
+            [(min lo x) (max hi x) (+ s x)]
+            (/ s (- hi lo)))
+
+  Note: As with `areduce`, the type of each accumulator has the same
+  semantics as a variable in a loop, so its form must produce a value
+  of the same primitive type as its initial value."
+  ([bindings accs forms]
+     `(areduce* ~bindings ~accs ~forms ~(vec (take-nth 2 accs))))
+  ([bindings accs forms ret-form]
+     (impl/assert-iae (and (vector? accs) (even? (count accs)) (every? symbol? (take-nth 2 accs)))
+                      "Invalid accumulators %s; must look like [a 0 b 1.0]" accs)
+     (impl/assert-iae (and (vector? forms) (= (count forms) (quot (count accs) 2)))
+                      "Accumulator forms %s must be a vector with one form per accumulator in %s"
+                      forms accs)
+     (let [{:keys [index-sym start-sym stop-sym initial-bindings value-bindings]}
+           (impl/parse-bindings bindings)
+           probe (impl/probe &form 'areduce*)]
+       `(let ~(into initial-bindings (impl/probe-bindings probe))
+          (loop [~index-sym ~start-sym ~@accs]
+            (if (< ~index-sym ~stop-sym)
+              (let ~value-bindings
+                (recur (unchecked-inc-int ~index-sym) ~@forms))
+              (do ~@(impl/probe-record probe `(- ~stop-sym ~start-sym))
+                  ~ret-form)))))))
 
 (defmacro doarr
   "Like doseq, but with hiphip-style array bindings."
   [bindings & body]
   (let [{:keys [index-sym start-sym stop-sym initial-bindings value-bindings]}
-        (impl/parse-bindings bindings)]
-    `(let ~initial-bindings
+        (impl/parse-bindings bindings)
+        probe (impl/probe &form 'doarr)]
+    `(let ~(into initial-bindings (impl/probe-bindings probe))
        (impl/dotimes-int [~index-sym ~start-sym ~stop-sym]
-                         (let ~value-bindings ~@body)))))
+                         (let ~value-bindings ~@body))
+       ~@(impl/probe-record probe `(- ~stop-sym ~start-sym)))))
 
-(defmacro amap
-  "Like for, but with hiphip-style array bindings.  Builds a new array
-   with element-type type from values produced by form at each step,
-   with length equal to the range of the iteration."
-  [type bindings form]
+(def ^:const default-tile
+  "Default number of elements per tile for `dotiles`: small enough that
+   a tile of each of half a dozen double arrays fits in L1/L2 cache."
+  2048)
+
+(defmacro dotiles
+  "Run body once for each tile [start, end) of [0, len), in order, with
+   start and end bound to the bounds of the tile. Tiles have tile
+   elements (default `default-tile`), except perhaps the last.
+
+   The body is typically a sequence of hiphip loops over the same
+   arrays, each with :range [start end]. Running them all over one
+   tile before moving to the next means each cache line is fetched
+   once, rather than once per loop, when the arrays are too large to
+   stay in cache between loops.
+
+   ;; Adam update, in three passes over each tile of the arrays
+   (dotiles [[start end] (alength ws)]
+     (afill! double [m ms g gs :range [start end]] (+ (* b1 m) (* (- 1 b1) g)))
+     (afill! double [v vs g gs :range [start end]] (+ (* b2 v) (* (- 1 b2) g g)))
+     (afill! double [w ws m ms v vs :range [start end]]
+       (- w (/ (* lr m) (+ (Math/sqrt v) eps)))))"
+  [[bounds len & opts :as binding] & body]
+  (impl/assert-iae (and (vector? bounds) (= 2 (count bounds)) (every? symbol? bounds)
+                        (even? (count opts)) (every? #{:tile} (take-nth 2 opts)))
+                   "Invalid tile binding %s; must look like [[start end] len :tile 1024]"
+                   binding)
+  (let [[start-sym end-sym] bounds
+        {:keys [tile] :or {tile `default-tile}} (apply hash-map opts)]
+    `(let [len# (long ~len)
+           tile# (long ~tile)]
+       (impl/assert-iae (pos? tile#) "Tile size must be positive, got %s" tile#)
+       (loop [~start-sym 0]
+         (when (< ~start-sym len#)
+           (let [~end-sym (min len# (+ ~start-sym tile#))]
+             ~@body
+             (recur ~end-sym)))))))
+
+(defn- amap-code [probe type alloc bindings form]
   (let [{:keys [index-sym start-sym stop-sym initial-bindings value-bindings]}
         (impl/parse-bindings bindings)
-        fsym (first initial-bindings)
         out-sym (gensym "out")]
-    `(let ~(into initial-bindings [out-sym `(make-array ~type (- ~stop-sym ~start-sym))])
+    `(let ~(-> initial-bindings
+               (into [out-sym (hint-alloc type (alloc `(- ~stop-sym ~start-sym)))])
+               (into (impl/probe-bindings probe)))
        (impl/dotimes-int [~index-sym ~start-sym ~stop-sym]
                          (let ~value-bindings
                            (aset ~out-sym (unchecked-subtract-int ~index-sym ~start-sym)
                                  ~(impl/value-cast type form))))
+       ~@(impl/probe-record probe `(- ~stop-sym ~start-sym))
        ~out-sym)))
 
+(defmacro amap
+  "Like for, but with hiphip-style array bindings.  Builds a new array
+   with element-type type from values produced by form at each step,
+   with length equal to the range of the iteration."
+  [type bindings form]
+  (amap-code (impl/probe &form 'amap) type (fn [len-expr] `(make-array ~type ~len-expr))
+             bindings form))
+
+(defmacro amap-with
+  "Like `amap`, but the output array is obtained from `(alloc len)`
+   rather than freshly allocated, where len is the length of the
+   range of the iteration.  See `amake-with`."
+  [type alloc bindings form]
+  (amap-code (impl/probe &form 'amap-with) type (fn [len-expr] `(~alloc (int ~len-expr)))
+             bindings form))
+
 (defmacro afill!
   "Like `amap`, but writes the output of form to the first bound array
   and returns it."
   [type bindings form]
   (let [{:keys [index-sym start-sym stop-sym initial-bindings value-bindings]}
-        (impl/parse-bindings bindings)]
-    `(let ~initial-bindings
+        (impl/parse-bindings bindings)
+        probe (impl/probe &form 'afill!)]
+    `(let ~(into initial-bindings (impl/probe-bindings probe))
        (impl/dotimes-int [~index-sym ~start-sym ~stop-sym]
                          (let ~value-bindings
                            (aset ~(first initial-bindings) ~index-sym
                                  ~(impl/value-cast type form))))
+       ~@(impl/probe-record probe `(- ~stop-sym ~start-sym))
        ~(first initial-bindings))))
+
+(defmacro amap-multi
+  "Like `amap`, but builds several arrays in a single pass. types is a
+   vector of output element types and forms a vector with one form per
+   output, each computing the value of that output at each step. The
+   forms share the array bindings (and any :let bindings), so the
+   inputs are read only once per step. Returns a vector of the output
+   arrays."
+  [types bindings forms]
+  (impl/assert-iae (and (vector? types) (vector? forms) (= (count types) (count forms)))
+                   "amap-multi needs a vector of forms %s matching the vector of types %s"
+                   forms types)
+  (let [{:keys [index-sym start-sym stop-sym initial-bindings value-bindings]}
+        (impl/parse-bindings bindings)
+        out-syms (vec (repeatedly (count types) #(gensym "out")))
+        out-idx (gensym "j")
+        probe (impl/probe &form 'amap-multi)]
+    `(let ~(-> initial-bindings
+               (into (mapcat (fn [out-sym type]
+                               [out-sym (hint-alloc type `(make-array ~type (- ~stop-sym ~start-sym)))])
+                             out-syms types))
+               (into (impl/probe-bindings probe)))
+       (impl/dotimes-int [~index-sym ~start-sym ~stop-sym]
+                         (let ~value-bindings
+                           (let [~out-idx (unchecked-subtract-int ~index-sym ~start-sym)]
+                             ~@(map (fn [out-sym type form]
+                                      `(aset ~out-sym ~out-idx ~(impl/value-cast type form)))
+                                    out-syms types forms))))
+       ~@(impl/probe-record probe `(- ~stop-sym ~start-sym))
+       ~out-syms)))
+
+(defmacro afill-multi!
+  "Like `amap-multi`, but writes the output of the ith form to the ith
+   bound array, and returns a vector of the written arrays. types is a
+   vector with the element type of each written array."
+  [types bindings forms]
+  (impl/assert-iae (and (vector? types) (vector? forms) (= (count types) (count forms)))
+                   "afill-multi! needs a vector of forms %s matching the vector of types %s"
+                   forms types)
+  (let [{:keys [index-sym start-sym stop-sym initial-bindings value-bindings array-syms]}
+        (impl/parse-bindings bindings)
+        out-syms (vec (take (count forms) array-syms))
+        probe (impl/probe &form 'afill-multi!)]
+    (impl/assert-iae (= (count out-syms) (count forms))
+                     "afill-multi! writes %s forms, but only %s arrays are bound in %s"
+                     (count forms) (count out-syms) bindings)
+    `(let ~(into initial-bindings (impl/probe-bindings probe))
+       (impl/dotimes-int [~index-sym ~start-sym ~stop-sym]
+                         (let ~value-bindings
+                           ~@(map (fn [out-sym type form]
+                                    `(aset ~out-sym ~index-sym ~(impl/value-cast type form)))
+                                  out-syms types forms)))
+       ~@(impl/probe-record probe `(- ~stop-sym ~start-sym))
+       ~out-syms)))
+
+(defn- afilter-code [probe type value-fn bindings pred]
+  (let [{:keys [index-sym start-sym stop-sym initial-bindings value-bindings array-syms]}
+        (impl/parse-bindings bindings)
+        out-sym (gensym "out")
+        len-sym (gensym "len")
+        k-sym (gensym "k")]
+    `(let ~(into initial-bindings
+                 `[~len-sym (- ~stop-sym ~start-sym)
+                   ~out-sym ~(hint-alloc type `(make-array ~type ~len-sym))
+                   ~@(impl/probe-bindings probe)])
+       ;; Write every element and only advance the cursor past the kept
+       ;; ones, so there's no data-dependent branch around the store.
+       (let [n# (loop [~index-sym ~start-sym ~k-sym 0]
+                  (if (< ~index-sym ~stop-sym)
+                    (let ~value-bindings
+                      (aset ~out-sym ~(impl/intcast k-sym)
+                            ~(impl/value-cast type (value-fn (first array-syms) index-sym)))
+                      (recur (unchecked-inc-int ~index-sym)
+                             (if ~pred (unchecked-inc ~k-sym) ~k-sym)))
+                    ~k-sym))]
+         ~@(impl/probe-record probe len-sym)
+         (if (== n# ~len-sym)
+           ~out-sym
+           (java.util.Arrays/copyOf ~out-sym (int n#)))))))
+
+(defmacro afilter
+  "Builds a new array with element-type type from the elements of the
+   first bound array for which pred is logical true, in order, in a
+   single pass.
+
+   (afilter double [x xs y ys] (> x y))"
+  [type bindings pred]
+  (afilter-code (impl/probe &form 'afilter) type
+                (fn [array-sym index-sym] `(aget ~array-sym ~(impl/intcast index-sym)))
+                bindings pred))
+
+(defmacro awhere
+  "Like `afilter`, but builds an int array of the indices for which
+   pred is logical true."
+  [bindings pred]
+  (afilter-code (impl/probe &form 'awhere) 'int (fn [_ index-sym] index-sym) bindings pred))
@@ -2,8 +2,9 @@
   "Utilities for double arrays"
   (:refer-clojure :exclude [amap areduce alength aget aset aclone])
   (:require [hiphip.impl.core :as impl])
-  (:import hiphip.double_.Helpers))
+  (:import [hiphip.double_ Helpers Pool TopK]))
 
 (def +type+ 'double)
 
 (load-string (impl/slurp-from-classpath "hiphip/type_impl.clj"))
+(load-string (impl/slurp-from-classpath "hiphip/floating_impl.clj"))
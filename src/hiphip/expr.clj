@@ -0,0 +1,224 @@
+(ns hiphip.expr
+  "Lazy element-wise expressions over arrays, evaluated in one fused
+   loop.
+
+   The ops here (+, -, *, /, min, max, abs, sqrt, exp, log) build an
+   expression tree over arrays (double, float, long or int, all of the
+   same length) and numbers, rather than computing anything, so they
+   compose for free:
+
+   (def score (e/+ (e/* xs 2.0) (e/sqrt ys)))
+
+   materialize! evaluates an expression into a (new, or given) double
+   array, and reduce reduces it with one of a few ops, each in a single
+   primitive loop over all the arrays, with no intermediate arrays:
+
+   (e/materialize! score)
+   (e/reduce :max score)
+
+   The loop for each shape of expression (its ops, the types of its
+   arrays, and which leaves are the same array) is generated with the
+   hiphip.array macros and compiled the first time the shape is seen,
+   and then cached, so evaluating an expression of a known shape over
+   new arrays and numbers only costs a walk over its tree. Numbers are
+   passed to the compiled loop, rather than compiled into it, so they
+   don't make new shapes. The cache keeps the 256 most recently used
+   shapes (or the system property hiphip.expr.maxCached)."
+  (:refer-clojure :exclude [+ - * / min max reduce])
+  (:require [clojure.core :as core]
+            [hiphip.array]
+            [hiphip.impl.core :as impl]))
+
+(set! *warn-on-reflection* true)
+
+(defrecord Expr [op args])
+
+(def ^:private array-types
+  {(class (double-array 0)) 'double
+   (class (float-array 0)) 'float
+   (class (long-array 0)) 'long
+   (class (int-array 0)) 'int})
+
+(defn- operand [x]
+  (impl/assert-iae (or (instance? Expr x) (number? x) (array-types (class x)))
+                   "Can't use %s in an array expression; must be an expression, number, %s"
+                   x "or double, float, long or int array")
+  x)
+
+(defn- expr [op & args]
+  (Expr. op (mapv operand args)))
+
+(defn- fold [op x more]
+  (core/reduce #(expr op %1 %2) x more))
+
+(defn +
+  "The element-wise sum of arrays, expressions and numbers."
+  [x & more] (fold :+ (operand x) more))
+
+(defn -
+  "The element-wise negation of x, or difference of x and the rest."
+  ([x] (expr :neg x))
+  ([x & more] (fold :- (operand x) more)))
+
+(defn *
+  "The element-wise product of arrays, expressions and numbers."
+  [x & more] (fold :* (operand x) more))
+
+(defn /
+  "The element-wise quotient of x by the rest."
+  [x & more] (fold :/ (operand x) more))
+
+(defn min
+  "The element-wise minimum of arrays, expressions and numbers."
+  [x & more] (fold :min (operand x) more))
+
+(defn max
+  "The element-wise maximum of arrays, expressions and numbers."
+  [x & more] (fold :max (operand x) more))
+
+(defn abs "The element-wise absolute value of x." [x] (expr :abs x))
+(defn sqrt "The element-wise square root of x." [x] (expr :sqrt x))
+(defn exp "The element-wise exponential of x." [x] (expr :exp x))
+(defn log "The element-wise natural log of x." [x] (expr :log x))
+
+(def ^:private op-code
+  {:+ `core/+ :- `core/- :* `core/* :/ `core// :neg `core/-
+   :min `Math/min :max `Math/max
+   :abs `Math/abs :sqrt `Math/sqrt :exp `Math/exp :log `Math/log})
+
+(defn- analyze
+  "[shape arrays scalars] for expression x: its shape (the tree with
+   each array replaced by [:array i type], for its index i among the
+   distinct arrays, and each number by [:scalar j]), and an Object
+   array of its distinct arrays and a double array of its numbers."
+  [x]
+  (let [index (java.util.IdentityHashMap.)
+        arrays (java.util.ArrayList.)
+        scalars (java.util.ArrayList.)
+        walk (fn walk [x]
+               (cond (instance? Expr x)
+                     (into [(:op x)] (map walk (:args x)))
+
+                     (number? x)
+                     (do (.add scalars (double x))
+                         [:scalar (dec (.size scalars))])
+
+                     :else
+                     (let [i (or (.get index x)
+                                 (do (.add arrays x)
+                                     (.put index x (dec (.size arrays)))
+                                     (dec (.size arrays))))]
+                       [:array i (array-types (class x))])))
+        shape (walk (operand x))]
+    (impl/assert-iae (pos? (.size arrays)) "Expression %s has no arrays" x)
+    [shape (.toArray arrays) (double-array scalars)]))
+
+(defn- loop-code
+  "Code for a fn of an Object array of the arrays of shape and a
+   double array of its numbers (and for :fill, a double array to write
+   to), that evaluates shape in one loop, with (body bindings value)
+   generating the loop given the hiphip bindings for the arrays and the
+   code for the value at each index."
+  [shape args body]
+  (let [[arrays-sym scalars-sym] args
+        leaves (->> shape (tree-seq vector? seq) (filter vector?))
+        types (into (sorted-map) (for [[kind i type] leaves :when (= kind :array)] [i type]))
+        array-syms (into (sorted-map) (for [[i type] types]
+                                        [i (impl/array-cast type (gensym "a"))]))
+        value-syms (into {} (for [[i _] types] [i (gensym "x")]))
+        scalar-syms (into {} (for [[kind j] leaves :when (= kind :scalar)] [j (gensym "s")]))
+        value (fn value [[op & args]]
+                (case op
+                  :array `(double ~(value-syms (first args)))
+                  :scalar (scalar-syms (first args))
+                  `(~(op-code op) ~@(map value args))))]
+    `(fn [~(with-meta arrays-sym {:tag 'objects}) ~(with-meta scalars-sym {:tag 'doubles})
+          ~@(drop 2 args)]
+       (let [~@(mapcat (fn [[i sym]] [sym `(aget ~arrays-sym ~i)]) array-syms)
+             ~@(mapcat (fn [[j sym]] [sym `(aget ~scalars-sym ~j)]) scalar-syms)]
+         ~(body (vec (mapcat (fn [[i sym]] [(value-syms i) sym]) array-syms))
+                (value shape))))))
+
+(def ^:private reduce-ops
+  {:+ [0.0 `core/+]
+   :* [1.0 `core/*]
+   :min [`Double/POSITIVE_INFINITY `Math/min]
+   :max [`Double/NEGATIVE_INFINITY `Math/max]})
+
+(defn- code
+  "The code for the compiled fn of kind (:fill, or [:reduce op]) for shape."
+  [kind shape]
+  (if (= kind :fill)
+    (let [out (with-meta (gensym "out") {:tag 'doubles})]
+      (loop-code shape [(gensym "arrays") (gensym "scalars") out]
+                 (fn [bindings value]
+                   `(hiphip.array/afill! ~'double [o# ~out ~@bindings] ~value))))
+    (let [[init f] (reduce-ops (second kind))]
+      (loop-code shape [(gensym "arrays") (gensym "scalars")]
+                 (fn [bindings value]
+                   `(hiphip.array/areduce ~bindings acc# ~init (~f acc# ~value)))))))
+
+(def ^:private max-cached
+  "How many compiled shapes to keep; the least recently used go first."
+  (Long/getLong "hiphip.expr.maxCached" 256))
+
+(defonce ^:private ^java.util.LinkedHashMap compiled
+  (proxy [java.util.LinkedHashMap] [16 (float 0.75) true]
+    (removeEldestEntry [_]
+      (> (count this) (long max-cached)))))
+
+(defn- compiled-fn
+  "The compiled fn of kind for shape, from the cache if it's there.
+   Compiles under the cache's lock, so that threads meeting a new shape
+   at once compile it only once."
+  [kind shape]
+  (let [k [kind shape]]
+    (locking compiled
+      (or (.get compiled k)
+          (let [f (binding [*ns* (the-ns 'hiphip.expr)] (eval (code kind shape)))]
+            (.put compiled k f)
+            f)))))
+
+(defn- check-lengths [^objects arrays ^long n]
+  (doseq [a arrays]
+    (impl/assert-iae (== n (java.lang.reflect.Array/getLength a))
+                     "Arrays in an expression must all have length %s, not %s"
+                     n (java.lang.reflect.Array/getLength a))))
+
+(defn length
+  "The length of the arrays in expression x."
+  ^long [x]
+  (let [[_ ^objects arrays] (analyze x)]
+    (java.lang.reflect.Array/getLength (aget arrays 0))))
+
+(defn materialize!
+  "Evaluate expression x into out, a double array of the same length
+   as its arrays, or a new one, and return it."
+  ([x] (materialize! x nil))
+  ([x ^doubles out]
+     (let [[shape ^objects arrays scalars] (analyze x)
+           out (or out (double-array (java.lang.reflect.Array/getLength (aget arrays 0))))]
+       (check-lengths arrays (alength out))
+       ((compiled-fn :fill shape) arrays scalars out)
+       out)))
+
+(defn reduce
+  "Reduce the elements of expression x with op, one of :+, :*, :min or
+   :max, as a double, without materializing it.
+
+   ;; Sum of squared differences
+   (reduce :+ (let [d (- xs ys)] (* d d)))"
+  ^double [op x]
+  (impl/assert-iae (reduce-ops op) "Unknown reduction %s; must be one of %s" op
+                   (keys reduce-ops))
+  (let [[shape ^objects arrays scalars] (analyze x)]
+    (check-lengths arrays (java.lang.reflect.Array/getLength (aget arrays 0)))
+    ((compiled-fn [:reduce op] shape) arrays scalars)))
+
+(defn clear-cache!
+  "Forget every compiled shape."
+  []
+  (locking compiled
+    (.clear compiled)))
+
+(set! *warn-on-reflection* false)
@@ -2,8 +2,9 @@
   "Utilities for float arrays"
   (:refer-clojure :exclude [amap areduce alength aget aset aclone])
   (:require [hiphip.impl.core :as impl])
-  (:import hiphip.float_.Helpers))
+  (:import [hiphip.float_ Helpers Pool TopK]))
 
 (def +type+ 'float)
 
 (load-string (impl/slurp-from-classpath "hiphip/type_impl.clj"))
+(load-string (impl/slurp-from-classpath "hiphip/floating_impl.clj"))
@@ -0,0 +1,289 @@
+;; Like type_impl.clj, this file is loaded in each type's namespace, but
+;; only for the floating-point types (double and float).  It defines the
+;; operations that only make sense for floating-point arrays.
+
+(def ^:private saved-warn-on-reflection *warn-on-reflection*)
+(def ^:private saved-unchecked-math *unchecked-math*)
+(set! *warn-on-reflection* true)
+(set! *unchecked-math* true)
+(require '[hiphip.impl.core :as impl])
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Accurate summation
+
+(defn asum-pairwise
+  "The sum of xs (or xs[start, end)) as a double, by pairwise summation
+   of blocks (see Helpers/sumPairwise). Its error grows with the log of
+   the length rather than the length, as for `asum`, and it's no slower.
+
+   ;; Mean of a large array
+   (/ (asum-pairwise xs) (alength xs))"
+  (^double [xs]
+     (with-hints [xs] (Helpers/sumPairwise xs 0 (alength xs))))
+  (^double [xs start end]
+     (with-hints [xs] (Helpers/sumPairwise xs (int start) (int end)))))
+
+(defn asum-kahan
+  "The sum of xs (or xs[start, end)) as a double, with compensated
+   summation (see Helpers/sumCompensated): as accurate as summing in
+   twice the precision, whatever the length, even when the terms
+   cancel. Slower than `asum-pairwise`, which is accurate enough
+   for most sums."
+  (^double [xs]
+     (with-hints [xs] (Helpers/sumCompensated xs 0 (alength xs))))
+  (^double [xs start end]
+     (with-hints [xs] (Helpers/sumCompensated xs (int start) (int end)))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; NaN-aware extremes
+
+;; amax, amin, amax-index and amin-index compare with > and <, so a NaN
+;; is skipped, unless it comes first, when it wins. These take an
+;; explicit policy for NaNs: :propagate, where a NaN is the result (as
+;; in Math/max), or :ignore, where NaNs are skipped. The index
+;; versions also keep the running index out of the scan (see
+;; Helpers/maxIndex), so they're faster than amax-index where the max
+;; keeps changing, as on sorted or trending data.
+
+(defn- propagate-nan? [policy]
+  (case policy
+    :propagate true
+    :ignore false
+    (impl/assert-iae false "Unknown NaN policy %s; must be :propagate or :ignore" policy)))
+
+(defn amax-nan
+  "Maximum over xs (or xs[start, end)), as a double, with NaNs
+   treated according to policy: :propagate (the result is NaN if any
+   element is) or :ignore. NaN if there are no (non-NaN) elements."
+  (^double [xs policy] (amax-nan xs policy 0 (alength xs)))
+  (^double [xs policy start end]
+     (with-hints [xs] (Helpers/max xs (int start) (int end) (propagate-nan? policy)))))
+
+(defn amin-nan
+  "Minimum over xs (or xs[start, end)), as for amax-nan."
+  (^double [xs policy] (amin-nan xs policy 0 (alength xs)))
+  (^double [xs policy start end]
+     (with-hints [xs] (Helpers/min xs (int start) (int end) (propagate-nan? policy)))))
+
+(defn amax-index-nan
+  "The first index of the maximum over xs (or xs[start, end)), with
+   NaNs treated according to policy: :propagate (the first NaN is the
+   maximum) or :ignore. -1 if there are no (non-NaN) elements.
+
+   ;; Most likely class, or -1 if the scores are all NaN
+   (amax-index-nan scores :ignore)"
+  (^long [xs policy] (amax-index-nan xs policy 0 (alength xs)))
+  (^long [xs policy start end]
+     (with-hints [xs] (Helpers/maxIndex xs (int start) (int end) (propagate-nan? policy)))))
+
+(defn amin-index-nan
+  "The first index of the minimum over xs (or xs[start, end)), as for
+   amax-index-nan."
+  (^long [xs policy] (amin-index-nan xs policy 0 (alength xs)))
+  (^long [xs policy start end]
+     (with-hints [xs] (Helpers/minIndex xs (int start) (int end) (propagate-nan? policy)))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Convolution and correlation
+
+(defn- conv-shape
+  "[offset length] of the output of a convolution of xs with ks in the given mode."
+  [mode ^long nx ^long nk]
+  (impl/assert-iae (pos? nk) "Kernel must be non-empty")
+  (case mode
+    :full [(- 1 nk) (+ nx nk -1)]
+    :same [(- (quot (dec nk) 2) (dec nk)) nx]
+    :valid (do (impl/assert-iae (<= nk nx) "Kernel of length %s longer than signal of length %s"
+                                nk nx)
+               [0 (inc (- nx nk))])
+    (impl/assert-iae false "Unknown mode %s; must be one of :full, :same or :valid" mode)))
+
+(defn- fft-method? [method ^long nk]
+  (case method
+    :auto (>= nk hiphip.FFT/THRESHOLD)
+    :fft true
+    :direct false
+    (impl/assert-iae false "Unknown method %s; must be one of :auto, :direct or :fft" method)))
+
+(defn aconvolve
+  "Convolve xs with the kernel ks, into a new array. mode is one of
+
+   :full  - (the default) every point of overlap, of length
+            (alength xs) + (alength ks) - 1
+   :same  - the center part of :full, of length (alength xs)
+   :valid - only points where ks overlaps xs completely, of length
+            (alength xs) - (alength ks) + 1
+
+   as in numpy (when ks is no longer than xs). method is :direct, for
+   a direct register-blocked kernel, :fft for an FFT-based one (whose
+   results differ from the direct ones by rounding), or :auto (the
+   default), which chooses the FFT once ks has hiphip.FFT/THRESHOLD
+   elements.
+
+   ;; 3-point moving average, aligned with xs
+   (aconvolve xs (amake [_ 3] (/ 1.0 3)) :same)
+  "
+  ([xs ks] (aconvolve xs ks :full))
+  ([xs ks mode] (aconvolve xs ks mode :auto))
+  ([xs ks mode method]
+     (with-hints [xs ks]
+       (let [nk (alength ks)
+             [offset len] (conv-shape mode (alength xs) nk)
+             out (new-array len)]
+         (if (fft-method? method nk)
+           (hiphip.FFT/convolve xs ks (int offset) out)
+           (Helpers/convolve xs ks (int offset) out))))))
+
+(defn acorrelate
+  "Cross-correlate xs with the kernel ks, into a new array: like
+   `aconvolve`, but without reversing ks, so that for :valid the jth
+   output is the dot product of ks with the elements of xs starting
+   at j. Takes the same modes and methods as `aconvolve`."
+  ([xs ks] (acorrelate xs ks :full))
+  ([xs ks mode] (acorrelate xs ks mode :auto))
+  ([xs ks mode method]
+     (with-hints [xs ks]
+       (let [nk (alength ks)
+             [offset len] (conv-shape mode (alength xs) nk)
+             out (new-array len)]
+         (if (fft-method? method nk)
+           (hiphip.FFT/correlate xs ks (int offset) out)
+           (Helpers/correlate xs ks (int offset) out))))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Transcendental functions
+
+(defmacro ^:private fast
+  "Call the hiphip.FastMath approximation of f on x, using the shorter
+   polynomials (the F methods) for floats."
+  [f x]
+  `(~(symbol "hiphip.FastMath" (str f (when (= +type+ 'float) "F"))) ~x))
+
+(defmacro ^:private with-mode
+  "Evaluate exact or fast, depending on whether mode is :exact or :fast."
+  [mode exact fast]
+  `(case ~mode
+     :exact ~exact
+     :fast ~fast
+     (impl/assert-iae false "Unknown mode %s; must be one of :exact or :fast" ~mode)))
+
+(defn aexp!
+  "Replace each element x of xs with e^x, and return xs."
+  [xs]
+  (with-hints [xs]
+    (afill! [x xs] (Math/exp x))))
+
+(defn alog!
+  "Replace each element x of xs with its natural logarithm, and return
+   xs."
+  [xs]
+  (with-hints [xs]
+    (afill! [x xs] (Math/log x))))
+
+(defn asigmoid!
+  "Replace each element x of xs with the logistic function
+   1 / (1 + e^-x), and return xs."
+  [xs]
+  (with-hints [xs]
+    (afill! [x xs] (/ 1.0 (+ 1.0 (Math/exp (- x)))))))
+
+(defn atanh!
+  "Replace each element x of xs with its hyperbolic tangent, and return
+   xs. mode is :exact (the default), for Math/tanh, or :fast, for a
+   polynomial approximation from hiphip.FastMath that is accurate to
+   within a few ulps."
+  ([xs] (atanh! xs :exact))
+  ([xs mode]
+     (with-hints [xs]
+       (with-mode mode
+         (afill! [x xs] (Math/tanh x))
+         (afill! [x xs] (fast tanh x))))))
+
+(defn asoftmax!
+  "Replace xs with its softmax, e^x / (sum of e^x over xs), and return
+   xs. Subtracts the max first, so large elements don't overflow."
+  [xs]
+  (with-hints [xs]
+    (if (zero? (alength xs))
+      xs
+      (let [m (amax xs)]
+        (afill! [x xs] (Math/exp (- x m)))
+        (let [s (asum xs)]
+          (afill! [x xs] (/ x s)))))))
+
+(defn alogsumexp
+  "log of the sum of e^x over xs, computed as max + log(sum e^(x - max))
+   so that it neither overflows nor underflows. Returns a double."
+  ^double [xs]
+  (with-hints [xs]
+    (if (zero? (alength xs))
+      Double/NEGATIVE_INFINITY
+      (let [m (double (amax xs))]
+        (if (Double/isInfinite m)
+          m
+          (+ m (Math/log (double (areduce [x xs] s 0.0 (+ s (Math/exp (- x m))))))))))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Random fills and sampling
+
+(defmacro ^:private uniform
+  "The ith uniform value in [0, 1) of the hiphip.SplitMix stream for
+   seed, of this type."
+  [seed i]
+  (if (= +type+ 'float)
+    `(hiphip.SplitMix/uniformFloat ~seed ~i)
+    `(hiphip.SplitMix/uniform ~seed ~i)))
+
+(defn arand!
+  "Fill xs with random numbers uniform in [0, 1), and return xs. Takes
+   an optional seed and parallel? flag, like `arand-int!`, and likewise
+   gives the same result for a seed with or without parallel?."
+  ([xs] (arand! xs (hiphip.SplitMix/nextSeed)))
+  ([xs seed] (arand! xs seed false))
+  ([xs seed parallel?]
+     (with-hints [xs]
+       (let [seed (long seed)]
+         (impl/run-ranges (alength xs) parallel?
+                          (fn [^long start ^long end]
+                            (afill! [[i x] xs :range [start end]] (uniform seed i))))
+         xs))))
+
+(defn arandn!
+  "Fill xs with standard normal random numbers, and return xs. Takes
+   the same optional seed and parallel? flag as `arand!`."
+  ([xs] (arandn! xs (hiphip.SplitMix/nextSeed)))
+  ([xs seed] (arandn! xs seed false))
+  ([xs seed parallel?]
+     (with-hints [xs]
+       (let [seed (long seed)]
+         (impl/run-ranges (alength xs) parallel?
+                          (fn [^long start ^long end]
+                            (hiphip.SplitMix/fillNormal xs (int start) (int end) seed)))
+         xs))))
+
+(defn asampler
+  "A hiphip.AliasSampler for drawing indices of weights with
+   probability proportional to their weight, in O(1) time per sample
+   after O(n) setup. Weights must be non-negative and finite, and not
+   all zero. See `asample`."
+  ^hiphip.AliasSampler [weights]
+  (with-hints [weights]
+    (hiphip.AliasSampler. weights)))
+
+(defn ^ints asample
+  "An int array of n indices drawn from sampler (see `asampler`). Takes
+   the same optional seed and parallel? flag as `arand!`.
+
+   ;; 1000 draws from a loaded die
+   (asample (asampler (double-array [1 1 1 1 1 5])) 1000)"
+  ([sampler n] (asample sampler n (hiphip.SplitMix/nextSeed)))
+  ([sampler n seed] (asample sampler n seed false))
+  ([^hiphip.AliasSampler sampler n seed parallel?]
+     (let [out (int-array n) seed (long seed)]
+       (impl/run-ranges n parallel?
+                        (fn [^long start ^long end]
+                          (.fill sampler out (int start) (int end) seed)))
+       out)))
+
+(set! *warn-on-reflection* saved-warn-on-reflection)
+(set! *unchecked-math* saved-unchecked-math)
@@ -1,7 +1,10 @@
 (ns hiphip.impl.core
   "Internal helpers for hiphip, including generating primitive
    type-specific array code and parsing hiphip-style array bindings."
-  (:import [clojure.lang RT]))
+  (:require [hiphip.instrument :as instrument]
+            [clojure.core.reducers :as r])
+  (:import [clojure.lang Compiler RT]
+           [java.util.concurrent ForkJoinPool ForkJoinTask]))
 
 (set! *warn-on-reflection* true)
 
@@ -31,37 +34,54 @@
   [type]
   (case type
     (double Double/TYPE clojure.core/double) {:array-tag 'doubles
+                                              :array2-tag "[[D"
                                               :unchecked-cast `RT/uncheckedDoubleCast
                                               :constructor `double-array}
     (float Float/TYPE clojure.core/float) {:array-tag 'floats
+                                           :array2-tag "[[F"
                                            :unchecked-cast `RT/uncheckedFloatCast
                                            :constructor `float-array}
     (long Long/TYPE clojure.core/long) {:array-tag 'longs
+                                        :array2-tag "[[J"
                                         :unchecked-cast `RT/uncheckedLongCast
                                         :constructor `long-array}
     (int Integer/TYPE clojure.core/int) {:array-tag 'ints
+                                         :array2-tag "[[I"
                                          :unchecked-cast `RT/uncheckedIntCast
                                          :constructor `int-array}
     (short Short/TYPE clojure.core/short) {:array-tag 'shorts
+                                           :array2-tag "[[S"
                                            :unchecked-cast `RT/uncheckedShortCast
                                            :constructor `short-array}
     (byte Byte/TYPE clojure.core/byte) {:array-tag 'bytes
+                                        :array2-tag "[[B"
                                         :unchecked-cast `RT/uncheckedByteCast
                                         :constructor `byte-array}
     (char Character/TYPE clojure.core/char) {:array-tag 'chars
+                                             :array2-tag "[[C"
                                              :unchecked-cast `RT/uncheckedCharCast
                                              :constructor `char-array}
     (boolean Boolean/TYPE clojure.core/boolean) {:array-tag 'booleans
+                                                 :array2-tag "[[Z"
                                                  :unchecked-cast `RT/booleanCast
                                                  :constructor `boolean-array}
     nil))
 
 (defn array-cast
-  "Produce an array hint for a primitive array expr of a given type"
+  "Produce an array hint for a primitive array expr of a given type,
+   or for an object array if type is Object"
+  [type expr]
+  (let [tag (if (= type 'Object) 'objects (:array-tag (primitive-type-info type)))]
+    (assert tag)
+    (with-meta expr {:tag tag})))
+
+(defn array2-cast
+  "Produce an array hint for an array of primitive arrays (e.g. a double[][])
+   expr of a given type"
   [type expr]
   (let [type-info (primitive-type-info type)]
     (assert type-info)
-    (with-meta expr {:tag (:array-tag type-info)})))
+    (with-meta expr {:tag (:array2-tag type-info)})))
 
 (defn value-cast
   "Produce an unchecked cast for the value of a given type"
@@ -90,16 +110,77 @@
        :value-bindings (into (if idx-sym [idx-sym index-sym] [])
                              [val-sym `(aget ~array-sym ~(intcast index-sym))])})))
 
+(defn range-check
+  "Generate code that throws an IndexOutOfBoundsException unless
+   0 <= start <= stop <= (alength a) for every array symbol a.  Run
+   once before a loop, so that a bad :range fails before any element
+   is touched.  This is validation only: the loop still indexes with a
+   long narrowed at each access, and keeps its per-access checks."
+  [start-sym stop-sym array-syms]
+  `(when-not (and (<= 0 ~start-sym)
+                  (<= ~start-sym ~stop-sym)
+                  ~@(for [a array-syms] `(<= ~stop-sym (alength ~a))))
+     (throw (IndexOutOfBoundsException.
+             (format "Invalid range [%s %s) for arrays of lengths %s"
+                     ~start-sym ~stop-sym
+                     ~(vec (for [a array-syms] `(alength ~a))))))))
+
+(defn probe
+  "If instrumentation is on (see `hiphip.instrument`), a probe for the
+   code that macro op generates for form, at the namespace and line
+   being compiled (or form's line, if it has one), for `probe-bindings`
+   and `probe-record`. Else nil. The site's hiphip.Probe is looked up
+   here, once, and embedded in the code as a constant."
+  [form op]
+  (when instrument/*enabled*
+    (let [site (format "%s:%s %s" (ns-name *ns*)
+                       (or (:line (meta form)) (.deref Compiler/LINE)) op)]
+      {:site site
+       :probe (hiphip.Probe/forSite site)
+       :start-sym (gensym "probe-start")})))
+
+(defn probe-bindings
+  "Bindings to start timing for probe p, or none if p is nil."
+  [p]
+  (if p [(:start-sym p) `(System/nanoTime)] []))
+
+(defn probe-record
+  "Forms (to splice after the code timed) to record a call over
+   n-expr elements for probe p, or none if p is nil."
+  [p n-expr]
+  (when p
+    [`(let [^hiphip.Probe probe# ~(:probe p)]
+        (.add probe# ~n-expr (- (System/nanoTime) ~(:start-sym p))))]))
+
+(defn instrumented
+  "Generate (f arg ...) for the exprs args. If instrumentation is on
+   (see `probe`), args are instead bound once, to syms (with their
+   tags) passed to f and to n-fn, and the call is timed and recorded
+   as a call over (n-fn sym ...) elements, as code that macro op
+   generates for form."
+  [form op args n-fn f]
+  (if-let [p (probe form op)]
+    (let [syms (for [arg args] (with-meta (gensym "arg") (select-keys (meta arg) [:tag])))]
+      `(let [~@(interleave syms args)
+             ~@(probe-bindings p)
+             ret# ~(apply f syms)]
+         ~@(probe-record p (apply n-fn syms))
+         ret#))
+    (apply f args)))
+
 (defn parse-bindings
   "Given a type, index symbol, and a vector of array bindings, generate a map with keys:
    :start-sym - a symbol bound to the iteration start point
    :stop-sym - a symbol bound to the iteration stop point
    :initial-bindings - bindings [array-sym array-expr ...
                                  start-sym ...
-                                 stop-sym ...]
-    -- with array-sysm in the order provided in the input.
+                                 stop-sym ...
+                                 _ range-check]
+    -- with array-sysm in the order provided in the input, and the
+       range checked against every array (see `range-check`).
    :value-bindings - bindings [array-val array-sym ...
-                               extra-index-sym index-sym]"
+                               extra-index-sym index-sym]
+   :array-syms - the array-syms, in the order provided in the input."
   [bindings]
   (assert-iae (even? (count bindings))
               "Array binding %s requires an even number of forms" bindings)
@@ -134,8 +215,12 @@
     {:index-sym index-sym
      :start-sym start-sym
      :stop-sym stop-sym
+     :array-syms (vec (take-nth 2 array-bindings))
      :initial-bindings (into array-bindings
-                             [start-sym start-expr stop-sym stop-expr])
+                             [start-sym start-expr
+                              stop-sym stop-expr
+                              '_ (range-check start-sym stop-sym
+                                              (take-nth 2 array-bindings))])
      :value-bindings (into value-bindings let-bindings)}))
 
 (defn hint-binding [type [left right]]
@@ -166,6 +251,97 @@
            ~@body
            (recur (unchecked-inc-int ~sym)))))))
 
+(def ^:const parallel-chunk
+  "Number of elements per task for the parallel variants of operations."
+  65536)
+
+(defn run-ranges
+  "Call (f start end) on consecutive ranges covering [0, n), of at most
+   parallel-chunk elements each, in parallel (with pmap) if parallel?
+   is truthy. Otherwise, calls (f 0 n) once."
+  [^long n parallel? f]
+  (if (and parallel? (> n parallel-chunk))
+    (dorun (pmap (fn [^long start] (f start (min n (+ start parallel-chunk))))
+                 (range 0 n parallel-chunk)))
+    (f 0 n))
+  nil)
+
+(defn read-ahead
+  "A lazy seq of the items of coll (which must not contain nil),
+   realized by a background daemon thread up to n items ahead of the
+   consumer, so that producing the items (e.g. reading chunks of a
+   file) overlaps with consuming them. At most n items are buffered.
+   An exception realizing coll is rethrown to the consumer, in place of
+   the item it would have produced.
+
+   The thread stops, leaving the rest of coll unrealized, once the
+   AtomicBoolean cancelled is set, which the consumer should do (in a
+   finally) when it's done with the seq, so that a consumer that stops
+   early doesn't leave the thread parked on a full buffer."
+  [coll n ^java.util.concurrent.atomic.AtomicBoolean cancelled]
+  (assert-iae (pos? n) "Read-ahead must be positive, got %s" n)
+  (let [q (java.util.concurrent.ArrayBlockingQueue. (int n))
+        done (Object.)
+        failure (atom nil)
+        ;; Handed to the thread through a box, so that the thread's fn
+        ;; doesn't hold on to the head of coll.
+        head (java.util.concurrent.atomic.AtomicReference. coll)
+        ;; Waits for room in q, giving up (and returning false) once
+        ;; cancelled.
+        offer (fn [x]
+                (loop []
+                  (cond (.get cancelled) false
+                        (.offer q x 100 java.util.concurrent.TimeUnit/MILLISECONDS) true
+                        :else (recur))))]
+    (doto (Thread. ^Runnable
+                   (fn []
+                     (try (loop [s (seq (.getAndSet head nil))]
+                            (when s
+                              (let [x (first s)]
+                                (assert-iae (not (nil? x)) "Can't read ahead over nil")
+                                (when (offer x)
+                                  (recur (next s))))))
+                          (catch Throwable t (reset! failure t))
+                          (finally (offer done))))
+                   "hiphip-read-ahead")
+      (.setDaemon true)
+      (.start))
+    ((fn step []
+       (lazy-seq
+        (let [x (.take q)]
+          (if (identical? x done)
+            (when-let [t @failure] (throw t))
+            (cons x (step)))))))))
+
+(defn ^ForkJoinPool fork-join-pool
+  "The fork/join pool that clojure.core.reducers folds in, which
+   hiphip's folds and parallel sorts share rather than starting their
+   own."
+  []
+  @r/pool)
+
+(defn fold-range
+  "Fork/join fold over [start, end): split the range in half until at
+   most n elements remain, reduce each piece with (reduce-range start
+   end), and combine the results with combinef. For implementing
+   clojure.core.reducers/CollFold over arrays. Like the reducers'
+   own folds, runs in `fork-join-pool`, or directly in the current
+   pool when called from a fork/join task."
+  [start end n combinef reduce-range]
+  (letfn [(task [^long start ^long end]
+            (let [^Callable f #(step start end)]
+              (ForkJoinTask/adapt f)))
+          (step [^long start ^long end]
+            (if (<= (- end start) (long n))
+              (reduce-range start end)
+              (let [mid (+ start (quot (- end start) 2))
+                    right (.fork ^ForkJoinTask (task mid end))]
+                (combinef (step start mid)
+                          (.join ^ForkJoinTask right)))))]
+    (if (ForkJoinTask/inForkJoinPool)
+      (step start end)
+      (.invoke (fork-join-pool) ^ForkJoinTask (task start end)))))
+
 (defn ^String slurp-from-classpath [^String file]
   (slurp (.getResourceAsStream (clojure.lang.RT/baseLoader) file)))
 
@@ -0,0 +1,62 @@
+(ns hiphip.instrument
+  "Opt-in call counts, element counts and timings for hiphip's loops,
+   per call site.
+
+   hiphip's macros inline their loops, so they don't show up as such in
+   profiles. When *enabled* is true as code is compiled, each hiphip
+   loop (amap, areduce, doarr, afill!, asum, dot-product, ...) and
+   each sort, select or partition expanded in it records, per call,
+   its number of elements and its time with System/nanoTime, against
+   its call site: the namespace and line being compiled, and the
+   macro. The functions that select and sort the top k (asort-max!,
+   asort-min!, amax-indices and amin-indices) are inlined where they
+   are called directly, so they record against their callers' sites
+   too; other functions defined in terms of hiphip macros record
+   against the sites in their own definitions.
+
+   *enabled* defaults to the system property hiphip.instrument, so
+   the simplest way to turn it on is to start the JVM with
+   -Dhiphip.instrument=true. It is only read as code is expanded, so
+   with it off (the default) the generated code is exactly as
+   uninstrumented, and costs nothing. To instrument just some code,
+   bind it as that code is loaded:
+
+   (binding [hiphip.instrument/*enabled* true]
+     (require 'my.ns :reload))
+
+   Note that this includes the hiphip type namespaces themselves
+   (e.g. hiphip.double) if they are loaded with it on.
+
+   Counts are kept in lock-free striped counters (see hiphip.Probe),
+   and read with snapshot."
+  (:refer-clojure :exclude [reset!])
+  (:import [hiphip Probe]))
+
+(set! *warn-on-reflection* true)
+
+(def ^:dynamic *enabled*
+  "When true as hiphip macros are expanded, the loops they generate are
+   instrumented (see the namespace docstring)."
+  (Boolean/getBoolean "hiphip.instrument"))
+
+;; Instrumented code embeds each site's Probe as a constant. To AOT
+;; compile it, Probes print (with *print-dup*) as a call that looks the
+;; site up again as the compiled class is loaded.
+(defmethod print-dup Probe [^Probe p ^java.io.Writer w]
+  (.write w (str "#=(hiphip.Probe/forSite " (pr-str (.site p)) ")")))
+
+(defn snapshot
+  "A map from each instrumented call site that has been called (like
+   \"my.ns:42 areduce\") to a map of its :calls, :elements and :nanos,
+   ordered by site."
+  []
+  (into (sorted-map)
+        (for [[site ^longs counts] (Probe/snapshot)]
+          [site {:calls (aget counts 0)
+                 :elements (aget counts 1)
+                 :nanos (aget counts 2)}])))
+
+(defn reset!
+  "Zero the counts of every instrumented call site."
+  []
+  (Probe/reset))
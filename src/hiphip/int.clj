@@ -2,8 +2,9 @@
   "Utilities for int arrays"
   (:refer-clojure :exclude [amap areduce alength aget aset aclone])
   (:require [hiphip.impl.core :as impl])
-  (:import hiphip.int_.Helpers))
+  (:import [hiphip.int_ Helpers Pool TopK]))
 
 (def +type+ 'int)
 
 (load-string (impl/slurp-from-classpath "hiphip/type_impl.clj"))
+(load-string (impl/slurp-from-classpath "hiphip/integral_impl.clj"))
@@ -0,0 +1,109 @@
+;; Like type_impl.clj, this file is loaded in each type's namespace, but
+;; only for the integral types (int and long).  It defines compressed
+;; containers for sorted arrays of them.
+
+(def ^:private saved-warn-on-reflection *warn-on-reflection*)
+(def ^:private saved-unchecked-math *unchecked-math*)
+(set! *warn-on-reflection* true)
+(set! *unchecked-math* true)
+(require '[hiphip.impl.core :as impl])
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Packed sorted arrays
+
+(def ^:private int-array-class (Class/forName "[I"))
+
+(defn apack
+  "Compress xs (or xs[start, end)), which must be sorted
+   (non-decreasing), into a hiphip.PackedLongs: blocks of 128 elements,
+   each stored as its first element and the bit-packed offsets from it.
+   Sorted ids take a few bytes each rather than 8 (see its .bytes), and
+   can be scanned with dopacked, summed, searched and intersected without
+   unpacking them all. xs may also be an int array, like the indices
+   from awhere.
+
+   ;; The ids of the odd elements
+   (apack (awhere [x xs] (odd? x)))"
+  (^hiphip.PackedLongs [xs]
+     (if (instance? int-array-class xs)
+       (hiphip.PackedLongs. ^ints xs)
+       (with-hints [xs] (hiphip.PackedLongs. xs))))
+  (^hiphip.PackedLongs [xs start end]
+     (if (instance? int-array-class xs)
+       (hiphip.PackedLongs. ^ints xs (int start) (int end))
+       (with-hints [xs] (hiphip.PackedLongs. xs (int start) (int end))))))
+
+(defmacro dopacked
+  "Like doarr, but over a hiphip.PackedLongs (see apack), which it
+   decodes a block at a time into a small buffer. Takes one binding,
+   of either [x packed] or [[i x] packed].
+
+   ;; The indices of the even ids
+   (let [evens (java.util.ArrayList.)]
+     (dopacked [[i id] ids] (when (even? id) (.add evens i)))
+     evens)"
+  [[binding packed] & body]
+  (impl/assert-iae (or (symbol? binding) (and (vector? binding) (= 2 (count binding))))
+                   "Invalid binding %s; must look like x or [i x]" binding)
+  (let [[i x] (if (symbol? binding) [(gensym "i") binding] binding)
+        p (impl/typed-gensym "p" 'hiphip.PackedLongs)
+        buf (impl/typed-gensym "buf" 'longs)
+        j (gensym "j")]
+    `(let [~p ~packed
+           ~buf (long-array hiphip.PackedLongs/BLOCK)]
+       (dotimes [b# (.blocks ~p)]
+         (let [n# (.decode ~p (int b#) ~buf)
+               base# (* b# hiphip.PackedLongs/BLOCK)]
+           (impl/dotimes-int [~j n#]
+             (let [~i (+ base# ~j)
+                   ~x ~(impl/value-cast +type+ `(clojure.core/aget ~buf ~j))]
+               ~@body)))))))
+
+(defn- check-fits
+  "Throw unless every element of p fits in this type."
+  [^hiphip.PackedLongs p]
+  (when (and (= +type+ 'int) (pos? (.size p)))
+    (impl/assert-iae (and (<= Integer/MIN_VALUE (.get p 0))
+                          (<= (.get p (dec (.size p))) Integer/MAX_VALUE))
+                     "Packed elements don't all fit in an %s" +type+)))
+
+(defn aunpack
+  "A new array of the elements of a hiphip.PackedLongs (see apack)."
+  [^hiphip.PackedLongs packed]
+  (check-fits packed)
+  (let [out (new-array (.size packed))]
+    (dopacked [[i x] packed] (aset out i x))
+    out))
+
+(defn apacked-sum
+  "The sum of the elements of a hiphip.PackedLongs (see apack), as a
+   long."
+  ^long [^hiphip.PackedLongs packed]
+  (.sum packed))
+
+(defn apacked-search
+  "The index of the first element of a hiphip.PackedLongs (see apack)
+   that is >= x, or its size if there is none. Binary searches the
+   first elements of the blocks, and then the packed offsets of one,
+   without decoding them."
+  ^long [^hiphip.PackedLongs packed x]
+  (.lowerBound packed (long x)))
+
+(defn apacked-contains?
+  "Does a hiphip.PackedLongs (see apack) contain x?"
+  [^hiphip.PackedLongs packed x]
+  (.contains packed (long x)))
+
+(defn apacked-intersect
+  "A new sorted array of the elements common to two hiphip.PackedLongs
+   (see apack), with duplicates kept as many times as they occur in both.
+   Skips blocks of either that fall between elements of the other without
+   decoding them."
+  [^hiphip.PackedLongs packed1 ^hiphip.PackedLongs packed2]
+  (let [ls (.intersect packed1 packed2)]
+    (if (= +type+ 'long)
+      ls
+      (let [^longs ls ls] (amake [i (clojure.core/alength ls)] (clojure.core/aget ls i))))))
+
+(set! *warn-on-reflection* saved-warn-on-reflection)
+(set! *unchecked-math* saved-unchecked-math)
@@ -0,0 +1,171 @@
+(ns hiphip.io
+  "Reading and writing double, float, int and long arrays in a compact
+   binary format, by bulk transfer through NIO channels.
+
+   Each stream has a small header (element type, encoding, byte order
+   and length), followed by the elements, either raw or (for sorted
+   int and long arrays) delta+varint encoded. See hiphip.ArrayIO for
+   the format.
+
+   write-array! and read-array handle whole arrays. For arrays that
+   shouldn't be in memory all at once, open an array-writer and
+   write-chunk! to it, and read-chunk! or read-chunks from an
+   array-reader; both should be closed (e.g. with with-open).
+
+   Anything that clojure.java.io can open (files, names, ...) can be
+   read or written, as well as streams and channels. Files are read
+   and written through FileChannels."
+  (:require [clojure.java.io :as io]
+            [hiphip.impl.core :as impl])
+  (:import [hiphip ArrayIO ArrayIO$Reader ArrayIO$Writer]
+           [java.io FileInputStream FileOutputStream InputStream OutputStream]
+           [java.nio ByteOrder]
+           [java.nio.channels Channels ReadableByteChannel WritableByteChannel]))
+
+(set! *warn-on-reflection* true)
+
+(def ^:private type-codes {:double \D :float \F :int \I :long \J})
+
+(def ^:private code-types (zipmap (vals type-codes) (keys type-codes)))
+
+(def ^:private encodings {:raw ArrayIO/RAW :delta-varint ArrayIO/DELTA_VARINT})
+
+(def ^:private byte-orders {:native (ByteOrder/nativeOrder)
+                            :big ByteOrder/BIG_ENDIAN
+                            :little ByteOrder/LITTLE_ENDIAN})
+
+(def ^:private doubles-class (class (double-array 0)))
+(def ^:private floats-class (class (float-array 0)))
+(def ^:private ints-class (class (int-array 0)))
+(def ^:private longs-class (class (long-array 0)))
+
+(defmacro ^:private by-array-type
+  "Evaluate body with the symbol xs hinted with the type of the array
+   it's bound to, or throw if it's not a supported array type."
+  [xs & body]
+  `(condp instance? ~xs
+     ~@(mapcat (fn [[cls tag]] [cls `(let [~(with-meta xs {:tag tag}) ~xs] ~@body)])
+               `[[doubles-class ~'doubles]
+                 [floats-class ~'floats]
+                 [ints-class ~'ints]
+                 [longs-class ~'longs]])
+     (throw (IllegalArgumentException.
+             (str "Not a double, float, int or long array: " (class ~xs))))))
+
+(defn- array-type [xs]
+  (condp instance? xs
+    doubles-class :double
+    floats-class :float
+    ints-class :int
+    longs-class :long
+    (throw (IllegalArgumentException.
+            (str "Not a double, float, int or long array: " (class xs))))))
+
+(defn- option [m k v]
+  (impl/assert-iae (contains? m v) "Invalid %s %s; must be one of %s" k v (keys m))
+  (m v))
+
+(defn- ^WritableByteChannel write-channel [dest]
+  (cond (instance? WritableByteChannel dest) dest
+        (instance? OutputStream dest) (Channels/newChannel ^OutputStream dest)
+        :else (.getChannel (FileOutputStream. (io/file dest)))))
+
+(defn- ^ReadableByteChannel read-channel [src]
+  (cond (instance? ReadableByteChannel src) src
+        (instance? InputStream src) (Channels/newChannel ^InputStream src)
+        :else (.getChannel (FileInputStream. (io/file src)))))
+
+(defn array-writer
+  "Open a writer of length elements of type (:double, :float, :int or
+   :long) to dest, and write the header. The elements must then be
+   written with write-chunk! before the writer is closed. Options:
+
+   :encoding     :raw (the default), or :delta-varint for non-decreasing
+                 ints or longs
+   :byte-order   :native (the default), :big or :little
+   :buffer-bytes the size of the write buffer"
+  ^hiphip.ArrayIO$Writer
+  [dest type length & {:keys [encoding byte-order buffer-bytes]
+                       :or {encoding :raw byte-order :native
+                            buffer-bytes ArrayIO/DEFAULT_BUFFER_BYTES}}]
+  (let [code (char (option type-codes :type type))
+        encoding (int (option encodings :encoding encoding))
+        order (option byte-orders :byte-order byte-order)
+        ch (write-channel dest)]
+    (try (ArrayIO$Writer. ch code (long length) encoding order (int buffer-bytes))
+         (catch Throwable t (.close ch) (throw t)))))
+
+(defn write-chunk!
+  "Write xs (or xs[start, end)) to the writer, which must be for
+   arrays of its type. Returns the writer."
+  ([^ArrayIO$Writer w xs]
+     (by-array-type xs (.write w xs 0 (alength xs))))
+  ([^ArrayIO$Writer w xs start end]
+     (by-array-type xs (.write w xs (int start) (int end)))))
+
+(defn write-array!
+  "Write all of xs (a double, float, int or long array) to dest, with
+   options as for array-writer."
+  [dest xs & opts]
+  (with-open [w ^ArrayIO$Writer (apply array-writer dest (array-type xs) (count xs) opts)]
+    (write-chunk! w xs))
+  nil)
+
+(defn array-reader
+  "Open a reader of dest, and read its header. Its elements can then
+   be read with read-chunk! or read-chunks. Options:
+
+   :buffer-bytes the size of the read buffer"
+  ^hiphip.ArrayIO$Reader
+  [src & {:keys [buffer-bytes] :or {buffer-bytes ArrayIO/DEFAULT_BUFFER_BYTES}}]
+  (let [ch (read-channel src)]
+    (try (ArrayIO$Reader. ch (int buffer-bytes))
+         (catch Throwable t (.close ch) (throw t)))))
+
+(defn element-type
+  "The type of the elements of a reader or writer, as a keyword."
+  [r-or-w]
+  (code-types (if (instance? ArrayIO$Reader r-or-w)
+                (.type ^ArrayIO$Reader r-or-w)
+                (.type ^ArrayIO$Writer r-or-w))))
+
+(defn read-chunk!
+  "Read up to (alength xs) (or end - start) elements into xs (or
+   xs[start, end)) from the reader, whose type it must match. Returns
+   the number read, or -1 if the reader has no more."
+  (^long [^ArrayIO$Reader r xs]
+     (by-array-type xs (.read r xs 0 (alength xs))))
+  (^long [^ArrayIO$Reader r xs start end]
+     (by-array-type xs (.read r xs (int start) (int end)))))
+
+(defn- new-array [type ^long n]
+  (case type
+    :double (double-array n)
+    :float (float-array n)
+    :int (int-array n)
+    :long (long-array n)))
+
+(defn read-chunks
+  "A lazy seq of fresh arrays of the remaining elements of the reader,
+   each of chunk-size elements except perhaps the last. The reader must
+   stay open until the seq is consumed."
+  [^ArrayIO$Reader r chunk-size]
+  (impl/assert-iae (pos? chunk-size) "chunk-size must be positive, got %s" chunk-size)
+  (lazy-seq
+   (when (pos? (.remaining r))
+     (let [xs (new-array (element-type r) (min (long chunk-size) (.remaining r)))]
+       (loop [start 0]
+         (when (< start (count xs))
+           (recur (+ start (read-chunk! r xs start (count xs))))))
+       (cons xs (read-chunks r chunk-size))))))
+
+(defn read-array
+  "Read a whole array from src, with options as for array-reader."
+  [src & opts]
+  (with-open [r ^ArrayIO$Reader (apply array-reader src opts)]
+    (impl/assert-iae (<= (.length r) Integer/MAX_VALUE)
+                     "%s elements are too many for one array; use read-chunks" (.length r))
+    (or (first (read-chunks r Integer/MAX_VALUE))
+        (new-array (element-type r) 0))))
+
+(set! *warn-on-reflection* false)
@@ -2,8 +2,9 @@
   "Utilities for long arrays"
   (:refer-clojure :exclude [amap areduce alength aget aset aclone])
   (:require [hiphip.impl.core :as impl])
-  (:import hiphip.long_.Helpers))
+  (:import [hiphip.long_ Helpers Pool TopK]))
 
 (def +type+ 'long)
 
 (load-string (impl/slurp-from-classpath "hiphip/type_impl.clj"))
+(load-string (impl/slurp-from-classpath "hiphip/integral_impl.clj"))
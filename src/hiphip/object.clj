@@ -0,0 +1,245 @@
+(ns hiphip.object
+  "Utilities for object arrays: versions of the `hiphip.array` macros
+   that hint their arrays as Object[] (so they also work on arrays of
+   any reference type, like String[]), plus sorting and selection by
+   comparator or by key, directly or into int arrays of indices.
+
+   The elements are bound as Objects, so hint the value symbols of the
+   bindings to call methods on them without reflection:
+
+   ;; Total length of an array of strings
+   (areduce [^String s ss] n 0 (+ n (.length s)))
+
+   The sorts are stable merge sorts, and take an optional parallel?
+   flag to sort the halves of large ranges in parallel, by fork/join
+   in the pool that clojure.core.reducers folds in.
+   The key-based versions call keyfn once per element, and keep the
+   keys in a long or double array if keyfn is a primitive fn like
+   (fn ^double [r] ...), so sorting records by a numeric key boxes
+   nothing and builds no intermediate vectors."
+  (:refer-clojure :exclude [amap areduce alength aget aset aclone])
+  (:require [hiphip.impl.core :as impl]
+            [hiphip.array :as array])
+  (:import [hiphip IndexArrays ObjectArrays ObjectArrays$Order]))
+
+(set! *warn-on-reflection* true)
+
+(def +type+ 'Object)
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Type hinted versions of clojure.core fns
+
+(definline aclone
+  "aclone that doesn't require type hinting."
+  [xs]
+  `(clojure.core/aclone ~(impl/array-cast +type+ xs)))
+
+(definline alength
+  "alength that doesn't require type hinting"
+  [xs]
+  `(clojure.core/alength ~(impl/array-cast +type+ xs)))
+
+(definline aget
+  "aget that doesn't require type hinting"
+  [xs idx]
+  `(clojure.core/aget ~(impl/array-cast +type+ xs) ~(impl/intcast idx)))
+
+(definline aset
+  "aset that doesn't require type hinting"
+  [xs idx val]
+  `(clojure.core/aset ~(impl/array-cast +type+ xs) ~(impl/intcast idx) ~val))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Type hinted versions of hiphip.array functions
+
+(defmacro amake
+  "Make a new Object array of length len and fill it with values
+   computed by expr.
+
+   ;; Labels for each index
+   (amake [i 100] (str \"item-\" i))
+  "
+  [[idx len] expr]
+  `(array/amake ~+type+ [~idx ~len] ~expr))
+
+(defmacro areduce
+  "`areduce`, with hiphip-style array bindings (please see the
+  `hiphip.array` docstring).
+
+   ;; Total length of an array of strings
+   (areduce [^String s ss] n 0 (+ n (.length s)))
+  "
+  [bindings ret init form]
+  `(array/areduce ~(impl/hint-bindings +type+ bindings) ~ret ~init ~form))
+
+(defmacro doarr
+  "Like doseq, but with hiphip-style array bindings (please see the
+  `hiphip.array` docstring)."
+  [bindings & body]
+  `(array/doarr ~(impl/hint-bindings +type+ bindings) ~@body))
+
+(defmacro amap
+  "Like for, but with hiphip-style array bindings (please see the
+   `hiphip.array` docstring). Builds a new Object array from values
+   produced by form at each step, with length equal to the range of
+   the iteration.
+
+   ;; Pair up the elements of two arrays
+   (amap [k ks v vs] [k v])
+  "
+  [bindings form]
+  `(array/amap ~+type+ ~(impl/hint-bindings +type+ bindings) ~form))
+
+(defmacro afill!
+  "Like `amap`, but writes the output of form to the first bound array
+   (which may be an array of any reference type, as long as the values
+   fit) and returns it.
+
+   ;; Trim an array of strings in place
+   (afill! [^String s ss] (.trim s))
+  "
+  [bindings form]
+  `(array/afill! ~+type+ ~(impl/hint-bindings +type+ bindings) ~form))
+
+(defmacro afilter
+  "Builds a new Object array from the elements of the first bound
+   array for which pred is logical true, in order, with hiphip-style
+   array bindings (please see the `hiphip.array` docstring)."
+  [bindings pred]
+  `(array/afilter ~+type+ ~(impl/hint-bindings +type+ bindings) ~pred))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Sorting and selection
+
+(defn- sort-pool
+  "The pool for ObjectArrays to sort in, or nil to sort sequentially."
+  [parallel?]
+  (when parallel? (impl/fork-join-pool)))
+
+(defn asort!
+  "Stably sorts xs in place, in [start, stop) if given, by the
+   comparator cmp (`compare` by default), which may be any fn of two
+   args, and returns xs."
+  ([xs] (asort! compare xs))
+  ([cmp xs] (asort! cmp xs false))
+  ([cmp xs parallel?] (asort! cmp xs 0 (alength xs) parallel?))
+  ([cmp xs start stop] (asort! cmp xs start stop false))
+  ([cmp xs start stop parallel?]
+     (ObjectArrays/sort xs (int start) (int stop) cmp (sort-pool parallel?))))
+
+(defn aselect!
+  "Rearranges xs, in [start, stop) if given, so that the smallest k
+   elements by cmp (`compare` by default) come first, followed by all
+   greater elements, and returns xs."
+  ([xs k] (aselect! compare xs k))
+  ([cmp xs k] (aselect! cmp xs 0 (alength xs) k))
+  ([cmp xs start stop k]
+     (ObjectArrays/select xs (int start) (int stop) (int k) cmp)))
+
+(defn- by-ranges
+  "Call (f s e) on ranges covering [start, stop). If parallel?, that's
+   on ranges of at most hiphip.impl.core/parallel-chunk elements, by
+   fork/join in the same pool that the sorts run in (see `sort-pool`)."
+  [start stop parallel? f]
+  (if parallel?
+    (impl/fold-range (long start) (long stop) impl/parallel-chunk
+                     (constantly nil)
+                     (fn [s e] (f s e) nil))
+    (f start stop))
+  nil)
+
+(defn- ^ObjectArrays$Order key-order
+  "An Order by (keyfn x) over the elements x of xs that indices[start,
+   stop) point at, computing each key once: into a long or double array
+   if keyfn implements IFn$OL or IFn$OD, and an object array compared
+   with `compare` otherwise."
+  [keyfn ^objects xs ^ints indices start stop parallel?]
+  (let [n (alength xs)]
+    (cond
+     (instance? clojure.lang.IFn$OL keyfn)
+     (let [^clojure.lang.IFn$OL f keyfn
+           ^longs ks (long-array n)]
+       (by-ranges start stop parallel?
+                  (fn [s e]
+                    (array/doarr [:range [s e] i indices]
+                      (clojure.core/aset ks i (.invokePrim f (aget xs i))))))
+       (ObjectArrays/byKeys ks))
+
+     (instance? clojure.lang.IFn$OD keyfn)
+     (let [^clojure.lang.IFn$OD f keyfn
+           ^doubles ks (double-array n)]
+       (by-ranges start stop parallel?
+                  (fn [s e]
+                    (array/doarr [:range [s e] i indices]
+                      (clojure.core/aset ks i (.invokePrim f (aget xs i))))))
+       (ObjectArrays/byKeys ks))
+
+     :else
+     (let [^clojure.lang.IFn f keyfn
+           ^objects ks (object-array n)]
+       (by-ranges start stop parallel?
+                  (fn [s e]
+                    (array/doarr [:range [s e] i indices]
+                      (aset ks i (.invoke f (aget xs i))))))
+       (ObjectArrays/byComparator ks compare)))))
+
+(defn ^ints asort-indices!
+  "Like `asort!`, but returns an array of the indices of xs sorted by
+   the elements they point at, or sorts indices[start, stop) (indices
+   into xs) if given, and returns indices. Leaves xs as it is."
+  ([xs] (asort-indices! compare xs))
+  ([cmp xs] (asort-indices! cmp xs false))
+  ([cmp xs parallel?]
+     (let [n (alength xs)]
+       (asort-indices! (IndexArrays/make 0 n) cmp xs 0 n parallel?)))
+  ([indices cmp xs start stop] (asort-indices! indices cmp xs start stop false))
+  ([indices cmp xs start stop parallel?]
+     (ObjectArrays/sortIndices indices (int start) (int stop)
+                               (ObjectArrays/byComparator xs cmp) (sort-pool parallel?))))
+
+(defn ^ints asort-indices-by!
+  "Like `asort-indices!`, but sorts by (keyfn x) with `compare`,
+   calling keyfn once per element (in parallel too, if parallel?).
+   Primitive keyfns, like (fn ^double [r] ...) or (fn ^long [r] ...),
+   have their keys kept unboxed; double keys are compared as by
+   Double/compare, so NaNs come last.
+
+   ;; Indices of records, by descending score
+   (asort-indices-by! (fn ^double [r] (- (double (:score r)))) records)
+  "
+  ([keyfn xs] (asort-indices-by! keyfn xs false))
+  ([keyfn xs parallel?]
+     (let [n (alength xs)]
+       (asort-indices-by! (IndexArrays/make 0 n) keyfn xs 0 n parallel?)))
+  ([indices keyfn xs start stop] (asort-indices-by! indices keyfn xs start stop false))
+  ([indices keyfn xs start stop parallel?]
+     (ObjectArrays/sortIndices indices (int start) (int stop)
+                               (key-order keyfn xs indices start stop parallel?)
+                               (sort-pool parallel?))))
+
+(defn ^ints aselect-indices!
+  "Like `aselect!`, but returns an array of the indices of xs
+   rearranged so that the first k point at the smallest k elements, or
+   rearranges indices[start, stop) (indices into xs) if given, and
+   returns indices. Leaves xs as it is."
+  ([xs k] (aselect-indices! compare xs k))
+  ([cmp xs k]
+     (let [n (alength xs)]
+       (aselect-indices! (IndexArrays/make 0 n) cmp xs 0 n k)))
+  ([indices cmp xs start stop k]
+     (ObjectArrays/selectIndices indices (int start) (int stop) (int k)
+                                 (ObjectArrays/byComparator xs cmp))))
+
+(defn ^ints aselect-indices-by!
+  "Like `aselect-indices!`, but by (keyfn x) with `compare`, with keys
+   computed as for `asort-indices-by!`."
+  ([keyfn xs k] (aselect-indices-by! keyfn xs k false))
+  ([keyfn xs k parallel?]
+     (let [n (alength xs)]
+       (aselect-indices-by! (IndexArrays/make 0 n) keyfn xs 0 n k parallel?)))
+  ([indices keyfn xs start stop k] (aselect-indices-by! indices keyfn xs start stop k false))
+  ([indices keyfn xs start stop k parallel?]
+     (ObjectArrays/selectIndices indices (int start) (int stop) (int k)
+                                 (key-order keyfn xs indices start stop parallel?))))
+
+(set! *warn-on-reflection* false)
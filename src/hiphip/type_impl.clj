@@ -5,7 +5,22 @@
 (def ^:private saved-unchecked-math *unchecked-math*)
 (set! *warn-on-reflection* true)
 (set! *unchecked-math* true)
-(require '[hiphip.impl.core :as impl] '[hiphip.array :as array])
+(require '[hiphip.impl.core :as impl] '[hiphip.array :as array] '[clojure.core.reducers :as r])
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Private helpers for writing fns (rather than macros) over arrays of this type
+
+(defmacro ^:private with-hints
+  "Evaluate body with each of syms rebound to itself, hinted as an
+   array of this type."
+  [syms & body]
+  `(let [~@(mapcat (fn [sym] [(impl/array-cast +type+ sym) sym]) syms)]
+     ~@body))
+
+(defmacro ^:private new-array
+  "A new array of this type of length len."
+  [len]
+  `(array/make-array ~+type+ ~len))
 
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; Type hinted versions of clojure.core fns, plus ainc
@@ -74,6 +89,27 @@
   [bindings ret init form]
   `(array/areduce ~(impl/hint-bindings +type+ bindings) ~ret ~init ~form))
 
+(defmacro areduce*
+  "Like `areduce`, but with several accumulators kept as separate
+  primitive loop locals (please see `hiphip.array/areduce*`). Returns
+  a vector of the final accumulator values, or the value of ret-form
+  with the accumulators bound.
+
+   ;; Min and max in one pass
+   (areduce* [x xs]
+             [lo (aget xs 0) hi (aget xs 0)]
+             [(min lo x) (max hi x)])
+
+   ;; Mean and variance in one pass, with no intermediate vectors
+   (areduce* [x xs] [s 0.0 ss 0.0] [(+ s x) (+ ss (* x x))]
+     (let [n (alength xs) m (/ s n)]
+       [m (- (/ ss n) (* m m))]))
+  "
+  ([bindings accs forms]
+     `(array/areduce* ~(impl/hint-bindings +type+ bindings) ~accs ~forms))
+  ([bindings accs forms ret-form]
+     `(array/areduce* ~(impl/hint-bindings +type+ bindings) ~accs ~forms ~ret-form)))
+
 (defmacro doarr
   "Like doseq, but with hiphip-style array bindings (please see the
   `hiphip.array` docstring).
@@ -125,6 +161,119 @@
   [bindings form]
   `(array/afill! ~+type+ ~(impl/hint-bindings +type+ bindings) ~form))
 
+(defmacro amap-multi
+  "Like `amap`, but builds several arrays in a single pass, with one
+   form per output array (please see `hiphip.array/amap-multi`).
+   Returns a vector of the new arrays.
+
+   ;; Split into integer and fractional parts
+   (amap-multi [x xs :let [whole (Math/floor x)]]
+     [whole (- x whole)])
+  "
+  [bindings forms]
+  `(array/amap-multi ~(vec (repeat (count forms) +type+))
+                     ~(impl/hint-bindings +type+ bindings)
+                     ~forms))
+
+(defmacro afill-multi!
+  "Like `afill!`, but writes the output of the ith form to the ith
+   bound array, and returns a vector of the written arrays.
+
+   ;; Gradient and loss of a squared error, per element
+   (afill-multi! [g grads l losses p preds y labels :let [d (- p y)]]
+     [(* 2 d) (* d d)])
+  "
+  [bindings forms]
+  `(array/afill-multi! ~(vec (repeat (count forms) +type+))
+                       ~(impl/hint-bindings +type+ bindings)
+                       ~forms))
+
+(defmacro afilter
+  "Builds a new array from the elements of the first bound array for
+   which pred is logical true, in order, with hiphip-style array
+   bindings (please see the `hiphip.array` docstring).
+
+   ;; Positive elements
+   (afilter [x xs] (pos? x))
+
+   ;; Elements of xs larger than the corresponding element of ys
+   (afilter [x xs y ys] (> x y))
+  "
+  [bindings pred]
+  `(array/afilter ~+type+ ~(impl/hint-bindings +type+ bindings) ~pred))
+
+(defmacro awhere
+  "Like `afilter`, but returns an int array of the indices at which
+   pred is logical true.
+
+   ;; Indices of the non-zero elements in the first 100
+   (awhere [x xs :range [0 100]] (not (zero? x)))
+  "
+  [bindings pred]
+  `(array/awhere ~(impl/hint-bindings +type+ bindings) ~pred))
+
+(defmacro acompress
+  "Builds a new array from the elements of xs for which the
+   corresponding element of the boolean array mask is true."
+  [mask xs]
+  `(array/afilter ~+type+
+                  [x# ~(impl/array-cast +type+ xs) m# ~(impl/array-cast 'boolean mask)]
+                  m#))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Pooled temporaries
+
+(definline aborrow
+  "Borrow an array of length len from the current thread's pool,
+   allocating a new one if none of that length is available. The
+   contents of the array are arbitrary, and it should be handed back
+   with `arelease!` once it is no longer needed."
+  [len]
+  `(Pool/borrow ~(impl/intcast len)))
+
+(definline arelease!
+  "Return an array obtained from `aborrow`, `amake-into` or
+   `amap-into` to the current thread's pool. The array must not be
+   used after it is released. Arrays that would take the pool past
+   its bounds (the system properties hiphip.pool.maxRetained elements
+   and hiphip.pool.maxPerLength arrays per power-of-two size range,
+   per thread) are dropped instead."
+  [xs]
+  `(Pool/release ~(impl/array-cast +type+ xs)))
+
+(defn apool-stats
+  "Counters for the pool of this array type, summed over all threads."
+  []
+  (let [[hits misses releases drops] (Pool/stats)]
+    {:hits hits :misses misses :releases releases :drops drops}))
+
+(defn apool-reset-stats!
+  "Zero the counters for the pool of this array type."
+  []
+  (Pool/resetStats))
+
+(defn apool-clear!
+  "Drop all arrays retained by the current thread's pool."
+  []
+  (Pool/clear))
+
+(defmacro amake-into
+  "Like `amake`, but borrows the array from the current thread's pool
+   (see `aborrow`) rather than allocating it.
+
+   (let [tmp (amake-into [i n] (* i i))]
+     (try (asum tmp)
+          (finally (arelease! tmp))))
+  "
+  [[idx len] expr]
+  `(array/amake-with ~+type+ Pool/borrow [~idx ~len] ~expr))
+
+(defmacro amap-into
+  "Like `amap`, but borrows the output array from the current thread's
+   pool (see `aborrow`) rather than allocating it."
+  [bindings form]
+  `(array/amap-with ~+type+ Pool/borrow ~(impl/hint-bindings +type+ bindings) ~form))
+
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; More 'mathy' functions for the main numeric array types
 
@@ -174,6 +323,359 @@
   `(let [xs# ~xs ys# ~ys]
      (asum [x# xs# y# ys#] (* x# y#))))
 
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Element-wise arithmetic
+
+;; Java kernels for the most common afill! forms, so that there's one
+;; compiled (and vectorizable) loop for each rather than one per call
+;; site. Each runs over [start, end) if given, and over all of the
+;; array it writes to otherwise; the arrays may be the same.
+
+(defn- elementwise
+  "Expand a call to the binary Helpers kernel method on xs and ys,
+   writing to out (or a new array, if nil) over [start, end) (or all of
+   out, if nil)."
+  [method xs ys out start end]
+  (let [[xs-sym ys-sym out-sym] (repeatedly 3 gensym)]
+    `(let [~xs-sym ~xs
+           ~ys-sym ~ys
+           ~out-sym ~(or out `(array/make-array ~+type+ (alength ~xs-sym)))]
+       (~method ~xs-sym ~ys-sym ~out-sym
+                ~(if start (impl/intcast start) 0)
+                ~(if end (impl/intcast end) `(alength ~out-sym))))))
+
+(defmacro aaxpy!
+  "Adds a times each element of xs to the corresponding element of ys,
+   in place, and returns ys (BLAS's axpy).
+
+   ;; A gradient step
+   (aaxpy! (- rate) gradient weights)"
+  ([a xs ys]
+     `(let [a# ~a xs# ~xs ys# ~ys] (aaxpy! a# xs# ys# 0 (alength ys#))))
+  ([a xs ys start end]
+     `(Helpers/axpy ~(impl/value-cast +type+ a) ~xs ~ys
+                    ~(impl/intcast start) ~(impl/intcast end))))
+
+(defmacro ascale!
+  "Multiplies each element of xs by s, in place, and returns xs."
+  ([xs s]
+     `(let [xs# ~xs s# ~s] (ascale! xs# s# 0 (alength xs#))))
+  ([xs s start end]
+     `(Helpers/scale ~xs ~(impl/value-cast +type+ s)
+                     ~(impl/intcast start) ~(impl/intcast end))))
+
+(defmacro aadd
+  "Sums of corresponding elements of xs and ys, written to out (which
+   may be xs or ys) if given, or a new array otherwise, and returned."
+  ([xs ys] (elementwise `Helpers/add xs ys nil nil nil))
+  ([xs ys out] (elementwise `Helpers/add xs ys out nil nil))
+  ([xs ys out start end] (elementwise `Helpers/add xs ys out start end)))
+
+(defmacro asub
+  "Like `aadd`, but subtracts each element of ys from that of xs."
+  ([xs ys] (elementwise `Helpers/sub xs ys nil nil nil))
+  ([xs ys out] (elementwise `Helpers/sub xs ys out nil nil))
+  ([xs ys out start end] (elementwise `Helpers/sub xs ys out start end)))
+
+(defmacro amul
+  "Like `aadd`, but multiplies corresponding elements."
+  ([xs ys] (elementwise `Helpers/mul xs ys nil nil nil))
+  ([xs ys out] (elementwise `Helpers/mul xs ys out nil nil))
+  ([xs ys out start end] (elementwise `Helpers/mul xs ys out start end)))
+
+(defmacro adiv
+  "Like `aadd`, but divides each element of xs by that of ys, as Java
+   does (so integer division truncates, and throws on zero)."
+  ([xs ys] (elementwise `Helpers/div xs ys nil nil nil))
+  ([xs ys out] (elementwise `Helpers/div xs ys out nil nil))
+  ([xs ys out start end] (elementwise `Helpers/div xs ys out start end)))
+
+(defmacro aclip!
+  "Clamps each element of xs to [lo, hi], in place, and returns xs.
+   NaNs (of floating types) are left as they are. Throws
+   IllegalArgumentException unless lo <= hi."
+  ([xs lo hi]
+     `(let [xs# ~xs lo# ~lo hi# ~hi] (aclip! xs# lo# hi# 0 (alength xs#))))
+  ([xs lo hi start end]
+     `(Helpers/clip ~xs ~(impl/value-cast +type+ lo) ~(impl/value-cast +type+ hi)
+                    ~(impl/intcast start) ~(impl/intcast end))))
+
+(defmacro aabs!
+  "Replaces each element of xs with its absolute value, in place, and
+   returns xs."
+  ([xs]
+     `(let [xs# ~xs] (aabs! xs# 0 (alength xs#))))
+  ([xs start end]
+     `(Helpers/abs ~xs ~(impl/intcast start) ~(impl/intcast end))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; 2-D (array of arrays) iteration
+
+(defn- parse-bindings2
+  "Parse 2-D bindings, like [x xss [i j y] yss :let [...]], into a map with:
+   :n-sym            a symbol for the number of rows, of the first matrix
+   :matrix-syms      hinted symbols for the matrices, in order
+   :initial-bindings bindings of matrix-syms and n-sym, and a check that
+                     each matrix has a row at least as long as each row
+                     of the first
+   :row-bindings     bindings of a hinted symbol to row i-sym of each
+                     matrix, and of any outer index symbols to i-sym
+   :inner-bindings   1-D bindings over those rows, for this type's macros"
+  [i-sym bindings]
+  (impl/assert-iae (and (vector? bindings) (even? (count bindings)))
+                   "2-D binding %s requires an even number of forms" bindings)
+  (let [parsed (for [[left right] (partition 2 bindings)]
+                 (case left
+                   :let {:inner [:let right]}
+                   :range (impl/assert-iae false "2-D binding %s can't have a :range" bindings)
+                   (let [[idx jdx x] (if (symbol? left)
+                                       [nil nil left]
+                                       (do (impl/assert-iae
+                                            (and (vector? left) (= 3 (count left))
+                                                 (every? symbol? left))
+                                            "Invalid 2-D binding %s: must be either a %s"
+                                            left "val sym or a vector of [i j val] syms")
+                                           left))
+                         m (impl/array2-cast +type+ (gensym "m"))
+                         row (impl/array-cast +type+ (gensym "row"))]
+                     {:matrix [m right]
+                      :row (into [row `(clojure.core/aget ~m ~i-sym)] (when idx [idx i-sym]))
+                      :inner [(if jdx [jdx x] x) row]})))
+        matrices (keep :matrix parsed)
+        [m0 & ms] (map first matrices)
+        n-sym (gensym "n")
+        k (gensym "k")
+        len (gensym "len")]
+    (impl/assert-iae m0 "2-D binding %s must include at least one array" bindings)
+    {:n-sym n-sym
+     :matrix-syms (mapv first matrices)
+     :initial-bindings
+     (into (vec (apply concat matrices))
+           [n-sym `(clojure.core/alength ~m0)
+            '_ (impl/range-check 0 n-sym (vec ms))
+            '_ `(impl/dotimes-int [~k ~n-sym]
+                  (let [~len (alength (clojure.core/aget ~m0 ~k))]
+                    (when-not (and ~@(for [m ms]
+                                       `(<= ~len (alength (clojure.core/aget ~m ~k)))))
+                      (throw (IndexOutOfBoundsException.
+                              (format "Row %s has length %s, but not in every bound array"
+                                      ~k ~len))))))])
+     :row-bindings (vec (mapcat :row parsed))
+     :inner-bindings (vec (mapcat :inner parsed))}))
+
+(defmacro doarr2
+  "Like `doarr`, but over arrays of arrays (e.g. double[][]) of this
+   type, row by row. Each binding is val or [i j val] (the row and
+   column indices, and element) and an array of arrays; :let works as
+   in `doarr`. Rows may have different lengths, and the rows of the
+   first array set the shape, so the others must have at least as many
+   rows, each at least as long. Each row is fetched (and checked) once,
+   outside the loop over its elements.
+
+   ;; Print the diagonal
+   (doarr2 [[i j x] xss] (when (== i j) (println x)))"
+  [bindings & body]
+  (let [i (gensym "i")
+        {:keys [n-sym initial-bindings row-bindings inner-bindings]} (parse-bindings2 i bindings)]
+    `(let ~initial-bindings
+       (impl/dotimes-int [~i ~n-sym]
+         (let ~row-bindings
+           (doarr ~inner-bindings ~@body))))))
+
+(defmacro amap2
+  "Like `amap`, but over arrays of arrays (see `doarr2`). Builds a new
+   array of arrays with rows as long as those of the first one.
+
+   ;; Scale each row by its index
+   (amap2 [[i j x] xss] (* i x))"
+  [bindings form]
+  (let [i (gensym "i")
+        out (impl/array2-cast +type+ (gensym "out"))
+        {:keys [n-sym initial-bindings row-bindings inner-bindings]} (parse-bindings2 i bindings)]
+    `(let ~(into initial-bindings
+                 [out `(clojure.core/make-array ~(class (new-array 0)) ~n-sym)])
+       (impl/dotimes-int [~i ~n-sym]
+         (let ~row-bindings
+           (clojure.core/aset ~out ~i (amap ~inner-bindings ~form))))
+       ~out)))
+
+(defmacro areduce2
+  "Like `areduce`, but over arrays of arrays (see `doarr2`), in row-major
+   order. The rows and the accumulator are kept in a single loop, so
+   the accumulator stays primitive across rows.
+
+   ;; Frobenius norm
+   (Math/sqrt (areduce2 [x xss] s 0.0 (+ s (* x x))))"
+  [bindings ret init form]
+  (let [i (gensym "i")
+        {:keys [n-sym matrix-syms initial-bindings row-bindings inner-bindings]}
+        (parse-bindings2 i bindings)
+        {:keys [index-sym array-syms value-bindings]}
+        (impl/parse-bindings (impl/hint-bindings +type+ inner-bindings))
+        rows-at (fn [k] (for [m matrix-syms] `(clojure.core/aget ~m ~k)))
+        next-i (gensym "next")]
+    `(let ~initial-bindings
+       (if (zero? ~n-sym)
+         ~init
+         (loop [~i (int 0)
+                ~@(interleave array-syms (rows-at 0))
+                ~index-sym (int 0)
+                ~ret ~init]
+           (if (< ~index-sym (clojure.core/alength ~(first array-syms)))
+             (recur ~i ~@array-syms (unchecked-inc-int ~index-sym)
+                    (let ~(into (vec (mapcat (fn [[sym v]] (when (= v i) [sym v]))
+                                             (partition 2 row-bindings)))
+                                value-bindings)
+                      ~form))
+             (let [~next-i (unchecked-inc-int ~i)]
+               (if (< ~next-i ~n-sym)
+                 (recur ~next-i ~@(rows-at next-i) (int 0) ~ret)
+                 ~ret))))))))
+
+(defmacro areduce-rows
+  "Reduce each row of arrays of arrays (see `doarr2`) separately, like
+   `areduce`, into a new array of this type with one result per row.
+   The accumulator starts at init (cast to this type) for each row.
+
+   ;; Max of each row
+   (areduce-rows [x xss] m Double/NEGATIVE_INFINITY (max m x))"
+  [bindings ret init form]
+  (let [i (gensym "i")
+        out (impl/array-cast +type+ (gensym "out"))
+        {:keys [n-sym initial-bindings row-bindings inner-bindings]} (parse-bindings2 i bindings)]
+    `(let ~(into initial-bindings [out `(array/make-array ~+type+ ~n-sym)])
+       (impl/dotimes-int [~i ~n-sym]
+         (let ~row-bindings
+           (aset ~out ~i (areduce ~inner-bindings ~ret ~(impl/value-cast +type+ init) ~form))))
+       ~out)))
+
+(defmacro areduce-cols
+  "Reduce each column of arrays of arrays (see `doarr2`) separately,
+   into a new array of this type with one result per column, as long as
+   the longest row of the first array. The accumulators start at init
+   (cast to this type), and are updated a row at a time, so that the
+   rows are still read in order. In jagged arrays, each column only
+   sees the rows long enough to have it.
+
+   ;; Max of each column
+   (areduce-cols [x xss] m Double/NEGATIVE_INFINITY (max m x))"
+  [bindings ret init form]
+  (let [i (gensym "i")
+        out (impl/array-cast +type+ (gensym "out"))
+        {:keys [n-sym matrix-syms initial-bindings row-bindings inner-bindings]}
+        (parse-bindings2 i bindings)
+        [_ row0] (first (filter (comp not #{:let} first) (partition 2 inner-bindings)))]
+    `(let ~(into initial-bindings
+                 [out `(array/make-array ~+type+
+                        (loop [i# 0 cols# 0]
+                          (if (< i# ~n-sym)
+                            (recur (unchecked-inc-int i#)
+                                   (max cols# (alength (clojure.core/aget
+                                                        ~(first matrix-syms) i#))))
+                            cols#)))])
+       (afill! [_# ~out] ~(impl/value-cast +type+ init))
+       (impl/dotimes-int [~i ~n-sym]
+         (let ~row-bindings
+           (afill! ~(into [ret out :range [0 `(alength ~row0)]] inner-bindings) ~form)))
+       ~out)))
+
+(defn arow-sums
+  "The sum of each row of an array of arrays of this type."
+  [xss]
+  (areduce-rows [x xss] s 0 (+ s x)))
+
+(defn acol-sums
+  "The sum of each column of an array of arrays of this type (see
+   `areduce-cols`)."
+  [xss]
+  (areduce-cols [x xss] s 0 (+ s x)))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Sliding windows
+
+(defmacro amoving-sum
+  "Sums over each window of w consecutive elements of xs, computed with
+   a running update: the ith output is the sum of elements i through
+   i+w-1. Writes into out if given (which must hold at least
+   (alength xs) - w + 1 elements), or a new array otherwise, and
+   returns it.
+
+   Uses Java for now for maximum efficiency."
+  ([xs w]
+     `(Helpers/movingSum ~xs ~(impl/intcast w)))
+  ([xs w out]
+     `(Helpers/movingSum ~xs ~(impl/intcast w) ~out)))
+
+(defmacro amoving-max
+  "Like `amoving-sum`, but takes the maximum of each window, using a
+   monotonic deque so that the cost doesn't depend on w."
+  ([xs w]
+     `(Helpers/movingMax ~xs ~(impl/intcast w)))
+  ([xs w out]
+     `(Helpers/movingMax ~xs ~(impl/intcast w) ~out)))
+
+(defmacro amoving-min
+  "Like `amoving-max`, but takes the minimum of each window."
+  ([xs w]
+     `(Helpers/movingMin ~xs ~(impl/intcast w)))
+  ([xs w out]
+     `(Helpers/movingMin ~xs ~(impl/intcast w) ~out)))
+
+(defn- moving-out
+  "A new double array for the windows of xs of length w, or out, after
+   checking that it's long enough."
+  [xs ^long w out]
+  (let [len (alength xs)]
+    (impl/assert-iae (<= 1 w len) "Window %s must be in [1, %s]" w len)
+    (if out
+      (let [^doubles out out]
+        (impl/assert-iae (<= (inc (- len w)) (clojure.core/alength out))
+                         "Output of length %s can't hold %s windows"
+                         (clojure.core/alength out) (inc (- len w)))
+        out)
+      (double-array (inc (- len w))))))
+
+(defn ^doubles amoving-mean
+  "Means over each window of w consecutive elements of xs, as doubles,
+   computed with a running update of the window sum. Writes into the
+   double array out if given, or a new double array otherwise, and
+   returns it."
+  ([xs w] (amoving-mean xs w nil))
+  ([xs w out]
+     (let [w (long w)
+           ^doubles out (moving-out xs w out)
+           s (double (areduce [x xs :range [0 w]] s 0.0 (+ s x)))]
+       (clojure.core/aset out 0 (/ s w))
+       (loop [i w s s]
+         (when (< i (alength xs))
+           (let [s (+ s (- (double (aget xs i)) (double (aget xs (- i w)))))]
+             (clojure.core/aset out (inc (- i w)) (/ s w))
+             (recur (inc i) s))))
+       out)))
+
+(defn ^doubles amoving-var
+  "Population variances over each window of w consecutive elements of
+   xs, as doubles. The first window is computed in two passes, and the
+   rest with a running (Welford-style) update of the window mean and
+   sum of squared deviations. Writes into the double array out if
+   given, or a new double array otherwise, and returns it."
+  ([xs w] (amoving-var xs w nil))
+  ([xs w out]
+     (let [w (long w)
+           ^doubles out (moving-out xs w out)
+           m (/ (double (areduce [x xs :range [0 w]] s 0.0 (+ s x))) w)
+           m2 (double (areduce [x xs :range [0 w]] s 0.0 (+ s (* (- x m) (- x m)))))]
+       (clojure.core/aset out 0 (/ m2 w))
+       (loop [i w m m m2 m2]
+         (when (< i (alength xs))
+           (let [xn (double (aget xs i))
+                 xo (double (aget xs (- i w)))
+                 m' (+ m (/ (- xn xo) w))
+                 m2 (+ m2 (* (- xn xo) (+ (- xn m') (- xo m))))]
+             (clojure.core/aset out (inc (- i w)) (/ (Math/max m2 0.0) w))
+             (recur (inc i) m' m2))))
+       out)))
+
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; Selecting minimal/maximal elements and sorting
 
@@ -210,40 +712,83 @@
    pivot after the partitioning."
   ([xs pivot] `(let [xs# ~xs] (apartition! xs# 0 (alength xs#) ~pivot)))
   ([xs start stop pivot]
-     `(doto ~xs (Helpers/partition ~start ~stop ~pivot))))
+     (impl/instrumented &form 'apartition! [xs start stop pivot]
+                        (fn [_ start stop _] `(- ~stop ~start))
+                        (fn [xs start stop pivot]
+                          `(doto ~xs (Helpers/partition ~start ~stop ~pivot))))))
 
 (defmacro aselect!
   "Rearranges xs such that the smallest k elements come first,
   followed by all greater elements."
   ([xs k] `(let [xs# ~xs] (aselect! xs# 0 (alength xs#) ~k)))
   ([xs start stop k]
-     `(doto ~xs (Helpers/select ~start ~stop ~k))))
+     (impl/instrumented &form 'aselect! [xs start stop k]
+                        (fn [_ start stop _] `(- ~stop ~start))
+                        (fn [xs start stop k]
+                          `(doto ~xs (Helpers/select ~start ~stop ~k))))))
 
 (defmacro asort!
   "Sorts an array in-place."
   ([xs]
-     `(doto ~(impl/array-cast +type+ xs)
-        java.util.Arrays/sort))
+     (impl/instrumented &form 'asort! [xs]
+                        (fn [xs] `(alength ~xs))
+                        (fn [xs]
+                          `(doto ~(impl/array-cast +type+ xs)
+                             java.util.Arrays/sort))))
   ([xs start stop]
-     `(doto ~(impl/array-cast +type+ xs)
-        (java.util.Arrays/sort ~start ~stop))))
+     (impl/instrumented &form 'asort! [xs start stop]
+                        (fn [_ start stop] `(- ~stop ~start))
+                        (fn [xs start stop]
+                          `(doto ~(impl/array-cast +type+ xs)
+                             (java.util.Arrays/sort ~start ~stop))))))
+
+(defn- top-k-code
+  "Code to select the top k of xs (the max k if max?, else the min k)
+   into place with the Helpers kernels and sort them, for asort-max! and
+   friends. With indices?, it works on a new array of xs's indices, and
+   returns that; else it rearranges xs, and returns it."
+  [xs k max? indices?]
+  (let [[xs-sym len split] (map gensym ["xs" "len" "split"])
+        [from to] (if max? [split len] [0 split])]
+    `(let [~(impl/array-cast +type+ xs-sym) ~xs
+           ~len (clojure.core/alength ~xs-sym)
+           ~split (int ~(if max? `(- ~len (long ~k)) `(long ~k)))]
+       ~(if indices?
+          `(doto (hiphip.IndexArrays/make 0 ~len)
+             (Helpers/selectIndices ~xs-sym 0 ~len ~split)
+             (Helpers/sortIndices ~xs-sym ~from ~to))
+          `(doto ~xs-sym
+             (Helpers/select 0 ~len ~split)
+             (java.util.Arrays/sort ~from ~to))))))
+
+(defmacro ^:private top-k
+  "Select and sort the top k of xs in place; see top-k-code."
+  [xs k max? indices?]
+  (top-k-code xs k max? indices?))
+
+(defn- top-k-inline
+  "An :inline fn for top-k op, which expands its code at the call, so
+   that with instrumentation on (see `impl/instrumented`) it's timed and
+   recorded against the caller's site, rather than one in this file."
+  [op max? indices?]
+  (fn [xs k]
+    (impl/instrumented nil op [xs k]
+                       (fn [xs _] `(alength ~xs))
+                       (fn [xs k] (top-k-code xs k max? indices?)))))
 
 (defn asort-max!
   "Rearrange xs so that the last k elements are the top k in ascending order.
    Faster than sorting the whole array."
+  {:inline (top-k-inline 'asort-max! true false)}
   [xs ^long k]
-  (let [len (alength xs)]
-    (aselect! xs (- len k))
-    (asort! xs (- len k) len)
-    xs))
+  (top-k xs k true false))
 
 (defn asort-min!
   "Rearrange xs so that the first k elements are the min k in ascending order.
    Faster than sorting the whole array."
+  {:inline (top-k-inline 'asort-min! false false)}
   [xs ^long k]
-  (aselect! xs k)
-  (asort! xs 0 k)
-  xs)
+  (top-k xs k false false))
 
 (defmacro apartition-indices!
   "Like apartition!, but mutate an array of indices instead."
@@ -251,7 +796,10 @@
      `(let [indices# ~indices]
         (apartition-indices! indices# ~xs 0 (hiphip.IndexArrays/length indices#) ~pivot)))
   ([indices xs start stop pivot]
-     `(doto ~indices (Helpers/partitionIndices ~xs ~start ~stop ~pivot))))
+     (impl/instrumented &form 'apartition-indices! [indices xs start stop pivot]
+                        (fn [_ _ start stop _] `(- ~stop ~start))
+                        (fn [indices xs start stop pivot]
+                          `(doto ~indices (Helpers/partitionIndices ~xs ~start ~stop ~pivot))))))
 
 (defmacro aselect-indices!
   "Like aselect!, but mutates an array of indices instead."
@@ -264,7 +812,10 @@
      `(doto (hiphip.IndexArrays/make ~start ~stop)
         (aselect-indices! ~xs ~k)))
   ([indices xs start stop k]
-     `(doto ~indices (Helpers/selectIndices ~xs ~start ~stop ~k))))
+     (impl/instrumented &form 'aselect-indices! [indices xs start stop k]
+                        (fn [_ _ start stop _] `(- ~stop ~start))
+                        (fn [indices xs start stop k]
+                          `(doto ~indices (Helpers/selectIndices ~xs ~start ~stop ~k))))))
 
 (defmacro asort-indices!
   "Like asort!, but mutates an array of indices instead."
@@ -277,26 +828,370 @@
      `(doto (hiphip.IndexArrays/make ~start ~stop)
         (asort-indices! ~xs)))
   ([indices xs start stop]
-     `(doto ~indices (Helpers/sortIndices ~xs ~start ~stop))))
+     (impl/instrumented &form 'asort-indices! [indices xs start stop]
+                        (fn [_ _ start stop] `(- ~stop ~start))
+                        (fn [indices xs start stop]
+                          `(doto ~indices (Helpers/sortIndices ~xs ~start ~stop))))))
 
 (defn ^ints amax-indices
   "Return an array of indices where the last k elements point at the
    max k elements of xs in ascending order (and the remaining elements
    point at the remaining elements of xs, in no particular order.)"
+  {:inline (top-k-inline 'amax-indices true true)}
   [xs ^long k]
-  (let [len (alength xs)]
-    (doto (hiphip.IndexArrays/make 0 len)
-      (aselect-indices! xs (- len k))
-      (asort-indices! xs (- len k) len))))
+  (top-k xs k true true))
 
 (defn ^ints amin-indices
   "Return an array of indices where the first k elements point at the
    min k elements of xs in ascending order (and the remaining elements
    point at the remaining elements of xs, in no particular order.)"
+  {:inline (top-k-inline 'amin-indices false true)}
   [xs ^long k]
-  (doto (hiphip.IndexArrays/make 0 (alength xs))
-    (aselect-indices! xs k)
-    (asort-indices! xs 0 k)))
+  (top-k xs k false true))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Incremental top k
+
+(defn atop-index
+  "A tournament tree over the indices of xs (a TopK), for repeated
+   `atop-k` and `atop-best` queries while changing a few elements at a
+   time with `atop-set!`. order is :max (the default), for the largest
+   elements first, or :min. Building it is O(n); each change is
+   O(log n), and the top k are found in O(k log n), without a pass over
+   xs or a new permutation, as `amax-indices` needs.
+
+   ;; Track the best 10 scores as they change
+   (let [t (atop-index scores)]
+     (atop-set! t 17 0.93)
+     (atop-k t 10))"
+  ([xs] (atop-index xs :max))
+  ([xs order]
+     (impl/assert-iae (#{:max :min} order) "Unknown order %s; must be :max or :min" order)
+     (with-hints [xs] (TopK. xs (= order :max)))))
+
+(defn atop-best
+  "The index of the best element of the array of a TopK (see
+   `atop-index`), or -1 if it is empty."
+  ^long [^TopK t]
+  (.best t))
+
+(defn ^ints atop-k
+  "The indices of the best k elements of the array of a TopK (see
+   `atop-index`), best first (ties going to the lower index), in a new
+   int array or the first k elements of out."
+  ([^TopK t k] (.top t (int k)))
+  ([^TopK t k ^ints out] (.top t (int k) out)))
+
+(defn atop-set!
+  "Set element i of the array of a TopK (see `atop-index`) to v, and
+   update the TopK. Returns the TopK."
+  [^TopK t i v]
+  (aset (.array t) i v)
+  (doto t (.update (int i))))
+
+(defn atop-update!
+  "Update a TopK (see `atop-index`) after element i of its array was
+   changed directly. Returns the TopK."
+  [^TopK t i]
+  (doto t (.update (int i))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Random fills
+
+(defn arand-int!
+  "Fill xs with random integers uniform in [0, n), and return xs.
+
+   The numbers come from hiphip.SplitMix, where element i depends only
+   on seed and i, so the result for a given seed is the same whether
+   or not the fill runs in parallel (in chunks of
+   hiphip.impl.core/parallel-chunk elements). Without a seed, uses a
+   fresh one from hiphip.SplitMix/nextSeed.
+
+   ;; 1M rolls of a die, in parallel
+   (arand-int! (amake [_ 1000000] 0) 6 42 true)"
+  ([xs n] (arand-int! xs n (hiphip.SplitMix/nextSeed)))
+  ([xs n seed] (arand-int! xs n seed false))
+  ([xs n seed parallel?]
+     (impl/assert-iae (pos? n) "Bound must be positive, got %s" n)
+     (with-hints [xs]
+       (let [n (long n) seed (long seed)]
+         (impl/run-ranges (alength xs) parallel?
+                          (fn [^long start ^long end]
+                            (afill! [[i x] xs :range [start end]]
+                              (hiphip.SplitMix/bounded seed i n))))
+         xs))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Reducers
+
+(defmacro ^:private wide
+  "Cast x to the type used to accumulate elements of this type: double
+   for floating-point types, and long for integral ones."
+  [x]
+  `(~(if (#{'double 'float} +type+) `double `long) ~x))
+
+(defmacro ^:private reduce-range
+  "Reduce f over xs[start, end) from init, stopping early on `reduced`.
+   Invokes f through its primitive interface when it has one -- taking
+   a primitive accumulator too if init is already a Double (for float
+   and double arrays) or a Long (for int and long arrays), so no other
+   init is ever narrowed."
+  [f init xs start end]
+  (let [[ox-iface xx-iface box cast] (if (#{'double 'float} +type+)
+                                       '[clojure.lang.IFn$ODO clojure.lang.IFn$DDD Double double]
+                                       '[clojure.lang.IFn$OLO clojure.lang.IFn$LLL Long long])
+        g (gensym "g")
+        v (gensym "init")
+        i (gensym "i")
+        acc (gensym "acc")
+        reduce-with (fn [invoke]
+                      `(loop [~i (long ~start) ~acc ~v]
+                         (cond (reduced? ~acc) @~acc
+                               (< ~i ~end) (recur (unchecked-inc ~i) ~(invoke acc `(aget ~xs ~i)))
+                               :else ~acc)))]
+    `(let [f# ~f
+           ~v ~init]
+       (cond (and (instance? ~xx-iface f#) (instance? ~box ~v))
+             (let [~(with-meta g {:tag xx-iface}) f#]
+               (areduce [x# ~xs :range [~start ~end]] acc# (~cast ~v) (.invokePrim ~g acc# x#)))
+
+             (instance? ~ox-iface f#)
+             (let [~(with-meta g {:tag ox-iface}) f#]
+               ~(reduce-with (fn [acc x] `(.invokePrim ~g ~acc ~x))))
+
+             :else
+             (let [~(with-meta g {:tag 'clojure.lang.IFn}) f#]
+               ~(reduce-with (fn [acc x] `(.invoke ~g ~acc ~x))))))))
+
+(defn areducible
+  "A view of xs (or of xs[start, end)) for `reduce`, the reducers
+   library and (in Clojure 1.7) `transduce`, which iterate over the
+   array directly rather than through a boxing seq. Reducing fns with
+   primitive signatures, like (fn [acc ^double x] ...) for double
+   arrays or (fn ^long [^long acc ^long x] ...) for long and int
+   arrays, are invoked without boxing the elements. `r/fold` runs in
+   parallel, by fork/join over halves of the range.
+
+   ;; Sum of squares, on every core
+   (r/fold + (r/map #(* % %) (areducible xs)))
+  "
+  ([xs] (areducible xs 0 (alength xs)))
+  ([xs start end]
+     (with-hints [xs]
+       (let [start (long start) end (long end)]
+         (when-not (and (<= 0 start) (<= start end) (<= end (alength xs)))
+           (throw (IndexOutOfBoundsException.
+                   (format "Invalid range [%s %s) for array of length %s"
+                           start end (alength xs)))))
+         (reify
+           clojure.lang.Counted
+           (count [_] (int (- end start)))
+
+           clojure.core.protocols/CollReduce
+           (coll-reduce [this f]
+             (if (== start end)
+               (f)
+               (reduce-range f (num (wide (aget xs start))) xs (inc start) end)))
+           (coll-reduce [this f init]
+             (reduce-range f init xs start end))
+
+           r/CollFold
+           (coll-fold [this n combinef reducef]
+             (impl/fold-range start end n combinef
+                              (fn [^long s ^long e] (reduce-range reducef (combinef) xs s e)))))))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Streaming reductions over chunks
+
+;; These reduce a seq (or other Iterable) of arrays of this type, e.g.
+;; from hiphip.io/read-chunks, as one long array, holding on to no
+;; more than the chunk being reduced and any read ahead. They take an
+;; option :read-ahead n, to realize up to n chunks ahead on a
+;; background thread (see hiphip.impl.core/read-ahead), so that
+;; producing the chunks overlaps with reducing them.
+
+(defn- stream-seq
+  "The seq of chunks, read ahead as opts asks, stopping any read-ahead
+   thread once the AtomicBoolean cancelled is set."
+  [chunks {:keys [read-ahead] :or {read-ahead 0}} cancelled]
+  (impl/assert-iae (not (neg? read-ahead)) "Read-ahead can't be negative, got %s" read-ahead)
+  (if (pos? read-ahead)
+    (impl/read-ahead chunks read-ahead cancelled)
+    (seq chunks)))
+
+(defmacro ^:private cancelling
+  "Evaluate body with sym bound to a new AtomicBoolean, which is set
+   however body exits, to pass to stream-seq so that the read-ahead
+   thread stops if the reduction does (say, on an exception)."
+  [sym & body]
+  `(let [~sym (java.util.concurrent.atomic.AtomicBoolean.)]
+     (try ~@body
+          (finally (.set ~sym true)))))
+
+(defmacro ^:private reduce-stream
+  "Like areduce*, but over each element x of each array of the seq
+   chunks in turn, with i bound to its index across all of them. accs
+   are triples of a symbol, a primitive cast (like long) and an initial
+   value. Each chunk is reduced in its own loop, and the accumulators
+   are cast back to primitives between chunks."
+  [[i x chunks] accs forms ret-form]
+  (let [triples (partition 3 accs)
+        syms (map first triples)
+        s (gensym "s")
+        xs (gensym "xs")
+        j (gensym "j")
+        offset (gensym "offset")]
+    `(loop [~s ~chunks ~offset 0 ~@(mapcat (fn [[sym cast init]] [sym `(~cast ~init)]) triples)]
+       (if ~s
+         (let [~xs (first ~s)
+               [~@syms] (areduce* [[~j ~x] ~xs]
+                                  [~@(interleave syms syms)]
+                                  [~@(for [form forms] `(let [~i (+ ~offset ~j)] ~form))])]
+           (recur (next ~s) (+ ~offset (alength ~xs)) ~@(for [[sym cast] triples] `(~cast ~sym))))
+         ~ret-form))))
+
+(defn astream-sum
+  "The sum of the elements of the chunks, accumulated as a double for
+   floating-point types and a long for integral ones.
+
+   ;; Sum of a file of doubles, reading a chunk ahead
+   (with-open [r (hiphip.io/array-reader \"xs.bin\")]
+     (astream-sum (hiphip.io/read-chunks r 65536) :read-ahead 1))"
+  [chunks & {:as opts}]
+  (cancelling c
+    (reduce-stream [_ x (stream-seq chunks opts c)] [sum wide 0] [(+ sum x)] sum)))
+
+(defn astream-mean
+  "The mean of the elements of the chunks, as a double (NaN if there
+   are none), with options as for astream-sum."
+  ^double [chunks & {:as opts}]
+  (cancelling c
+    (reduce-stream [_ x (stream-seq chunks opts c)] [sum wide 0 n long 0] [(+ sum x) (inc n)]
+                   (/ (double sum) n))))
+
+(defmacro ^:private stream-index
+  "[index value] of the first element of the chunks for which
+   (better? x best) against all earlier ones, or nil if there is none.
+   NaNs are skipped."
+  [chunks opts better?]
+  `(cancelling c#
+     (reduce-stream [i# x# (stream-seq ~chunks ~opts c#)]
+                    [best-i# long -1 best# wide 0]
+                    [(if (or (~better? x# best#) (and (neg? best-i#) (== x# x#))) i# best-i#)
+                     (if (or (~better? x# best#) (and (neg? best-i#) (== x# x#))) (wide x#) best#)]
+                    (when-not (neg? best-i#) [best-i# best#]))))
+
+(defn astream-max-index
+  "[index value] of the (first) max element of the chunks, where index
+   is its position across all of them, or nil if there are no
+   elements. The value is a double for floating-point types and a long
+   for integral ones, and NaNs are skipped. Options are as for
+   astream-sum."
+  [chunks & {:as opts}]
+  (stream-index chunks opts >))
+
+(defn astream-min-index
+  "[index value] of the (first) min element of the chunks, as for
+   astream-max-index."
+  [chunks & {:as opts}]
+  (stream-index chunks opts <))
+
+(defn ^longs astream-histogram
+  "A long array of counts of the elements of the chunks in each of
+   bins equal-width bins over [lo, hi). Elements outside [lo, hi), and
+   NaNs, aren't counted. Options are as for astream-sum.
+
+   ;; Deciles of probabilities
+   (astream-histogram chunks 0.0 1.0 10)"
+  [chunks lo hi bins & {:as opts}]
+  (let [lo (double lo) hi (double hi) bins (long bins)]
+    (impl/assert-iae (pos? bins) "Number of bins must be positive, got %s" bins)
+    (impl/assert-iae (< lo hi) "Invalid histogram range [%s, %s)" lo hi)
+    (let [counts (long-array bins)
+          scale (/ bins (- hi lo))
+          last-bin (dec bins)]
+      (cancelling c
+        (doseq [xs (stream-seq chunks opts c)]
+          (doarr [x xs]
+            (let [x (double x)]
+              (when (and (>= x lo) (< x hi))
+                (let [b (Math/min last-bin (long (* (- x lo) scale)))]
+                  (clojure.core/aset counts b (inc (clojure.core/aget counts b))))))))
+        counts))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Fn (rather than macro) versions of amap, afill! and areduce
+
+(defn- prim-iface
+  "The clojure.lang.IFn$... interface for sig, a string like \"PO\" where P
+   stands for the primitive type (D or L) that this type widens to."
+  [sig]
+  (symbol (str "clojure.lang.IFn$"
+               (.replace ^String sig "P" (if (#{'double 'float} +type+) "D" "L")))))
+
+(defmacro ^:private dispatch-fn
+  "Evaluate the body for the first of sigs (see `prim-iface`) whose
+   interface f implements, with g bound to f and hinted with it, or
+   the :else body with g hinted as a plain IFn. The check happens
+   once, outside whatever loop the body runs."
+  [[g f] & sigs-and-bodies]
+  (let [f-sym (gensym "f")]
+    `(let [~f-sym ~f]
+       (cond ~@(mapcat (fn [[sig body]]
+                         (let [iface (if (= sig :else) 'clojure.lang.IFn (prim-iface sig))]
+                           [(if (= sig :else) :else `(instance? ~iface ~f-sym))
+                            `(let [~(with-meta g {:tag iface}) ~f-sym] ~body)]))
+                       (partition 2 sigs-and-bodies))))))
+
+(defmacro ^:private fill-fn!
+  "Fill out with f applied to each element of xs, and return out."
+  [f out xs]
+  `(dispatch-fn [g# ~f]
+     "PP" (afill! [o# ~out x# ~xs] (.invokePrim g# x#))
+     "PO" (afill! [o# ~out x# ~xs] (.invokePrim g# x#))
+     "OP" (afill! [o# ~out x# ~xs] (.invokePrim g# x#))
+     :else (afill! [o# ~out x# ~xs] (.invoke g# x#))))
+
+(defn afill-fn!
+  "Like `afill!`, but with a fn chosen at runtime: replace each element
+   x of xs with (f x), and return xs. Fns with primitive signatures,
+   like (fn ^double [^double x] ...) for double arrays or
+   (fn ^long [^long x] ...) for long and int arrays, are invoked
+   without boxing. The test for f's signature happens once per call,
+   but the call to f can't be inlined as with `afill!`."
+  [f xs]
+  (with-hints [xs]
+    (fill-fn! f xs xs)))
+
+(defn amap-fn
+  "Like `amap`, but with a fn chosen at runtime (see `afill-fn!`): a new
+   array of (f x) for each x of xs, or of (f x y) for each pair of
+   elements x and y of xs and ys, which must have the same length."
+  ([f xs]
+     (with-hints [xs]
+       (fill-fn! f (new-array (alength xs)) xs)))
+  ([f xs ys]
+     (with-hints [xs ys]
+       (impl/assert-iae (== (alength xs) (alength ys))
+                        "Arrays have different lengths %s and %s" (alength xs) (alength ys))
+       (let [out (new-array (alength xs))]
+         (dispatch-fn [g f]
+           "PPP" (afill! [o out x xs y ys] (.invokePrim g x y))
+           :else (afill! [o out x xs y ys] (.invoke g x y)))))))
+
+(defn areduce-fn
+  "Like `areduce` (or `reduce`), but with a fn chosen at runtime:
+   reduce f over the elements of xs, starting from init (or from the
+   first element). Fns with primitive signatures are invoked without
+   boxing, as for `areducible`, and `reduced` stops the reduction."
+  ([f xs]
+     (with-hints [xs]
+       (if (zero? (alength xs))
+         (f)
+         (reduce-range f (num (wide (aget xs 0))) xs 1 (alength xs)))))
+  ([f init xs]
+     (with-hints [xs]
+       (reduce-range f init xs 0 (alength xs)))))
 
 (set! *warn-on-reflection* saved-warn-on-reflection)
 (set! *unchecked-math* saved-unchecked-math)
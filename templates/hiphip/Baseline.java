@@ -0,0 +1,214 @@
+package hiphip.{{type}}_;
+
+import clojure.lang.IFn;
+
+/*********************************************************************************************
+ * Functions equivalent to (specific applications of) hiphip macros for benchmarking and
+ * testing purposes.
+ *********************************************************************************************/
+public class Baseline {
+  public static int alength({{type}} [] arr) {
+    return arr.length;
+  }
+
+  public static {{type}} aget({{type}} [] arr, int idx) {
+    return arr[idx];
+  }
+
+  public static {{type}} aset({{type}} [] arr, int idx, {{type}} v) {
+    arr[idx] = v;
+    return v;
+  }
+
+  public static {{type}} ainc({{type}} [] arr, int idx, int v) {
+    return arr[idx]+=v;
+  }
+  
+  public static {{type}}[] aclone({{type}} [] arr) {
+    return arr.clone();
+  }
+  
+  // tests areduce and dot-product 
+  public static {{type}} dot_product({{type}}[] arr1, {{type}}[] arr2) {
+    {{type}} s = 0;
+    for (int i = 0; i < arr1.length; i++) {
+      s += arr1[i] * arr2[i];
+    }
+    return s;
+  }
+
+  
+  // tests doarr and afill!
+  public static {{type}}[] multiply_in_place_pointwise({{type}}[] xs, {{type}}[] ys) {
+    for(int i = 0; i < xs.length; i++) {
+      xs[i] *= ys[i];
+    }
+    return xs;
+  }
+
+  public static {{type}}[] multiply_end_in_place_pointwise({{type}}[] xs, {{type}}[] ys) {
+    for(int i = (xs.length)/2; i < xs.length; i++) {
+      xs[i] *= ys[i];
+    }
+    return xs;
+  }
+
+
+  // tests afill!
+  public static {{type}}[] multiply_in_place_by_idx({{type}}[] xs) {
+    for(int i = 0; i < xs.length; i++) {
+      xs[i] *= i;
+    }
+    return xs;
+  }
+
+  // tests amake
+  public static {{type}}[] acopy_inc(int len, {{type}}[] ys) {
+    {{type}}[] ret = new {{type}}[len];
+    for(int i = 0; i < len; i++) {
+      ret[i] = ys[i] + 1;
+    }
+    return ret;
+  }
+
+  public static {{type}}[] amap_inc({{type}}[] arr) {
+    {{type}}[] ret = new {{type}}[arr.length];
+    for (int i = 0; i < arr.length; i++) {
+      ret[i] = arr[i] + 1;
+    }
+    return ret;
+  }
+  
+  public static {{type}}[] amap_end_inc({{type}}[] arr) {
+    int h1 = arr.length/2, h2 = arr.length - h1;
+    {{type}}[] ret = new {{type}}[h2];
+    for (int i = 0; i < h2; i++) {
+      ret[i] = arr[i+h1] + 1;
+    }
+    return ret;
+  }
+
+  public static {{type}}[] amap_plus_idx({{type}}[] arr) {
+    {{type}}[] newarr = new {{type}}[arr.length];
+    for (int i = 0; i < arr.length; i++) {
+      newarr[i] = arr[i] + i;
+    }
+    return newarr;
+  }
+
+  public static {{type}} asum({{type}}[] arr) {
+    {{type}} s = 0;
+    for ({{type}} d : arr) {
+      s += d;
+    }
+    return s;
+  }
+
+  public static {{type}} asum_end({{type}}[] arr) {
+    {{type}} s = 0;
+    for (int i = arr.length/2; i < arr.length; i++) {
+      s += arr[i];
+    }
+    return s;
+  }
+
+  public static {{type}} asum_square({{type}}[] arr) {
+    {{type}} s = 0;
+    for ({{type}} d : arr) {
+      s += d * d;
+    }
+    return s;
+  }
+
+  public static {{type}} aproduct({{type}}[] arr) {
+    {{type}} s = 1;
+    for ({{type}} d : arr) {
+      s *= d;
+    }
+    return s;
+  }
+
+  public static {{type}} amax({{type}}[] arr) {
+    {{type}} m = arr[0];
+    for (int i = 1; i < arr.length; i++) {
+      {{type}} v = arr[i];
+      if (v > m) m = v;
+    }
+    return m;
+  }
+
+  public static {{type}} amin({{type}}[] arr) {
+    {{type}} m = arr[0];
+    for (int i = 1; i < arr.length; i++) {
+      {{type}} v = arr[i];
+      if (v < m) m = v;
+    }
+    return m;
+  }
+
+  // tests areduce*
+  public static {{type}}[] min_max_sum({{type}}[] arr) {
+    {{type}} lo = arr[0], hi = arr[0], s = 0;
+    for ({{type}} d : arr) {
+      if (d < lo) lo = d;
+      if (d > hi) hi = d;
+      s += d;
+    }
+    return new {{type}}[] {lo, hi, s};
+  }
+
+  // tests afilter
+  public static {{type}}[] filter_positive({{type}}[] arr) {
+    int n = 0;
+    for ({{type}} d : arr) {
+      if (d > 0) n++;
+    }
+    {{type}}[] ret = new {{type}}[n];
+    int k = 0;
+    for ({{type}} d : arr) {
+      if (d > 0) ret[k++] = d;
+    }
+    return ret;
+  }
+
+  // tests amoving-sum against the naive windowed loop
+  public static {{type}}[] moving_sum({{type}}[] arr, int w) {
+    {{type}}[] ret = new {{type}}[arr.length - w + 1];
+    for (int i = 0; i < ret.length; i++) {
+      {{type}} s = 0;
+      for (int j = i; j < i + w; j++) {
+        s += arr[j];
+      }
+      ret[i] = s;
+    }
+    return ret;
+  }
+
+  // tests amoving-max against the naive windowed loop
+  public static {{type}}[] moving_max({{type}}[] arr, int w) {
+    {{type}}[] ret = new {{type}}[arr.length - w + 1];
+    for (int i = 0; i < ret.length; i++) {
+      {{type}} m = arr[i];
+      for (int j = i + 1; j < i + w; j++) {
+        if (arr[j] > m) m = arr[j];
+      }
+      ret[i] = m;
+    }
+    return ret;
+  }
+
+  // tests aconvolve
+  public static {{type}}[] convolve({{type}}[] xs, {{type}}[] ks) {
+    {{type}}[] ret = new {{type}}[xs.length + ks.length - 1];
+    for (int i = 0; i < xs.length; i++) {
+      for (int k = 0; k < ks.length; k++) {
+        ret[i + k] += xs[i] * ks[k];
+      }
+    }
+    return ret;
+  }
+
+  public static Double amean({{type}}[] arr) {
+    return (1.0 * asum(arr)) / arr.length;
+  }
+}
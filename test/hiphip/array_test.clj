@@ -20,8 +20,78 @@
   (is (= [5 6]
          (seq (array/amap long [:range [3 5] a (double-array (range 10))] (+ (long a) 2)))))
   (is (= [0.0 1.0 2.0 5.0 6.0 5.0 6.0 7.0 8.0 9.0]
-         (seq (array/afill! double [:range [3 5] a (double-array (range 10))] (+ a 2))))))
-
+         (seq (array/afill! double [:range [3 5] a (double-array (range 10))] (+ a 2)))))
+  (testing "bad ranges throw before any element is touched"
+    (let [xs (double-array (range 10))
+          ys (double-array 5)]
+      (is (thrown? IndexOutOfBoundsException
+                   (array/afill! double [:range [3 11] a xs] (+ a 2))))
+      (is (thrown? IndexOutOfBoundsException
+                   (array/afill! double [:range [-1 5] a xs] (+ a 2))))
+      (is (thrown? IndexOutOfBoundsException
+                   (array/afill! double [:range [5 3] a xs] (+ a 2))))
+      (is (thrown? IndexOutOfBoundsException
+                   (array/afill! double [a xs b ys] (+ a b))))
+      (is (= (range 10) (map long xs))))))
+
+
+(deftest test-multi
+  (let [[ls ds] (array/amap-multi [long double]
+                                  [:range [1 3] [i a] (double-array (range 10))]
+                                  [(* i 2) (/ a 2)])]
+    (is (= [2 4] (seq ls)))
+    (is (= [0.5 1.0] (seq ds))))
+  (let [xs (double-array 3)
+        ys (long-array 3)
+        zs (double-array [1 2 3])]
+    (is (= [xs ys] (array/afill-multi! [double long] [x xs y ys z zs] [(* z z) (long (+ z 1))])))
+    (is (= [1.0 4.0 9.0] (seq xs)))
+    (is (= [2 3 4] (seq ys))))
+  (is (thrown? IllegalArgumentException
+               (macroexpand '(hiphip.array/afill-multi! [double double] [x xs] [1 2])))))
+
+(deftest test-filter
+  (is (= [3.0 4.0] (seq (array/afilter double [x (double-array [1 3 2 4]) y (long-array [2 2 2 2])]
+                                       (> x y)))))
+  (let [^{:tag "[Ljava.lang.String;"} ss (into-array String ["a" "b" "c" "d"])]
+    (is (= ["b" "d"] (seq (array/afilter String [s ss :range [1 4]] (not= s "c"))))))
+  (is (= [0 2] (seq (array/awhere [x (long-array [5 0 7])] (pos? x))))))
+
+(defmacro ^:private adam-step!
+  "Three passes of an Adam update over [start end) of the arrays."
+  [ws gs ms vs start end]
+  `(let [b1# 0.9 b2# 0.999 lr# 0.001 eps# 1e-8]
+     (array/afill! ~'double [m# ~ms g# ~gs :range [~start ~end]]
+                   (+ (* b1# m#) (* (- 1 b1#) g#)))
+     (array/afill! ~'double [v# ~vs g# ~gs :range [~start ~end]]
+                   (+ (* b2# v#) (* (- 1 b2#) g# g#)))
+     (array/afill! ~'double [w# ~ws m# ~ms v# ~vs :range [~start ~end]]
+                   (- w# (/ (* lr# m#) (+ (Math/sqrt v#) eps#))))))
+
+(defmacro ^:private tiles [n & opts]
+  `(let [seen# (java.util.ArrayList.)]
+     (array/dotiles [[s# e#] ~n ~@opts] (.add seen# [s# e#]))
+     (vec seen#)))
+
+(deftest test-tiles
+  (testing "tile bounds"
+    (is (= [[0 2048] [2048 4096] [4096 5000]] (tiles 5000)))
+    (is (= [[0 3] [3 6] [6 7]] (tiles 7 :tile 3)))
+    (is (= [[0 7]] (tiles 7 :tile 100)))
+    (is (= [] (tiles 0)))
+    (is (thrown? IllegalArgumentException (tiles 7 :tile 0)))
+    (is (thrown? IllegalArgumentException (macroexpand `(array/dotiles [~'s 10] nil))))
+    (is (thrown? IllegalArgumentException (macroexpand `(array/dotiles [[~'s ~'e] 10 :size 1] nil)))))
+  (let [n 1000
+        init #(double-array (map (fn [i] (Math/abs (Math/sin (* % i)))) (range n)))
+        [^doubles ws ^doubles gs ^doubles ms ^doubles vs] (map init [1 2 3 4])
+        [^doubles ws' ^doubles ms' ^doubles vs'] (map aclone [ws ms vs])]
+    (adam-step! ws gs ms vs 0 n)
+    (array/dotiles [[start end] n :tile 64]
+      (adam-step! ws' gs ms' vs' start end))
+    (is (= (seq ws) (seq ws')))
+    (is (= (seq ms) (seq ms')))
+    (is (= (seq vs) (seq vs')))))
 
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;;; Benchmark/equality tests
@@ -124,4 +194,19 @@
 (deftest ^:bench hiphip-array-bench
   (all-benches 10000))
 
+(defmacro ^:private momentum-step!
+  "Three memory-bound passes of an SGD-with-momentum update over [start end)."
+  [ws gs ms start end]
+  `(do (array/afill! ~'double [m# ~ms g# ~gs :range [~start ~end]] (+ (* 0.9 m#) g#))
+       (array/afill! ~'double [w# ~ws m# ~ms :range [~start ~end]] (- w# (* 0.01 m#)))
+       (array/afill! ~'double [g# ~gs :range [~start ~end]] 0.0)))
+
+(deftestfast tiled-momentum [^doubles ws ^doubles gs ^doubles ms]
+  (momentum-step! ws gs ms 0 (alength ws))
+  1.0 (array/dotiles [[start end] (alength ws)] (momentum-step! ws gs ms start end)))
+
+(deftest ^:bench tiled-bench
+  (let [n 16000000]
+    (tiled-momentum (gen-array double n 0) (gen-array double n 1) (gen-array double n 2))))
+
 (set! *warn-on-reflection* false)
\ No newline at end of file
@@ -3,4 +3,6 @@
   (:require [hiphip.double :as hiphip])
   (:import hiphip.double_.Baseline))
 
-(load "type_impl_test")
\ No newline at end of file
+(load "type_impl_test")
+(load "floating_impl_test")
+(load "facade_test")
\ No newline at end of file
@@ -0,0 +1,93 @@
+(ns hiphip.expr-test
+  "Tests and benchmarks for lazy array expressions"
+  (:use clojure.test hiphip.test-utils)
+  (:require [hiphip.array :as array]
+            [hiphip.expr :as e])
+  (:import hiphip.Baseline))
+
+(set! *warn-on-reflection* true)
+
+(deftest expr-test
+  (let [xs (double-array [1 -2 3 -4])
+        ys (long-array [10 20 30 40])
+        zs (float-array [0.5 0.25 2 4])
+        ns (int-array [1 2 3 4])]
+    (testing "materialize!"
+      (is (= [12.0 16.0 36.0 32.0] (seq (e/materialize! (e/+ (e/* xs 2.0) ys)))))
+      (is (= [-1.0 2.0 -3.0 4.0] (seq (e/materialize! (e/- xs)))))
+      (is (= [-10.0 -20.0 -30.0 -40.0] (seq (e/materialize! (e/- xs ys xs)))))
+      (is (= [2.0 8.0 1.5 1.0] (seq (e/materialize! (e/* (e// ns zs) 1)))))
+      (is (= [1.0 2.0 3.0 4.0] (seq (e/materialize! (e/max (e/min (e/abs xs) 10) zs)))))
+      (is (= (map #(Math/sqrt (Math/exp (Math/log %))) [10 20 30 40])
+             (seq (e/materialize! (e/sqrt (e/exp (e/log ys)))))))
+      (let [out (double-array 4)]
+        (is (identical? out (e/materialize! (e/* xs xs) out)))
+        (is (= [1.0 4.0 9.0 16.0] (seq out))))
+      (is (= (seq xs) [1.0 -2.0 3.0 -4.0]) "leaves are left alone"))
+    (testing "reduce"
+      (is (= 100.0 (e/reduce :+ ys)))
+      (is (= 30.0 (e/reduce :+ (e/* xs xs))))
+      (is (= (reduce + (map #(let [d (- %1 %2)] (* d d)) xs ys))
+             (e/reduce :+ (let [d (e/- xs ys)] (e/* d d)))))
+      (is (= 24.0 (e/reduce :* (e/abs xs))))
+      (is (= -4.0 (e/reduce :min xs)))
+      (is (= 3.0 (e/reduce :max xs))))
+    (testing "compiled shapes are cached, across arrays and numbers"
+      (e/clear-cache!)
+      (e/materialize! (e/+ (e/* xs 2.0) xs))
+      (let [n (count @#'e/compiled)]
+        (is (= 1 n))
+        (is (= [3.0 -6.0 9.0 -12.0] (seq (let [xs' (aclone xs)] (e/materialize! (e/+ (e/* xs' 2.0) xs'))))))
+        (is (= [2.0 -4.0 6.0 -8.0] (seq (e/materialize! (e/+ (e/* xs 1) xs)))))
+        (is (= n (count @#'e/compiled)))
+        (e/reduce :+ (e/+ (e/* xs 3) xs))
+        (e/materialize! (e/+ (e/* ys 2.0) xs))
+        (e/materialize! (e/+ (e/* (aclone xs) 2.0) xs))
+        (is (= (+ n 3) (count @#'e/compiled)) "new kinds, types or sharing of arrays are new shapes")))
+    (testing "the cache is bounded, and compiles each shape once"
+      (e/clear-cache!)
+      (with-redefs [e/max-cached 2]
+        (e/materialize! (e/+ xs 1))
+        (e/materialize! (e/- xs 1))
+        (e/materialize! (e/+ xs 1))
+        (e/materialize! (e/* xs 1))
+        (is (= 2 (count @#'e/compiled)))
+        (is (= [[:fill :+] [:fill :*]] (map (fn [[kind shape]] [kind (first shape)]) (keys @#'e/compiled)))
+            "the least recently used shape is dropped"))
+      (let [shape (first (#'e/analyze (e/sqrt (e/+ xs ys))))
+            fs (doall (for [_ (range 4)] (future (#'e/compiled-fn :fill shape))))]
+        (is (= 1 (count (set (map deref fs)))))))
+    (testing "errors"
+      (is (= 4 (e/length (e/+ xs 1))))
+      (is (thrown? IllegalArgumentException (e/+ xs "a")))
+      (is (thrown? IllegalArgumentException (e/+ xs (object-array 4))))
+      (is (thrown? IllegalArgumentException (e/materialize! (e/+ 1 2))))
+      (is (thrown? IllegalArgumentException (e/materialize! (e/+ xs (double-array 3)))))
+      (is (thrown? IllegalArgumentException (e/materialize! xs (double-array 3))))
+      (is (thrown? IllegalArgumentException (e/reduce :mean xs))))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Benchmark/equality tests
+
+(defbenchmark expr-reduce-dl [^doubles xs ^longs ys]
+  (Baseline/areduce_dl xs ys)
+  2.0 (e/reduce :+ (e/* xs ys))
+  nil (array/areduce [x xs y ys] ret 0.0 (+ ret (* x y))))
+
+(defbenchmark expr-multiply-pointwise-dl [^doubles xs ^longs ys]
+  (Baseline/multiply_pointwise_dl xs ys)
+  1.5 (e/materialize! (e/* xs ys))
+  nil (array/amap double [x xs y ys] (* x y)))
+
+(defmacro gen-array [type size phase]
+  `(array/amake ~type [i# ~size] (nth [-2 3 0 -1 0 1 -1 2 3] (mod (+ i# ~phase) 9))))
+
+(deftest expr-equality-test
+  (test-expr-reduce-dl (gen-array double 1000 0) (gen-array long 1000 1))
+  (test-expr-multiply-pointwise-dl (gen-array double 1000 0) (gen-array long 1000 1)))
+
+(deftest ^:bench expr-bench
+  (bench-expr-reduce-dl (gen-array double 10000 0) (gen-array long 10000 1))
+  (bench-expr-multiply-pointwise-dl (gen-array double 10000 0) (gen-array long 10000 1)))
+
+(set! *warn-on-reflection* false)
@@ -0,0 +1,87 @@
+;;; Tests and benchmarks for the Java facades hiphip.Doubles, hiphip.Floats,
+;; hiphip.Ints and hiphip.Longs, against the hiphip operations they mirror.
+;; Loaded after type_impl_test, in the test namespace for each type.
+
+(use 'clojure.test 'hiphip.test-utils)
+
+(set! *warn-on-reflection* true)
+
+(def ^:private facade-class
+  ('{double "hiphip.Doubles" float "hiphip.Floats" int "hiphip.Ints" long "hiphip.Longs"} +type+))
+
+(defmacro facade
+  "Call static method m of this type's facade class."
+  [m & args]
+  `(. ~(symbol facade-class) ~m ~@args))
+
+(defmacro facade-op
+  "Implement facade interface iface (e.g., UnaryOp), whose method returns this type."
+  [iface args body]
+  `(reify ~(symbol (str facade-class "$" iface))
+     (~'apply [_# ~@args] (~+type+ ~body))))
+
+(deftest facade-test
+  (let [xs (into-arr [3 -1 4 1 -5 9 2 6 -5 3])
+        ys (into-arr [2 7 1 8 2 8 1 8 2 8])]
+    (is (== (hiphip/asum xs) (facade sum xs)))
+    (is (== 4 (facade sum xs 1 4)))
+    (is (== 0 (facade sum xs 2 2)))
+    (is (== (hiphip/dot-product xs ys) (facade dot xs ys)))
+    (is (== 12 (facade dot xs ys 2 4)))
+    (is (== (hiphip/amean xs) (facade mean xs)))
+    (is (Double/isNaN (facade mean xs 3 3)))
+    (is (== 9 (facade max xs)))
+    (is (== 5 (facade argmax xs)))
+    (is (== -5 (facade min xs)))
+    (is (== 4 (facade argmin xs)) "first index of the min")
+    (is (== 8 (facade argmin xs 5 10)))
+    (is (== 4 (facade max xs 0 3)))
+    (is (= (sort xs) (de-index xs (facade argsort xs))))
+    (is (= [1 3 2] (seq (facade argsort xs 1 4))))
+    (let [zs (hiphip/aclone xs)]
+      (is (identical? zs (facade select zs 4)))
+      (is (selected? zs 4))
+      (is (= (sort xs) (sort zs))))
+    (let [zs (hiphip/aclone xs)]
+      (facade select zs 2 8 3)
+      (is (= (take 2 xs) (take 2 zs)))
+      (is (= (drop 8 xs) (drop 8 zs)))
+      (is (selected? (take 6 (drop 2 zs)) 3)))
+    (is (= [0 0 4 1 -5] (take 5 (map long (facade fill (hiphip/aclone xs) 0 2 (typed-zero))))))
+    (is (= [0 1 4 9] (map long (facade fill (hiphip/aclone (into-arr [0 0 0 0]))
+                                        (facade-op IndexOp [i] (* i i))))))
+    (is (= (map #(* 2 (long %)) xs) (map long (facade map xs (facade-op UnaryOp [x] (* 2 x))))))
+    (is (= [-2 8] (map long (facade map xs 1 3 (facade-op UnaryOp [x] (* 2 x))))))
+    (is (= (map long (hiphip/amap [x xs y ys] (- x y)))
+           (map long (facade map xs ys (facade-op BinaryOp [x y] (- x y))))))
+    (let [zs (hiphip/aclone xs)]
+      (is (identical? zs (facade mapInPlace zs 0 2 (facade-op UnaryOp [x] (- x)))))
+      (is (= [-3 1 4] (take 3 (map long zs)))))
+    (is (== (hiphip/asum xs) (facade reduce xs 0 (facade-op BinaryOp [a x] (+ a x)))))
+    (is (== 9 (facade reduce xs 0 10 -100 (facade-op BinaryOp [a x] (max a x)))))
+    (is (thrown? IndexOutOfBoundsException (facade sum xs 5 11)))
+    (is (thrown? IndexOutOfBoundsException (facade dot xs (into-arr [1 2]) 0 3)))
+    (is (thrown? IllegalArgumentException (facade dot xs (into-arr [1 2]))))
+    (is (thrown? IllegalArgumentException (facade argmax xs 3 3)))
+    (is (thrown? IllegalArgumentException (facade select xs 11))))
+  (let [r (java.util.Random. 7)
+        xs (into-arr (repeatedly 1001 #(* (.nextGaussian r) 1e3)))
+        ys (into-arr (repeatedly 1001 #(* (.nextGaussian r) 1e3)))]
+    (is (== (hiphip/asum xs) (facade sum xs)) "the same sum as asum, not just a close one")
+    (is (== (hiphip/dot-product xs ys) (facade dot xs ys)))
+    (is (== (hiphip/amax-index xs) (facade argmax xs)))
+    (is (== (hiphip/amin-index xs) (facade argmin xs)))))
+
+(defbenchmarktype facade-sum
+  (hiphip/asum xs)
+  1.1 (facade sum xs))
+
+(defbenchmarktype facade-dot
+  (hiphip/dot-product xs ys)
+  1.1 (facade dot xs ys))
+
+(defbenchmarktype facade-map
+  (hiphip/amap [x xs] (* 2 x))
+  nil (facade map xs (facade-op UnaryOp [x] (* 2 x))))
+
+(set! *warn-on-reflection* false)
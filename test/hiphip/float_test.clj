@@ -3,4 +3,6 @@
   (:require [hiphip.float :as hiphip])
   (:import hiphip.float_.Baseline))
 
-(load "type_impl_test")
\ No newline at end of file
+(load "type_impl_test")
+(load "floating_impl_test")
+(load "facade_test")
\ No newline at end of file
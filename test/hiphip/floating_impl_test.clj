@@ -0,0 +1,256 @@
+;;; Tests and benchmarks for the floating-point-only operations.
+;; Loaded after type_impl_test, in the test namespaces for double and float.
+
+(use 'clojure.test 'hiphip.test-utils)
+(require '[hiphip.impl.core :as impl])
+
+(set! *warn-on-reflection* true)
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for accurate summation
+
+(defn- exact-sum [xs]
+  (reduce (fn [^BigDecimal s x] (.add s (BigDecimal. (double x)))) BigDecimal/ZERO xs))
+
+(defn- sum-error
+  "The error of sum relative to the exact sum of xs, in units of the
+   sum of their magnitudes."
+  [xs sum]
+  (/ (Math/abs (.doubleValue (.subtract (BigDecimal. (double sum)) ^BigDecimal (exact-sum xs))))
+     (reduce + (map #(Math/abs (double %)) xs))))
+
+(deftest accurate-sum-test
+  (let [r (java.util.Random. 1)]
+    (doseq [n [0 1 7 8 9 15 16 17 128 129 1000 100000]
+            :let [xs (into-arr (repeatedly n #(* (- (.nextDouble r) 0.3) (Math/pow 10 (.nextInt r 12)))))]]
+      (testing n
+        (when (pos? n)
+          (is (< (sum-error xs (hiphip/asum-pairwise xs)) 1e-15))
+          (is (< (sum-error xs (hiphip/asum-kahan xs)) 1e-16)))
+        (is (== (double (exact-sum (take 5 (drop 2 xs))))
+                (hiphip/asum-kahan (into-arr (take 5 (drop 2 xs))))))
+        (is (== (hiphip/asum-pairwise (into-arr (take 100 (drop 3 xs))))
+                (hiphip/asum-pairwise xs (min 3 n) (min 103 n))))
+        (is (== (hiphip/asum-kahan (into-arr (take 100 (drop 3 xs))))
+                (hiphip/asum-kahan xs (min 3 n) (min 103 n)))))))
+  (when (= +type+ 'double)
+    (is (= 2.0 (hiphip/asum-kahan (into-arr [1.0 1e100 1.0 -1e100]))))
+    (let [xs (into-arr (take 1000001 (cycle [0.1])))]
+      (is (== (double (exact-sum xs)) (hiphip/asum-kahan xs)))))
+  (is (thrown? IndexOutOfBoundsException (hiphip/asum-pairwise (into-arr [1 2]) 1 3)))
+  (is (thrown? IndexOutOfBoundsException (hiphip/asum-kahan (into-arr [1 2]) -1 1))))
+
+(deftestfasttype accurate-sum-ops
+  (Baseline/asum xs)
+  1.2 (hiphip/asum-pairwise xs)
+  1.9 (hiphip/asum-kahan xs))
+
+(deftest ^:bench accurate-sum-ops-bench
+  (accurate-sum-ops (gen-array 10000 0) (gen-array 10000 1)))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for NaN-aware extremes
+
+(deftest nan-extremes-test
+  (let [r (java.util.Random. 1)]
+    (doseq [n [1 3 4 5 100 1001]
+            :let [xs (into-arr (repeatedly n #(.nextInt r 50)))]]
+      (testing n
+        (doseq [policy [:propagate :ignore]]
+          (is (== (hiphip/amax xs) (hiphip/amax-nan xs policy)))
+          (is (== (hiphip/amin xs) (hiphip/amin-nan xs policy)))
+          (is (= (hiphip/amax-index xs) (hiphip/amax-index-nan xs policy)))
+          (is (= (hiphip/amin-index xs) (hiphip/amin-index-nan xs policy))))
+        (let [i (.nextInt r n)]
+          (hiphip/aset xs i Double/NaN)
+          (is (Double/isNaN (hiphip/amax-nan xs :propagate)))
+          (is (Double/isNaN (hiphip/amin-nan xs :propagate)))
+          (is (= i (hiphip/amax-index-nan xs :propagate) (hiphip/amin-index-nan xs :propagate)))
+          (let [others (keep-indexed #(when-not (== %1 i) %2) xs)]
+            (if (seq others)
+              (do (is (== (apply max others) (hiphip/amax-nan xs :ignore)))
+                  (is (== (apply min others) (hiphip/amin-nan xs :ignore)))
+                  (is (== (apply max others) (hiphip/aget xs (hiphip/amax-index-nan xs :ignore))))
+                  (is (== (apply min others) (hiphip/aget xs (hiphip/amin-index-nan xs :ignore)))))
+              (do (is (Double/isNaN (hiphip/amax-nan xs :ignore)))
+                  (is (= -1 (hiphip/amin-index-nan xs :ignore))))))))))
+  (let [xs (into-arr [Double/NaN 3 1 3 Double/NaN 1 2])]
+    (is (= 1 (hiphip/amax-index-nan xs :ignore)))
+    (is (= 2 (hiphip/amin-index-nan xs :ignore)))
+    (is (= 0 (hiphip/amax-index-nan xs :propagate)))
+    (is (= 5 (hiphip/amin-index-nan xs :ignore 3 7)))
+    (is (= 4 (hiphip/amin-index-nan xs :propagate 3 7)))
+    (is (== 2.0 (hiphip/amax-nan xs :propagate 5 7)))
+    (is (= -1 (hiphip/amax-index-nan xs :propagate 2 2)))
+    (is (Double/isNaN (hiphip/amin-nan xs :ignore 2 2))))
+  (is (thrown? IllegalArgumentException (hiphip/amax-nan (into-arr [1]) :skip)))
+  (is (thrown? IndexOutOfBoundsException (hiphip/amax-index-nan (into-arr [1]) :ignore 0 2))))
+
+(deftestfasttype nan-extremes-ops
+  (hiphip/amax-index xs)
+  1.3 (hiphip/amax-index-nan xs :ignore)
+  2.2 (hiphip/amax-index-nan xs :propagate)
+  1.3 (hiphip/amin-index-nan xs :ignore)
+  2.0 (hiphip/amax-nan xs :propagate))
+
+(deftest ^:bench nan-extremes-ops-bench
+  (let [r (java.util.Random. 1)
+        random (hiphip/amake [_ 10000] (.nextDouble r))]
+    (testing "random"
+      (nan-extremes-ops random random))
+    (testing "sorted"
+      (nan-extremes-ops (hiphip/asort! (hiphip/aclone random)) random))
+    (testing "trending"
+      (nan-extremes-ops (hiphip/amap [[i x] random] (+ i (* 2 x))) random))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for convolution and correlation
+
+(defn- naive-convolve [xs ks]
+  (let [xs (vec xs) ks (vec ks) nx (count xs) nk (count ks)]
+    (for [m (range (+ nx nk -1))]
+      (reduce + (for [k (range nk) :let [i (- m k)] :when (< -1 i nx)]
+                  (* (xs i) (ks k)))))))
+
+(defn- approx= [tolerance xs ys]
+  (and (= (count xs) (count ys))
+       (every? #(<= (Math/abs (double %)) tolerance) (map - xs ys))))
+
+(deftest convolve-test
+  (is (= [0.0 1.0 2.5 4.0 1.5] (map double (hiphip/aconvolve (into-arr [1 2 3]) (into-arr [0 1 0.5]))))
+      "matches numpy.convolve")
+  (is (= [1.0 2.5 4.0] (map double (hiphip/aconvolve (into-arr [1 2 3]) (into-arr [0 1 0.5]) :same))))
+  (is (= [2.5] (map double (hiphip/aconvolve (into-arr [1 2 3]) (into-arr [0 1 0.5]) :valid))))
+  (is (= [0.5 2.0 3.5 3.0 0.0] (map double (hiphip/acorrelate (into-arr [1 2 3]) (into-arr [0 1 0.5]))))
+      "matches numpy.correlate")
+  (is (= [2.0 3.5 3.0] (map double (hiphip/acorrelate (into-arr [1 2 3]) (into-arr [0 1 0.5]) :same))))
+  (let [r (java.util.Random. 1)]
+    (doseq [nx [1 7 64 300]
+            nk [1 2 5 33 300]
+            :when (<= nk nx)
+            :let [xs (repeatedly nx #(- (.nextInt r 20) 10))
+                  ks (repeatedly nk #(- (.nextInt r 20) 10))
+                  full (naive-convolve xs ks)]]
+      (testing (format "convolving %s elements with %s" nx nk)
+        (is (= full (map long (hiphip/aconvolve (into-arr xs) (into-arr ks) :full :direct))))
+        (is (= (take nx (drop (quot (dec nk) 2) full))
+               (map long (hiphip/aconvolve (into-arr xs) (into-arr ks) :same :direct))))
+        (is (= (take (inc (- nx nk)) (drop (dec nk) full))
+               (map long (hiphip/aconvolve (into-arr xs) (into-arr ks) :valid :direct))))
+        (is (= (naive-convolve xs (reverse ks))
+               (map long (hiphip/acorrelate (into-arr xs) (into-arr ks) :full :direct))))
+        (doseq [mode [:full :same :valid]]
+          (is (approx= 1e-2
+                       (hiphip/aconvolve (into-arr xs) (into-arr ks) mode :direct)
+                       (hiphip/aconvolve (into-arr xs) (into-arr ks) mode :fft)))
+          (is (approx= 1e-2
+                       (hiphip/acorrelate (into-arr xs) (into-arr ks) mode :direct)
+                       (hiphip/acorrelate (into-arr xs) (into-arr ks) mode :fft)))))))
+  (is (thrown? IllegalArgumentException (hiphip/aconvolve (into-arr [1]) (into-arr [1 2]) :valid)))
+  (is (thrown? IllegalArgumentException (hiphip/aconvolve (into-arr [1]) (into-arr [1]) :bogus))))
+
+(defbenchmarktype aconvolve
+  (Baseline/convolve xs (java.util.Arrays/copyOf ys 5))
+  1.0 (hiphip/aconvolve xs (java.util.Arrays/copyOf ys 5) :full :direct))
+
+(deftestfasttype convolve-ops
+  (hiphip/aconvolve xs (java.util.Arrays/copyOf ys 2048) :full :direct)
+  0.5 (hiphip/aconvolve xs (java.util.Arrays/copyOf ys 2048) :full :fft)
+  0.5 (hiphip/aconvolve xs (java.util.Arrays/copyOf ys 2048)))
+
+(deftest ^:bench convolve-ops-bench
+  (convolve-ops (gen-array 10000 0) (gen-array 10000 1)))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for transcendental functions
+
+(defn- ulps
+  "Distance between the exact (double) result and the approximate one, in
+   ulps of the type being tested."
+  ^double [^double exact ^double approx]
+  (cond (and (Double/isNaN exact) (Double/isNaN approx)) 0.0
+        (or (Double/isNaN exact) (Double/isNaN approx)) Double/POSITIVE_INFINITY
+        (== exact approx) 0.0
+        (= +type+ 'float) (/ (Math/abs (- (double (float exact)) approx))
+                             (Math/ulp (float exact)))
+        :else (/ (Math/abs (- exact approx)) (Math/ulp exact))))
+
+(defn- max-ulps
+  "Max error in ulps of (f xs :fast) against (f xs :exact)."
+  [f xs]
+  (reduce max 0.0 (map ulps (f (hiphip/aclone xs) :exact) (f (hiphip/aclone xs) :fast))))
+
+(defn- random-arr [lo hi]
+  (let [r (java.util.Random. 1)]
+    (into-arr (repeatedly 10000 #(+ lo (* (- hi lo) (.nextDouble r)))))))
+
+(def ^:private max-ulps-bound 4)
+
+(deftest transcendental-test
+  (let [xs (random-arr -20 20)]
+    (is (= (seq (into-arr (map #(Math/exp %) xs))) (seq (hiphip/aexp! (hiphip/aclone xs)))))
+    (is (= (seq (into-arr (map #(Math/tanh %) xs))) (seq (hiphip/atanh! (hiphip/aclone xs)))))
+    (is (= (seq (into-arr (map #(/ 1.0 (+ 1.0 (Math/exp (- %)))) xs)))
+           (seq (hiphip/asigmoid! (hiphip/aclone xs)))))
+    (is (= (seq (into-arr (map #(Math/log (Math/abs (double %))) xs)))
+           (seq (hiphip/alog! (hiphip/amap [x xs] (Math/abs x)))))))
+  (testing "fast paths are accurate to within a few ulps"
+    (doseq [[lo hi] [[-25 25] [-1 1]]]
+      (is (<= (max-ulps hiphip/atanh! (random-arr lo hi)) max-ulps-bound) (str [lo hi]))))
+  (testing "special values"
+    (let [specials (into-arr [Double/NaN Double/POSITIVE_INFINITY Double/NEGATIVE_INFINITY
+                              0.0 -0.0 1e-310 1.0 -1.0 1000.0 -1000.0])]
+      (is (<= (max-ulps hiphip/atanh! specials) max-ulps-bound))))
+  (testing "softmax and logsumexp"
+    (let [xs (random-arr -20 20)
+          sm (hiphip/asoftmax! (hiphip/aclone xs))]
+      (is (< (Math/abs (- 1.0 (hiphip/asum sm))) 1e-3))
+      (is (== (hiphip/amax-index xs) (hiphip/amax-index sm)))
+      (is (< (Math/abs (- (double (Math/log (reduce + (map #(Math/exp %) xs))))
+                          (hiphip/alogsumexp xs)))
+             1e-3)))
+    (is (= [0.5 0.5] (map double (hiphip/asoftmax! (into-arr [1000 1000])))))
+    (is (== (+ 1000 (Math/log 2)) (hiphip/alogsumexp (into-arr [1000 1000]))))
+    (is (== Double/NEGATIVE_INFINITY (hiphip/alogsumexp (into-arr []))))
+    (is (empty? (hiphip/asoftmax! (into-arr [])))))
+  (is (thrown? IllegalArgumentException (hiphip/atanh! (into-arr [1]) :bogus))))
+
+(deftestfasttype tanh-ops
+  (hiphip/atanh! (hiphip/aclone xs))
+  0.7 (hiphip/atanh! (hiphip/aclone xs) :fast))
+
+(deftest ^:bench transcendental-ops-bench
+  (let [xs (random-arr -20 20)]
+    (println "max ulp error of the fast path of atanh!" (max-ulps hiphip/atanh! xs))
+    (tanh-ops xs xs)))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for random fills and sampling
+
+(deftest random-test
+  (let [n (+ (* 3 impl/parallel-chunk) 5)
+        xs (hiphip/arand! (hiphip/amake [_ n] 0) 42)
+        ys (hiphip/arandn! (hiphip/amake [_ n] 0) 42)]
+    (is (every? #(and (<= 0 %) (< % 1)) xs))
+    (is (< (Math/abs (- (hiphip/amean xs) 0.5)) 0.01))
+    (is (< (Math/abs (hiphip/amean ys)) 0.01))
+    (is (< (Math/abs (- (/ (hiphip/asum [y ys] (* y y)) n) 1.0)) 0.01))
+    (is (= (seq xs) (seq (hiphip/arand! (hiphip/amake [_ n] 0) 42 true))))
+    (is (= (seq ys) (seq (hiphip/arandn! (hiphip/amake [_ n] 0) 42 true))))
+    (testing "fills of ranges starting at odd indices match"
+      (let [part (hiphip/amake [_ n] 0)]
+        (hiphip.SplitMix/fillNormal part 3 8 42)
+        (is (= (take 5 (drop 3 ys)) (take 5 (drop 3 part)))))))
+  (let [sampler (hiphip/asampler (into-arr [1 0 3 6]))
+        draws (hiphip/asample sampler 100000 7)
+        counts (frequencies draws)]
+    (is (= 4 (.size sampler)))
+    (is (nil? (counts 1)))
+    (doseq [[k p] [[0 0.1] [2 0.3] [3 0.6]]]
+      (is (< (Math/abs (- (/ (counts k) 100000.0) p)) 0.01)))
+    (is (= (seq draws) (seq (hiphip/asample sampler 100000 7 true)))))
+  (is (thrown? IllegalArgumentException (hiphip/asampler (into-arr []))))
+  (is (thrown? IllegalArgumentException (hiphip/asampler (into-arr [0 0]))))
+  (is (thrown? IllegalArgumentException (hiphip/asampler (into-arr [1 -1])))))
+
+(set! *warn-on-reflection* false)
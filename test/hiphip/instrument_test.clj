@@ -0,0 +1,61 @@
+(ns hiphip.instrument-test
+  "Tests for per-call-site instrumentation of hiphip loops"
+  (:use clojure.test)
+  (:require [clojure.walk :as walk]
+            [hiphip.array :as array]
+            [hiphip.double :as dbl]
+            [hiphip.instrument :as instrument]))
+
+(set! *warn-on-reflection* true)
+
+(defn- compile-fn
+  "Compile (fn [xs] form) in this namespace, at line, with
+   instrumentation on or off."
+  [on? line form]
+  (binding [*ns* (the-ns 'hiphip.instrument-test)
+            instrument/*enabled* on?]
+    (eval (with-meta `(fn [~'xs] ~form) {:line line}))))
+
+(defn- mentions-probe? [form]
+  (let [found (atom false)]
+    (walk/postwalk #(do (when (instance? hiphip.Probe %) (reset! found true)) %) form)
+    @found))
+
+(deftest instrument-test
+  (let [xs (double-array (range 100))
+        sum (compile-fn true 1001 `(dbl/asum ~'xs))
+        sort (compile-fn true 1002 `(dbl/asort! (dbl/aclone ~'xs) 10 60))
+        plain (compile-fn false 1003 `(dbl/asum ~'xs))
+        top (compile-fn true 1004 `(dbl/amax-indices ~'xs 5))]
+    (instrument/reset!)
+    (is (= 4950.0 (sum xs) (plain xs)))
+    @(future (sum xs))
+    (sort xs)
+    (is (= (range 95 100) (drop 95 (top xs))))
+    (let [snap (instrument/snapshot)]
+      (is (= {:calls 2 :elements 200}
+             (-> snap (get "hiphip.instrument-test:1001 areduce") (select-keys [:calls :elements]))))
+      (is (<= 0 (:nanos (snap "hiphip.instrument-test:1001 areduce"))))
+      (is (= {:calls 1 :elements 50}
+             (-> snap (get "hiphip.instrument-test:1002 asort!") (select-keys [:calls :elements]))))
+      (is (= {:calls 1 :elements 100}
+             (-> snap (get "hiphip.instrument-test:1004 amax-indices") (select-keys [:calls :elements])))
+          "inlined, so recorded at the caller's site")
+      (is (not-any? #(.startsWith ^String % "hiphip.instrument-test:1003") (keys snap))))
+    (instrument/reset!)
+    (is (empty? (instrument/snapshot))))
+  (testing "probes are looked up once, and AOT compile as a lookup of their site"
+    (let [p (hiphip.Probe/forSite "hiphip.instrument-test:1005 areduce")]
+      (is (identical? p (hiphip.Probe/forSite "hiphip.instrument-test:1005 areduce")))
+      (is (identical? p (read-string (binding [*print-dup* true] (pr-str p)))))))
+  (testing "no trace in the generated code when off"
+    (doseq [form [`(array/areduce [~'x ~'xs] ~'s 0 (+ ~'s ~'x))
+                  `(array/amap ~'double [~'x ~'xs] ~'x)
+                  `(dbl/afilter [~'x ~'xs] (pos? ~'x))
+                  `(dbl/asort! ~'xs)]]
+      (binding [instrument/*enabled* false]
+        (is (not (mentions-probe? (walk/macroexpand-all form)))))
+      (binding [instrument/*enabled* true]
+        (is (mentions-probe? (walk/macroexpand-all form)))))))
+
+(set! *warn-on-reflection* false)
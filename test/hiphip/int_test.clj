@@ -3,4 +3,6 @@
   (:require [hiphip.int :as hiphip])
   (:import hiphip.int_.Baseline))
 
-(load "type_impl_test")
\ No newline at end of file
+(load "type_impl_test")
+(load "integral_impl_test")
+(load "facade_test")
\ No newline at end of file
@@ -0,0 +1,86 @@
+;;; Tests and benchmarks for the integral-only operations.
+;; Loaded after type_impl_test, in the test namespaces for int and long.
+
+(use 'clojure.test 'hiphip.test-utils)
+(require '[hiphip.impl.core :as impl])
+
+(set! *warn-on-reflection* true)
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for packed sorted arrays
+
+(defn- sorted-ids
+  "n sorted random ids, spaced by about gap, starting at start."
+  [n gap start seed]
+  (let [r (java.util.Random. seed)]
+    (into-arr (take n (reductions + start (repeatedly #(.nextInt r (inc (* 2 gap)))))))))
+
+(defn- multiset-intersection [xs ys]
+  (let [fx (frequencies xs) fy (frequencies ys)]
+    (sort (mapcat (fn [[k c]] (repeat (min c (fy k 0)) k)) fx))))
+
+(defn- naive-lower-bound [xs x]
+  (count (take-while #(< % x) xs)))
+
+(deftest packed-test
+  (doseq [n [0 1 2 127 128 129 1000]
+          gap [0 1 5 100000]
+          :let [xs (sorted-ids n gap -1000 n)
+                p (hiphip/apack xs)]]
+    (testing [n gap]
+      (is (= n (.size p)))
+      (is (= (seq xs) (seq (hiphip/aunpack p))))
+      (is (= (map long xs) (map #(.get p %) (range n))))
+      (is (= (reduce + 0 (map long xs)) (hiphip/apacked-sum p)))
+      (let [seen (java.util.ArrayList.)]
+        (hiphip/dopacked [[i x] p] (.add seen [i x]))
+        (is (= (seq (map vector (range) xs)) (seq seen))))
+      (doseq [x (concat [-2000 -1000 Integer/MAX_VALUE] (take 50 xs) (map inc (take 50 xs)))]
+        (is (= (naive-lower-bound xs x) (hiphip/apacked-search p x)))
+        (is (= (boolean (some #{x} (map long xs))) (hiphip/apacked-contains? p x))))
+      (doseq [[m gap2 start] [[n gap -1000] [500 3 -500] [50 1000 0] [0 1 0]]
+              :let [ys (sorted-ids m gap2 start 7)]]
+        (is (= (seq (multiset-intersection xs ys))
+               (seq (hiphip/apacked-intersect p (hiphip/apack ys))))))))
+  (testing "ranges and extremes"
+    (let [xs (into-arr (concat [(if (= +type+ 'int) Integer/MIN_VALUE Long/MIN_VALUE)]
+                               (range -5 5)
+                               [(if (= +type+ 'int) Integer/MAX_VALUE Long/MAX_VALUE)]))
+          p (hiphip/apack xs)]
+      (is (= (seq xs) (seq (hiphip/aunpack p))))
+      (is (= 1 (hiphip/apacked-search p -5)))
+      (is (= (range -5 5) (seq (hiphip/aunpack (hiphip/apack xs 1 11)))))))
+  (testing "compression"
+    (let [p (hiphip/apack (sorted-ids 100000 3 0 1))]
+      (is (< (.bytes p) (/ (* 8 100000) 5)))))
+  (testing "the indices from awhere"
+    (let [xs (into-arr [3 4 5 7 8 9])]
+      (is (= [0 2 3 5] (map long (hiphip/aunpack (hiphip/apack (hiphip/awhere [x xs] (odd? x)))))))
+      (is (= [2 3] (map long (hiphip/aunpack (hiphip/apack (hiphip/awhere [x xs] (odd? x)) 1 3)))))))
+  (is (thrown? IllegalArgumentException (hiphip/apack (into-arr [1 3 2]))))
+  (is (thrown? IllegalArgumentException (macroexpand-1 (list `hiphip/dopacked '[[i] nil]))))
+  (when (= +type+ 'int)
+    (is (thrown? IllegalArgumentException
+                 (hiphip/aunpack (hiphip.PackedLongs. (long-array [0 Long/MAX_VALUE])))))))
+
+(defmacro ^:private defpackedbench
+  "Like deftestfasttype, but for fns of an array and two hiphip.PackedLongs."
+  [name expr & slowness-and-exprs]
+  `(deftestfast ~name [~(impl/array-cast +type+ 'xs) ~'p ~'q]
+     ~expr
+     ~@(select-slowness slowness-and-exprs)))
+
+(defpackedbench packed-ops
+  (hiphip/asum xs)
+  3.5 (hiphip/apacked-sum p)
+  nil (let [^hiphip.PackedLongs p p] (hiphip/areduce [x xs] n 0 (+ n (.lowerBound p x))))
+  nil (hiphip/apacked-intersect p q))
+
+(deftest ^:bench packed-ops-bench
+  (let [xs (sorted-ids 1000000 3 0 1)
+        p (hiphip/apack xs)]
+    (println "packed" (hiphip/alength xs) "ids into" (.bytes p) "bytes, vs"
+             (* (if (= +type+ 'int) 4 8) (hiphip/alength xs)))
+    (packed-ops xs p (hiphip/apack (sorted-ids 1000 3000 0 2)))))
+
+(set! *warn-on-reflection* false)
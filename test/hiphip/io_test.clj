@@ -0,0 +1,127 @@
+(ns hiphip.io-test
+  "Tests and benchmarks for reading and writing arrays with hiphip.io"
+  (:use clojure.test)
+  (:require [hiphip.io :as hio])
+  (:import [java.io ByteArrayInputStream ByteArrayOutputStream DataInputStream
+            DataOutputStream File FileInputStream FileOutputStream
+            BufferedInputStream BufferedOutputStream]))
+
+(set! *warn-on-reflection* true)
+
+(defn- temp-file ^File []
+  (doto (File/createTempFile "hiphip-io" ".bin") .deleteOnExit))
+
+(defn- round-trip
+  "Write xs to bytes with opts, then read it back, in chunks of
+   chunk-size through buffers of buffer-bytes."
+  [xs chunk-size buffer-bytes opts]
+  (let [out (ByteArrayOutputStream.)]
+    (with-open [^java.io.Closeable w (apply hio/array-writer out (#'hio/array-type xs) (count xs)
+                         :buffer-bytes buffer-bytes opts)]
+      (doseq [start (range 0 (count xs) chunk-size)]
+        (hio/write-chunk! w xs start (min (count xs) (+ start chunk-size)))))
+    (with-open [r (hio/array-reader (ByteArrayInputStream. (.toByteArray out))
+                                    :buffer-bytes buffer-bytes)]
+      (is (= (count xs) (.length r)))
+      (doall (mapcat seq (hio/read-chunks r chunk-size))))))
+
+(deftest round-trip-test
+  (let [r (java.util.Random. 1)
+        n 1000
+        sorted (sort (repeatedly n #(- (.nextInt r 1000000) 1000)))
+        arrays {:double (double-array (repeatedly n #(.nextGaussian r)))
+                :float (float-array (repeatedly n #(.nextGaussian r)))
+                :int (int-array (repeatedly n #(.nextInt r)))
+                :long (long-array (repeatedly n #(.nextLong r)))}]
+    (doseq [[type xs] arrays
+            order [:native :big :little]
+            chunk-size [1 7 1000]
+            buffer-bytes [16 100 65536]]
+      (testing [type order chunk-size buffer-bytes]
+        (is (= (seq xs) (round-trip xs chunk-size buffer-bytes [:byte-order order])))))
+    (doseq [xs [(int-array sorted) (long-array sorted)
+                (long-array [Long/MIN_VALUE -1 0 0 Long/MAX_VALUE])
+                (int-array [Integer/MIN_VALUE 0 Integer/MAX_VALUE])
+                (int-array 0)]
+            chunk-size [1 7 1000]
+            buffer-bytes [16 100 65536]]
+      (testing ["delta-varint" (class xs) chunk-size buffer-bytes]
+        (is (= (seq xs)
+               (seq (round-trip xs chunk-size buffer-bytes [:encoding :delta-varint]))))))))
+
+(deftest file-test
+  (let [f (temp-file)
+        xs (double-array (range 100000))
+        ids (long-array (range 0 300000 3))]
+    (hio/write-array! f xs)
+    (is (= (+ 16 (* 8 100000)) (.length f)))
+    (is (= (seq xs) (seq (hio/read-array f))))
+    (hio/write-array! (str f) ids :encoding :delta-varint)
+    (is (= (+ 16 10 99999) (.length f)) "one byte per delta after the first")
+    (is (= (seq ids) (seq (hio/read-array f))))
+    (with-open [r (hio/array-reader f)]
+      (is (= :long (hio/element-type r)))
+      (let [buf (long-array 10)]
+        (is (= 10 (hio/read-chunk! r buf)))
+        (is (= (range 0 30 3) (seq buf)))
+        (is (= 99990 (.remaining r)))
+        (is (= 99990 (reduce + (map count (hio/read-chunks r 4096)))))
+        (is (= -1 (hio/read-chunk! r buf)))))
+    (hio/write-array! f (float-array 0))
+    (is (= [] (vec (hio/read-array f))))))
+
+(deftest error-test
+  (let [f (temp-file)]
+    (is (thrown? IllegalArgumentException
+                 (hio/write-array! f (long-array [3 2 1]) :encoding :delta-varint)))
+    (is (thrown? IllegalArgumentException
+                 (hio/write-array! f (double-array [1]) :encoding :delta-varint)))
+    (is (thrown? IllegalArgumentException (hio/write-array! f (double-array [1]) :encoding :zip)))
+    (is (thrown? IllegalArgumentException (hio/write-array! f (short-array [1]))))
+    (is (thrown? IllegalStateException
+                 (with-open [w (hio/array-writer f :double 3)]
+                   (hio/write-chunk! w (double-array 2)))))
+    (is (thrown? IllegalStateException
+                 (with-open [w (hio/array-writer f :double 3)]
+                   (hio/write-chunk! w (double-array 4)))))
+    (is (thrown? IllegalArgumentException
+                 (with-open [w (hio/array-writer f :double 1)]
+                   (hio/write-chunk! w (long-array 1)))))
+    (hio/write-array! f (double-array 10))
+    (is (thrown? IllegalArgumentException (hio/read-array f :buffer-bytes 8)))
+    (with-open [r (hio/array-reader f)]
+      (is (thrown? IllegalArgumentException (hio/read-chunk! r (long-array 1)))))
+    (testing "truncated streams"
+      (let [bytes (java.nio.file.Files/readAllBytes (.toPath f))]
+        (is (thrown? java.io.EOFException
+                     (hio/read-array (ByteArrayInputStream. bytes 0 40))))
+        (is (thrown? java.io.EOFException
+                     (hio/read-array (ByteArrayInputStream. bytes 0 10))))
+        (is (thrown? java.io.IOException
+                     (hio/read-array (ByteArrayInputStream. (byte-array 16)))))))))
+
+(defn- time-ms [f]
+  (let [start (System/nanoTime)]
+    (f)
+    (/ (- (System/nanoTime) start) 1e6)))
+
+(deftest ^:bench io-bench
+  (let [f (temp-file)
+        n 10000000
+        xs (double-array (range n))
+        ids (long-array (range n))
+        runs (fn [label f]
+               (println label (format "%.1f ms" (apply min (repeatedly 5 #(time-ms f))))))]
+    (runs "DataOutputStream, per element"
+          #(with-open [out (DataOutputStream. (BufferedOutputStream. (FileOutputStream. f)))]
+             (dotimes [i n] (.writeDouble out (aget xs i)))))
+    (runs "DataInputStream, per element"
+          #(with-open [in (DataInputStream. (BufferedInputStream. (FileInputStream. f)))]
+             (let [ys (double-array n)] (dotimes [i n] (aset ys i (.readDouble in))))))
+    (runs "write-array! doubles" #(hio/write-array! f xs))
+    (runs "read-array doubles" #(hio/read-array f))
+    (runs "write-array! longs :delta-varint" #(hio/write-array! f ids :encoding :delta-varint))
+    (println "  file size" (.length f) "bytes, vs" (* 8 n) "raw")
+    (runs "read-array longs :delta-varint" #(hio/read-array f))))
+
+(set! *warn-on-reflection* false)
@@ -0,0 +1,96 @@
+(ns hiphip.object-test
+  "Tests and benchmarks for object arrays"
+  (:use clojure.test hiphip.test-utils)
+  (:require [hiphip.object :as object]))
+
+(set! *warn-on-reflection* true)
+
+(defrecord Point [^double x ^long id])
+
+(defn- points [n seed]
+  (let [r (java.util.Random. seed)]
+    (object/amake [i n] (Point. (double (.nextInt r 100)) i))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for the binding macros
+
+(deftest binding-macro-test
+  (let [^{:tag "[Ljava.lang.String;"} ss (into-array String ["a" "bb" "ccc" "dd"])]
+    (is (= 8 (object/areduce [^String s ss] n 0 (+ n (.length s)))))
+    (is (= [[0 "a"] [1 "bb"]] (seq (object/amap [:range [0 2] [i s] ss] [i s]))))
+    (is (= ["bb" "dd"] (seq (object/afilter [^String s ss] (= 2 (.length s))))))
+    (is (identical? ss (object/afill! [^String s ss] (.toUpperCase s))))
+    (is (= ["A" "BB" "CCC" "DD"] (seq ss)))
+    (is (thrown? ArrayStoreException (object/afill! [s ss] :a)))
+    (let [res (atom [])]
+      (object/doarr [[i s] ss :range [2 4]] (swap! res conj [i s]))
+      (is (= [[2 "CCC"] [3 "DD"]] @res)))
+    (is (= 4 (object/alength ss)))
+    (is (= "BB" (object/aget ss 1)))
+    (is (= ["item-0" "item-1"] (seq (object/amake [i 2] (str "item-" i)))))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for sorting and selection
+
+(defn- by-x [ps] (map #(.x ^Point %) ps))
+
+(deftest sort-test
+  (doseq [n [0 1 2 33 1000 20000 150000]
+          parallel? [false true]
+          :let [ps (points n n)
+                v (vec ps)
+                expected (vec (sort-by :x v))]]
+    (testing [n parallel?]
+      (is (= expected (vec (object/asort! #(compare (:x %1) (:x %2)) (object/aclone ps)
+                                          parallel?))))
+      (doseq [keyfn [(fn ^double [^Point p] (.x p))
+                     (fn ^long [^Point p] (long (.x p)))
+                     :x]]
+        (is (= expected (mapv v (object/asort-indices-by! keyfn ps parallel?)))))
+      (is (= expected (mapv v (object/asort-indices! #(compare (:x %1) (:x %2)) ps parallel?))))
+      (is (= v (vec ps)))))
+  (let [ss (object-array ["d" "a" "c" "b" "e"])]
+    (is (= [0 1 3 2 4] (seq (object/asort-indices! (int-array [0 1 2 3 4]) compare ss 1 4))))
+    (is (= ["d" "a" "b" "c" "e"] (seq (object/asort! compare ss 1 4))))
+    (is (= ["a" "b" "c" "d" "e"] (seq (object/asort! ss)))))
+  (is (= [1 0 2] (seq (object/asort-indices-by! (fn ^double [x] (double x))
+                                               (object-array [Double/NaN 1.0 Double/NaN])))))
+  (is (thrown? IndexOutOfBoundsException (object/asort! compare (object-array 3) 1 4))))
+
+(deftest select-test
+  (doseq [n [1 2 33 1000]
+          k [0 1 (quot n 2) n]
+          :let [ps (points n (+ n k))
+                v (vec ps)
+                expected (frequencies (take k (sort (by-x v))))]]
+    (testing [n k]
+      (is (= expected (frequencies (take k (by-x (object/aselect! #(compare (:x %1) (:x %2))
+                                                                  (object/aclone ps) k))))))
+      (is (= expected (frequencies (take k (by-x (map v (object/aselect-indices!
+                                                         #(compare (:x %1) (:x %2)) ps k)))))))
+      (doseq [keyfn [(fn ^double [^Point p] (.x p)) :x]
+              parallel? [false true]]
+        (is (= expected (frequencies (take k (by-x (map v (object/aselect-indices-by!
+                                                           keyfn ps k parallel?))))))))))
+  (let [ss (object-array ["e" "d" "c" "b" "a"])]
+    (is (= ["e" "b" "c" "d" "a"] (seq (object/aselect! compare ss 1 4 1))))
+    (is (= [4 1] (take 2 (object/aselect-indices! ss 2)))))
+  (is (thrown? IllegalArgumentException (object/aselect! (object-array 3) 4)))
+  (is (thrown? IndexOutOfBoundsException
+               (object/aselect-indices-by! (int-array [0 1 5]) identity (object-array 3) 0 3 1))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Benchmarks
+
+(defbenchmark sort-indices-by-key [^objects ps]
+  (int-array (sort-by #(.x ^Point (aget ps %)) (range (alength ps))))
+  0.6 (object/asort-indices-by! (fn ^double [^Point p] (.x p)) ps)
+  0.9 (object/asort-indices-by! :x ps)
+  0.8 (object/asort-indices! #(compare (.x ^Point %1) (.x ^Point %2)) ps)
+  nil (object/asort-indices-by! (fn ^double [^Point p] (.x p)) ps true))
+
+(deftest hiphip-object-test
+  (test-sort-indices-by-key (points 10000 1)))
+
+(deftest ^:bench hiphip-object-bench
+  (bench-sort-indices-by-key (points 10000 1)))
@@ -3,7 +3,7 @@
 ;; and the appropriate Java baseline class has been imported as 'Baseline'
 
 (use 'clojure.test 'hiphip.test-utils)
-(require '[hiphip.impl.core :as impl])
+(require '[hiphip.impl.core :as impl] '[clojure.core.reducers :as r])
 
 (def +type+ hiphip/+type+)
 
@@ -110,6 +110,38 @@
   (is (= [0 6 5]
          (take 3 (hiphip/amin-indices (into-arr [-2 3 4 2 3 1 -1]) 3)))))
 
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for incremental top k
+
+(defn- naive-top [xs order k]
+  (->> (map vector xs (range))
+       (sort-by (fn [[x i]] [(if (= order :max) (- x) x) i]))
+       (map second)
+       (take k)))
+
+(deftest top-k-test
+  (let [r (java.util.Random. 1)]
+    (doseq [n [0 1 2 5 100 1000]
+            order [:max :min]
+            :let [xs (into-arr (repeatedly n #(.nextInt r 50)))
+                  t (hiphip/atop-index xs order)]]
+      (testing [n order]
+        (is (= (if (zero? n) -1 (first (naive-top xs order 1))) (hiphip/atop-best t)))
+        (dotimes [_ 20]
+          (when (pos? n)
+            (if (.nextBoolean r)
+              (hiphip/atop-set! t (.nextInt r n) (.nextInt r 60))
+              (let [i (.nextInt r n)]
+                (hiphip/aset xs i (- (.nextInt r 60) 10))
+                (hiphip/atop-update! t i))))
+          (let [k (.nextInt r (inc (min n 20)))]
+            (is (= (seq (naive-top xs order k)) (seq (hiphip/atop-k t k))))))
+        (is (= (naive-top xs order n) (take n (hiphip/atop-k t n (int-array (inc n)))))))))
+  (let [t (hiphip/atop-index (into-arr [3 1 2]))]
+    (is (thrown? IllegalArgumentException (hiphip/atop-k t 4)))
+    (is (thrown? IndexOutOfBoundsException (hiphip/atop-set! t 3 0)))
+    (is (thrown? IllegalArgumentException (hiphip/atop-index (into-arr [1]) :bogus)))))
+
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;;; Simple tests for typehinted hiphip.array fns, including :let and :range
 
@@ -120,6 +152,15 @@
                              x (into-arr [1 2 3 4])
                              :let [y (* x 2)]]
                             r 0 (+ r (long (* x y))))))
+  (is (= [1 4 10]
+         (map long (let [xs (into-arr [3 1 4 2])]
+                     (hiphip/areduce* [x xs]
+                                      [lo (hiphip/aget xs 0) hi (hiphip/aget xs 0) s 0]
+                                      [(min lo x) (max hi x) (+ s (long x))])))))
+  (is (= 7 (hiphip/areduce* [:range [1 3] [i x] (into-arr [1 2 3 4])]
+                            [s 0 n 0]
+                            [(+ s (long x)) (+ n i)]
+                            (- (* 2 s) n))))
   (let [res (atom [])]
     (hiphip/doarr [:range [1 3]
                    [i x] (into-arr [1 2 3 4])
@@ -134,9 +175,99 @@
   (let [a (into-arr [1 2 3 4])]
     (is (= a (hiphip/afill! [:range [1 3] x a x a :let [y (* x x)]]
                             (+ y 2))))
-    (is (= [1 6 11 4] (map long a)))))
+    (is (= [1 6 11 4] (map long a))))
+  (is (= [[2 4] [4 9]]
+         (map #(map long %)
+              (hiphip/amap-multi [:range [1 3] [i x] (into-arr [1 2 3 4])]
+                                 [(* 2 i) (* x x)]))))
+  (let [a (into-arr [0 0 0])
+        b (into-arr [0 0 0])
+        [a' b'] (hiphip/afill-multi! [x a y b z (into-arr [1 2 3]) :let [w (+ z 1)]]
+                                     [(* w z) (- w z)])]
+    (is (identical? a a'))
+    (is (identical? b b'))
+    (is (= [2 6 12] (map long a)))
+    (is (= [1 1 1] (map long b))))
+  (is (= [3 4] (map long (hiphip/afilter [x (into-arr [1 3 2 4]) y (into-arr [2 2 2 2])] (> x y)))))
+  (is (= [1 3] (map long (hiphip/afilter [:range [1 4] x (into-arr [0 1 2 3])] (odd? (long x))))))
+  (is (= [] (map long (hiphip/afilter [x (into-arr [1 2])] false))))
+  (is (= [1 3] (seq (hiphip/awhere [[i x] (into-arr [0 1 0 1])] (pos? x)))))
+  (is (= [2 4] (map long (hiphip/acompress (boolean-array [false true false true])
+                                           (into-arr [1 2 3 4])))))
+  (let [a (into-arr [1 2 3 4])]
+    (is (thrown? IndexOutOfBoundsException
+                 (hiphip/afill! [:range [2 5] x a] (inc x))))
+    (is (thrown? IndexOutOfBoundsException
+                 (hiphip/afill! [x a y (into-arr [1 2])] (+ x y))))
+    (is (= [1 2 3 4] (map long a)))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for sliding windows
+
+(defn- windows [s w] (partition w 1 s))
+
+(defn- mean [s] (/ (double (reduce + s)) (count s)))
+
+(defn- variance [s]
+  (let [m (mean s)] (mean (map #(let [d (- % m)] (* d d)) s))))
+
+(defn- close? [xs ys]
+  (and (= (count xs) (count ys))
+       (every? #(< (Math/abs (double %)) 1e-9) (map - xs ys))))
+
+(deftest sliding-window-test
+  (let [r (java.util.Random. 1)
+        s (repeatedly 200 #(- (.nextInt r 100) 50))
+        a (into-arr s)]
+    (doseq [w [1 2 7 50 200]]
+      (testing (format "window %s" w)
+        (is (= (map #(reduce + %) (windows s w)) (map long (hiphip/amoving-sum a w))))
+        (is (= (map #(apply max %) (windows s w)) (map long (hiphip/amoving-max a w))))
+        (is (= (map #(apply min %) (windows s w)) (map long (hiphip/amoving-min a w))))
+        (is (close? (map mean (windows s w)) (hiphip/amoving-mean a w)))
+        (is (close? (map variance (windows s w)) (hiphip/amoving-var a w))))))
+  (let [out (into-arr [0 0 0 0])]
+    (is (identical? out (hiphip/amoving-sum (into-arr [1 2 3 4]) 2 out)))
+    (is (= [3 5 7 0] (map long out))))
+  (is (thrown? IllegalArgumentException (hiphip/amoving-max (into-arr [1 2]) 3)))
+  (is (thrown? IllegalArgumentException (hiphip/amoving-mean (into-arr [1 2]) 0)))
+  (is (thrown? IllegalArgumentException (hiphip/amoving-var (into-arr [1 2]) 2 (double-array 0)))))
 
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Tests for pooled temporaries
+
+(deftest pool-test
+  (hiphip/apool-clear!)
+  (hiphip/apool-reset-stats!)
+  (let [a (hiphip/amake-into [i 3] (inc i))]
+    (is (= [1 2 3] (map long a)))
+    (is (= {:hits 0 :misses 1 :releases 0 :drops 0} (hiphip/apool-stats)))
+    (hiphip/arelease! a)
+    (let [b (hiphip/amap-into [:range [1 4] x (into-arr [1 2 3 4])] (* 2 x))]
+      (is (identical? a b))
+      (is (= [4 6 8] (map long b)))
+      (is (= {:hits 1 :misses 1 :releases 1 :drops 0} (hiphip/apool-stats))))
+    (is (= 2 (hiphip/alength (hiphip/aborrow 2))))
+    (is (= 1 (:hits (hiphip/apool-stats)))))
+  (testing "arrays are only reused at their own length"
+    (hiphip/arelease! (hiphip/amake-into [i 4] 100))
+    (let [a (hiphip/amake-into [i 3] (* i i))]
+      (is (= 3 (hiphip/alength a)))
+      (is (== 5 (hiphip/asum a))))
+    (hiphip/arelease! (hiphip/amake-into [i 8] 7))
+    (let [b (hiphip/amap-into [x (into-arr [1 2 3 4 5])] (* 2 x))]
+      (is (= [2 4 6 8 10] (map long b))))
+    (let [a (hiphip/aborrow 10001)]
+      (hiphip/arelease! a)
+      (is (not (identical? a (hiphip/aborrow 10000))))
+      (is (identical? a (hiphip/aborrow 10001)))))
+  (testing "the pool is bounded"
+    (doseq [a (doall (repeatedly 100 #(hiphip/aborrow 1)))]
+      (hiphip/arelease! a))
+    (is (pos? (:drops (hiphip/apool-stats)))))
+  (hiphip/apool-clear!))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;;; Benchmark/equality tests
 
 (defn- select-slowness
@@ -311,6 +442,48 @@
   (Baseline/aproduct xs)
   1.1 (hiphip/aproduct xs))
 
+(defmacro typed-zero [] (impl/value-cast +type+ 0))
+
+(defbenchmarktype areduce*
+  (Baseline/min_max_sum xs)
+  {:double 1.5 :float 2.0 :long 1.5 :int 1.5}
+  (hiphip/areduce* [x xs]
+                   [lo (hiphip/aget xs 0) hi (hiphip/aget xs 0) s (typed-zero)]
+                   [(min lo x) (max hi x) (+ s x)]))
+
+(defbenchmarktype afilter
+  (Baseline/filter_positive xs)
+  {:double 1.5 :float 1.5 :long 1.5 :int 1.5}
+  (hiphip/afilter [x xs] (pos? x))
+  nil (into-arr (filter pos? xs)))
+
+(defmacro naive-moving [op xs w]
+  `(let [xs# ~xs w# ~w]
+     (hiphip/amap [[i# x#] xs# :range [0 (inc (- (hiphip/alength xs#) w#))]]
+                  (hiphip/areduce [y# xs# :range [i# (+ i# w#)]] r# (typed-zero) (~op r# y#)))))
+
+(defbenchmarktype amoving-sum
+  (Baseline/moving_sum xs 16)
+  0.5 (hiphip/amoving-sum xs 16)
+  nil (naive-moving + xs 16))
+
+(defbenchmarktype amoving-max
+  (Baseline/moving_max xs 16)
+  0.7 (hiphip/amoving-max xs 16))
+
+(defbenchmarktype amul
+  (Baseline/multiply_in_place_pointwise xs ys)
+  1.2 (hiphip/amul xs ys xs)
+  nil (hiphip/afill! [x xs y ys] (* x y)))
+
+(defbenchmarktype aaxpy!
+  (hiphip/afill! [x xs y ys] (+ x (* 3 y)))
+  1.2 (hiphip/aaxpy! 3 ys xs))
+
+(defbenchmarktype aclip!
+  (hiphip/afill! [x xs] (if (< x -1) -1 (if (> x 1) 1 x)))
+  1.2 (hiphip/aclip! xs -1 1))
+
 (defbenchmarktype amean
   (Baseline/amean xs)
   {:double 1.1 :float 1.1 :long 3.3 :int 3.3}
@@ -337,6 +510,196 @@
   (Baseline/amin xs)
   1.1 (hiphip/amin xs))
 
+(deftest random-fill-test
+  (let [n (+ (* 3 impl/parallel-chunk) 5)
+        xs (hiphip/arand-int! (hiphip/amake [_ n] 0) 6 42)]
+    (is (every? #(< -1 % 6) xs))
+    (is (= #{0 1 2 3 4 5} (set (map long xs))))
+    (is (= (seq xs) (seq (hiphip/arand-int! (hiphip/amake [_ n] 0) 6 42 true)))
+        "parallel fills match serial ones")
+    (is (not= (seq xs) (seq (hiphip/arand-int! (hiphip/amake [_ n] 0) 6 43)))))
+  (is (thrown? IllegalArgumentException (hiphip/arand-int! (into-arr [0]) 0))))
+
+(def ^:private prim-tag (if (#{'double 'float} +type+) 'double 'long))
+
+(defmacro prim-acc-fn
+  "A reducing fn of a primitive accumulator and element, e.g. (fn ^double [^double a ^double x])."
+  [[acc x] body]
+  `(fn ~(with-meta [(with-meta acc {:tag prim-tag}) (with-meta x {:tag prim-tag})] {:tag prim-tag})
+     ~body))
+
+(defmacro prim-elem-fn
+  "A reducing fn of an Object accumulator and a primitive element, e.g. (fn [a ^double x])."
+  [[acc x] body]
+  `(fn [~acc ~(with-meta x {:tag prim-tag})] ~body))
+
+(defmacro both-acc-fn
+  "A reducing fn with both a primitive and an Object accumulator, as
+   (fn [acc x] body) with x primitive."
+  [[acc x] body]
+  (let [[xx ox] (if (= prim-tag 'double)
+                  '[clojure.lang.IFn$DDD clojure.lang.IFn$ODO]
+                  '[clojure.lang.IFn$LLL clojure.lang.IFn$OLO])
+        x (with-meta x {:tag prim-tag})]
+    `(reify
+       ~xx (~(with-meta 'invokePrim {:tag prim-tag}) [_# ~(with-meta acc {:tag prim-tag}) ~x] ~body)
+       ~ox (~'invokePrim [_# ~acc ~x] ~body))))
+
+(defmacro prim-fn
+  "A one-arg fn with a primitive signature, e.g. (fn ^double [^double x]),
+   or with just a primitive argument or return value if the first arg is
+   :arg or :ret."
+  [& args]
+  (let [[which [x] body] (if (keyword? (first args)) args (cons :both args))]
+    `(fn ~(with-meta [(if (#{:both :arg} which) (with-meta x {:tag prim-tag}) x)]
+            (when (#{:both :ret} which) {:tag prim-tag}))
+       ~body)))
+
+(deftest reducible-test
+  (let [xs (into-arr (take 100001 (cycle [-2 3 0 -1 0 1 -1 2 3])))
+        total (long (hiphip/asum xs))]
+    (is (== total (reduce + (hiphip/areducible xs))))
+    (is (== total (reduce + 0 (hiphip/areducible xs))))
+    (is (== total (reduce (prim-acc-fn [a x] (+ a x)) 0 (hiphip/areducible xs))))
+    (is (== total (reduce (prim-acc-fn [a x] (+ a x)) (hiphip/areducible xs))))
+    (is (== total (reduce (prim-elem-fn [a x] (+ (long a) x)) 0 (hiphip/areducible xs))))
+    (is (== total (r/fold + (prim-acc-fn [a x] (+ a x)) (hiphip/areducible xs))))
+    (is (== (+ total 100001) (r/fold 1000 + + (r/map inc (hiphip/areducible xs)))))
+    (is (= (frequencies xs) (r/fold (r/monoid (partial merge-with +) hash-map)
+                                    (fn [m x] (update-in m [x] (fnil inc 0)))
+                                    (hiphip/areducible xs))))
+    (is (== (* 4 total) (r/fold 1 + (fn [a ys] (+ a (r/fold 1000 + + (hiphip/areducible ys))))
+                                (vec (repeat 4 xs))))
+        "folds nest, running inner folds in the outer fold's pool")
+    (is (= 100001 (count (hiphip/areducible xs)))))
+  (let [xs (into-arr [1 2 3 4 5 6])]
+    (is (== 12 (reduce + (hiphip/areducible xs 2 5))))
+    (is (= 3 (count (hiphip/areducible xs 2 5))))
+    (is (== 0 (reduce + (hiphip/areducible xs 2 2))))
+    (is (== 6 (reduce (fn [a x] (if (> a 5) (reduced a) (+ a x))) 0 (hiphip/areducible xs))))
+    (is (== 6 (reduce (prim-elem-fn [a x] (if (> (long a) 5) (reduced a) (+ (long a) x)))
+                      0 (hiphip/areducible xs))))
+    (is (= [2 3] (into [] (r/map long (r/take 2 (hiphip/areducible xs 1 6))))))
+    (testing "only a Long or Double init takes the primitive accumulator"
+      (let [f (both-acc-fn [a x] (+ a x))]
+        (is (== 21.5 (reduce f 0.5 (hiphip/areducible xs))))
+        (is (= 21.5 (hiphip/areduce-fn f 0.5 xs)))
+        (is (= (+ (bigint Long/MAX_VALUE) (hiphip/asum xs)) (hiphip/areduce-fn f (bigint Long/MAX_VALUE) xs)))
+        (is (== 21 (hiphip/areduce-fn f xs))))))
+  (is (thrown? IndexOutOfBoundsException (hiphip/areducible (into-arr [1 2]) 1 3))))
+
+(deftest stream-test
+  (let [r (java.util.Random. 1)
+        vs (vec (repeatedly 1000 #(- (.nextInt r 200) 100)))
+        chunks (loop [more vs chunks []]
+                 (if (seq more)
+                   (let [n (.nextInt r 50)]
+                     (recur (drop n more) (conj chunks (into-arr (take n more)))))
+                   chunks))]
+    (doseq [opts [[] [:read-ahead 0] [:read-ahead 1] [:read-ahead 3]]]
+      (testing opts
+        (is (== (reduce + vs) (apply hiphip/astream-sum chunks opts)))
+        (is (== (/ (reduce + vs) 1000.0) (apply hiphip/astream-mean chunks opts)))
+        (let [[i x] (apply hiphip/astream-max-index chunks opts)]
+          (is (= (.indexOf ^java.util.List vs (apply max vs)) i))
+          (is (== (apply max vs) x)))
+        (let [[i x] (apply hiphip/astream-min-index chunks opts)]
+          (is (= (.indexOf ^java.util.List vs (apply min vs)) i))
+          (is (== (apply min vs) x)))
+        (is (= (for [b (range 10)]
+                 (count (filter #(and (<= (- (* 10 b) 50) %) (< % (- (* 10 b) 40))) vs)))
+               (seq (apply hiphip/astream-histogram chunks -50 50 10 opts)))))))
+  (testing "empty"
+    (is (== 0 (hiphip/astream-sum [])))
+    (is (Double/isNaN (hiphip/astream-mean [(into-arr [])])))
+    (is (nil? (hiphip/astream-max-index [(into-arr []) (into-arr [])] :read-ahead 2))))
+  (testing "errors"
+    (is (thrown? IllegalArgumentException (hiphip/astream-sum [] :read-ahead -1)))
+    (is (thrown? IllegalArgumentException (hiphip/astream-histogram [] 1 1 10)))
+    (is (thrown? IllegalArgumentException (hiphip/astream-histogram [] 0 1 0)))
+    (is (thrown? ArithmeticException
+                 (hiphip/astream-sum (map #(into-arr [(/ 1 %)]) [1 0]) :read-ahead 1))))
+  (testing "the read-ahead thread stops when the consumer throws mid-stream"
+    (let [realized (atom 0)
+          chunks (map (fn [i] (swap! realized inc) (if (== i 3) "not an array" (into-arr [i])))
+                      (range))
+          read-ahead-threads (fn [] (filter #(and (= "hiphip-read-ahead" (.getName ^Thread %))
+                                                  (.isAlive ^Thread %))
+                                            (keys (Thread/getAllStackTraces))))]
+      (is (thrown? ClassCastException (hiphip/astream-sum chunks :read-ahead 2)))
+      (is (thrown? ClassCastException (hiphip/astream-histogram chunks 0 10 10 :read-ahead 2)))
+      (loop [tries 0]
+        (when (and (seq (read-ahead-threads)) (< tries 50))
+          (Thread/sleep 20)
+          (recur (inc tries))))
+      (is (empty? (read-ahead-threads)))
+      (let [n @realized]
+        (Thread/sleep 100)
+        (is (== n @realized))))))
+
+(deftest elementwise-test
+  (let [xs (into-arr [1 -2 3 -4 5 -6])
+        ys (into-arr [2 3 -1 4 -5 1])
+        v (fn [arr] (map long arr))]
+    (is (= [3 1 2 0 0 -5] (v (hiphip/aadd xs ys))))
+    (is (= [-1 -5 4 -8 10 -7] (v (hiphip/asub xs ys))))
+    (is (= [2 -6 -3 -16 -25 -6] (v (hiphip/amul xs ys))))
+    (is (= [0 0 -3 -1 -1 -6] (v (hiphip/adiv (hiphip/aclone xs) ys))))
+    (is (= [1 -2 3 -4 5 -6] (v xs)))
+    (let [zs (hiphip/aclone xs)]
+      (is (identical? zs (hiphip/aadd xs ys zs 1 4)))
+      (is (= [1 1 2 0 5 -6] (v zs)))
+      (is (identical? zs (hiphip/amul zs zs zs)))
+      (is (= [1 1 4 0 25 36] (v zs))))
+    (let [zs (hiphip/aclone ys)]
+      (is (identical? zs (hiphip/aaxpy! 2 xs zs)))
+      (is (= (v (hiphip/afill! [y (hiphip/aclone ys) x xs] (+ y (* 2 x)))) (v zs)))
+      (is (= [4 1 2 0 0 -5] (v (hiphip/aaxpy! -1 xs zs 1 6)))))
+    (is (= [3 -6 9 -4 5 -6] (v (hiphip/ascale! (hiphip/aclone xs) 3 0 3))))
+    (is (= [1 -2 3 -3 3 -3] (v (hiphip/aclip! (hiphip/aclone xs) -3 3))))
+    (is (= [1 -2 3 -4 3 -3] (v (hiphip/aclip! (hiphip/aclone xs) -3 3 4 6))))
+    (is (= [1 2 3 4 5 6] (v (hiphip/aabs! (hiphip/aclone xs)))))
+    (is (= [1 2 3 -4 5 -6] (v (hiphip/aabs! (hiphip/aclone xs) 0 3))))
+    (is (= [] (v (hiphip/aadd (into-arr []) (into-arr [])))))
+    (is (thrown? IndexOutOfBoundsException (hiphip/aadd xs (into-arr [1 2]))))
+    (is (thrown? IndexOutOfBoundsException (hiphip/aadd xs ys (into-arr [1 2 3 4 5 6 7]))))
+    (is (thrown? IndexOutOfBoundsException (hiphip/ascale! xs 2 3 7)))
+    (is (thrown? IndexOutOfBoundsException (hiphip/aabs! xs 4 3)))
+    (is (thrown? IllegalArgumentException (hiphip/aclip! xs 1 0)))
+    (is (= [1 -2 3 -4 5 -6] (v xs)))))
+
+(deftest fn-variants-test
+  (let [xs (into-arr [1 2 3 4])
+        ys (into-arr [5 6 7 8])]
+    (doseq [f [(prim-fn [x] (* x 3))
+               (fn [x] (* x 3))
+               (prim-fn :arg [x] (* x 3))
+               (prim-fn :ret [x] (* x 3))]]
+      (is (= [3 6 9 12] (map long (hiphip/amap-fn f xs))))
+      (is (= [1 2 3 4] (map long xs)))
+      (let [zs (hiphip/aclone xs)]
+        (is (identical? zs (hiphip/afill-fn! f zs)))
+        (is (= [3 6 9 12] (map long zs)))))
+    (is (= [6 8 10 12] (map long (hiphip/amap-fn (prim-acc-fn [x y] (+ x y)) xs ys))))
+    (is (= [5 12 21 32] (map long (hiphip/amap-fn * xs ys))))
+    (is (thrown? IllegalArgumentException (hiphip/amap-fn + xs (into-arr [1]))))
+    (is (== 10 (hiphip/areduce-fn + xs)))
+    (is (== 20 (hiphip/areduce-fn (prim-acc-fn [a x] (+ a x)) 10 xs)))
+    (is (== 10 (hiphip/areduce-fn (prim-elem-fn [a x] (+ (long a) x)) 0 xs)))
+    (is (== 6 (hiphip/areduce-fn (fn [a x] (if (>= a 6) (reduced a) (+ a x))) 0 xs)))
+    (is (= 0 (hiphip/areduce-fn + (into-arr []))))))
+
+(defbenchmarktype amap-fn
+  (hiphip/amap [x xs] (* x 3))
+  {:double 2.0 :float 2.0 :int 2.0 :long 2.0} (hiphip/amap-fn (prim-fn [x] (* x 3)) xs)
+  nil (hiphip/amap-fn #(* % 3) xs))
+
+(defbenchmarktype areduce-fn
+  (hiphip/areduce [x xs] s (typed-zero) (+ s x))
+  {:double 2.0 :float 2.0 :int 2.0 :long 2.0}
+  (hiphip/areduce-fn (prim-acc-fn [s x] (+ s x)) 0 xs)
+  nil (hiphip/areduce-fn + 0 xs))
+
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;;; Top-level benchmark/equality test runners
 
@@ -389,4 +752,78 @@
         xs (hiphip/amake [_ 10000] (.nextInt r 1000000))]
     (sort-ops xs xs)))
 
+(deftestfasttype random-fill-ops
+  (hiphip/amake [_ (alength xs)] (rand-int 10))
+  0.5 (hiphip/arand-int! xs 10 42))
+
+(deftest ^:bench random-fill-ops-bench
+  (random-fill-ops (gen-array 10000 0) (gen-array 10000 1)))
+
+(deftestfasttype reducers-ops
+  (hiphip/asum xs)
+  nil (reduce + xs)
+  nil (reduce + (hiphip/areducible xs))
+  {:double 2.0 :float 3.0 :int 2.0 :long 2.0}
+  (reduce (prim-acc-fn [a x] (+ a x)) 0 (hiphip/areducible xs))
+  nil (r/fold + (prim-acc-fn [a x] (+ a x)) (hiphip/areducible xs)))
+
+(deftest ^:bench reducers-ops-bench
+  (reducers-ops (gen-array 10000 0) (gen-array 10000 1)))
+
+(defmacro ^:private deftopbench
+  "Like deftestfasttype, but for fns of an array and a TopK over a copy of it."
+  [name expr & slowness-and-exprs]
+  `(deftestfast ~name [~(impl/array-cast +type+ 'xs) ~'t]
+     ~expr
+     ~@(select-slowness slowness-and-exprs)))
+
+(deftopbench top-k-ops
+  (hiphip/amax-indices xs 5)
+  0.02 (do (hiphip/atop-set! t (rand-int (alength xs)) (rand-int 1000000))
+          (hiphip/atop-k t 5)))
+
+(deftest ^:bench top-k-ops-bench
+  (let [r (java.util.Random. 1)
+        xs (hiphip/amake [_ 100000] (.nextInt r 1000000))]
+    (top-k-ops xs (hiphip/atop-index (hiphip/aclone xs)))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;; Test 2-D (array of arrays) ops
+
+(defn- into-arr2 [rows]
+  (into-array (class (into-arr [])) (map into-arr rows)))
+
+(defn- rows-of [xss]
+  (map seq xss))
+
+(deftest array2-test
+  (let [xss (into-arr2 [[1 2 3] [] [4 5] [6]])
+        yss (into-arr2 [[10 20 30 40] [1] [50 60] [70]])
+        seen (java.util.ArrayList.)]
+    (hiphip/doarr2 [[i j x] xss y yss :let [z (+ x y)]] (.add seen [i j x z]))
+    (is (= [[0 0 1 11] [0 1 2 22] [0 2 3 33] [2 0 4 54] [2 1 5 65] [3 0 6 76]]
+           (map #(map long %) seen)))
+    (is (= [[2 4 6] nil [8 10] [12]]
+           (map #(some->> % (map long)) (rows-of (hiphip/amap2 [x xss] (* 2 x))))))
+    (is (= [[0 0 0] nil [8 10] [18]]
+           (map #(some->> % (map long)) (rows-of (hiphip/amap2 [[i j x] xss] (* i x))))))
+    (is (= 21 (long (hiphip/areduce2 [x xss] s 0.0 (+ s x)))))
+    (is (= 1 (hiphip/areduce2 [[i j x] xss] s 0 (+ s (if (== i j) 1 0)))))
+    (is (= [6 0 9 6] (map long (hiphip/arow-sums xss))))
+    (is (= [11 7 3] (map long (hiphip/acol-sums xss))))
+    (is (= [3 0 5 6] (map long (hiphip/areduce-rows [x xss] m 0 (max m x)))))
+    (is (= [6 5 3] (map long (hiphip/areduce-cols [x xss] m 0 (max m x)))))
+    (is (= [-64 -55 -27] (map long (hiphip/areduce-cols [x xss y yss] m 0 (min m (- x y)))))))
+  (testing "empty"
+    (is (= 0 (hiphip/alength (hiphip/arow-sums (into-arr2 [])))))
+    (is (= 0 (hiphip/alength (hiphip/acol-sums (into-arr2 [[] []]))))))
+  (testing "mismatched shapes"
+    (let [xss (into-arr2 [[1 2] [3 4]])]
+      (is (thrown? IndexOutOfBoundsException
+                   (hiphip/amap2 [x xss y (into-arr2 [[1 2]])] (+ x y))))
+      (is (thrown? IndexOutOfBoundsException
+                   (hiphip/doarr2 [x xss y (into-arr2 [[1 2] [3]])] (throw (Exception.)))))
+      (is (thrown? IllegalArgumentException
+                   (macroexpand-1 (list `hiphip/doarr2 '[x xss :range [0 1]] nil)))))))
+
 (set! *warn-on-reflection* false)